@@ -0,0 +1,54 @@
+package com.soundcloud.followermaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Send stage: writing events to a client whose socket discards everything,
+ * either flushing every event, or a batch of events at once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private Client client;
+    private Event event;
+
+    @Setup
+    public void setup() {
+        client = new Client(666L, new DiscardingSocket());
+        event = Event.newPrivateMessage(542532L, 60L, 50L);
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        client.send(event);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void writeBatchAndFlush() throws IOException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            client.write(event);
+        }
+        client.flush();
+    }
+}
@@ -0,0 +1,84 @@
+package com.soundcloud.followermaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up a client by id, and going through every client, in the
+ * router's {@link ClientRegistry}, against the {@code ConcurrentHashMap}
+ * it replaced. Clients do not receive anything, so that only the
+ * registries are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientRegistryBenchmark {
+
+    private static final int LOOKUP_POOL_SIZE = 64 * 1024;
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private ClientRegistry registry;
+    private Map<Long, Client> map;
+    private long[] ids;
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = new ClientRegistry();
+        map = new ConcurrentHashMap<>();
+        for (long id = 1; id <= users; id++) {
+            Client client = new Client(id, new DiscardingSocket());
+            registry.put(client);
+            map.put(id, client);
+        }
+        Random random = new Random(666);
+        ids = new long[LOOKUP_POOL_SIZE];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + random.nextInt(users);
+        }
+    }
+
+    @Benchmark
+    public Client getFromRegistry() {
+        next = (next + 1) & (LOOKUP_POOL_SIZE - 1);
+        return registry.get(ids[next]);
+    }
+
+    @Benchmark
+    public Client getFromMap() {
+        next = (next + 1) & (LOOKUP_POOL_SIZE - 1);
+        return map.get(ids[next]);
+    }
+
+    @Benchmark
+    public void iterateRegistry(Blackhole blackhole) {
+        for (int i = 0; i < registry.size(); i++) {
+            blackhole.consume(registry.clientAt(i));
+        }
+    }
+
+    @Benchmark
+    public void iterateMap(Blackhole blackhole) {
+        map.values().forEach(blackhole::consume);
+    }
+}
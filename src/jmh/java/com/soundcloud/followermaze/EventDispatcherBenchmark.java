@@ -0,0 +1,182 @@
+package com.soundcloud.followermaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reorder stage: submitting events to the dispatcher, through its shared
+ * queue or through a producer's ring with each wait strategy, and dispatching
+ * batches of them in order, under several disorder distributions.
+ *
+ * <ul>
+ *     <li>{@code none}: events arrive in order.</li>
+ *     <li>{@code local}: each event arrives at most 64 positions away from its place.</li>
+ *     <li>{@code shuffled}: the whole batch arrives in random order.</li>
+ *     <li>{@code reversed}: the whole batch arrives backwards, so nothing is dispatched before its last event.</li>
+ * </ul>
+ *
+ * Events are routed to a router that does nothing, so that only reordering is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDispatcherBenchmark {
+
+    private static final int BATCH_SIZE = 4096;
+    private static final int LOCAL_DISORDER = 64;
+    private static final int SUBMITTED_BATCH_SIZE = 100;
+
+    private static class NullRouter extends EventRouter {
+        @Override
+        public void route(Event event) { }
+
+        @Override
+        public void flush() { }
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+
+        @Param({"none", "local", "shuffled", "reversed"})
+        public String disorder;
+
+        List<Event> events;
+        EventDispatcher dispatcher;
+
+        @Setup(Level.Trial)
+        public void buildEvents() {
+            List<Event> ordered = new ArrayList<>(BATCH_SIZE);
+            for (long sequence = 1; sequence <= BATCH_SIZE; sequence++) {
+                ordered.add(Event.newBroadcast(sequence));
+            }
+            events = disorder(ordered, new Random(666));
+        }
+
+        private List<Event> disorder(List<Event> events, Random random) {
+            switch (disorder) {
+                case "local":
+                    for (int i = 0; i < events.size(); i += LOCAL_DISORDER) {
+                        Collections.shuffle(events.subList(i, Math.min(events.size(), i + LOCAL_DISORDER)), random);
+                    }
+                    break;
+                case "shuffled":
+                    Collections.shuffle(events, random);
+                    break;
+                case "reversed":
+                    Collections.reverse(events);
+                    break;
+            }
+            return events;
+        }
+
+        // Every batch starts over at the first sequence number.
+        @Setup(Level.Invocation)
+        public void newDispatcher() {
+            dispatcher = new EventDispatcher(new NullRouter(), BATCH_SIZE);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RunningDispatcher {
+
+        ExecutorService worker;
+        EventDispatcher dispatcher;
+        long sequence;
+
+        @Setup(Level.Trial)
+        public void start() {
+            worker = Executors.newSingleThreadExecutor();
+            dispatcher = new EventDispatcher(new NullRouter());
+            worker.submit(dispatcher);
+            sequence = 1;
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            worker.shutdownNow();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RunningProducer {
+
+        @Param({"park", "yield", "spin"})
+        public String waitStrategy;
+
+        ExecutorService worker;
+        EventDispatcher.Producer producer;
+        List<Event> events = new ArrayList<>(SUBMITTED_BATCH_SIZE);
+        long sequence;
+
+        @Setup(Level.Trial)
+        public void start() {
+            worker = Executors.newSingleThreadExecutor();
+            ReorderBuffer reorderBuffer = new ReorderBuffer(EventDispatcher.DEFAULT_MIN_REORDER_WINDOW,
+                    EventDispatcher.DEFAULT_MAX_REORDER_WINDOW, 1);
+            EventDispatcher dispatcher = new EventDispatcher(new NullRouter(), reorderBuffer,
+                    WaitStrategy.valueOf(waitStrategy.toUpperCase()), EventDispatcher.DEFAULT_RING_CAPACITY, null, 0);
+            producer = dispatcher.newProducer();
+            worker.submit(dispatcher);
+            sequence = 1;
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            worker.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void dispatchBatch(Batch batch) {
+        batch.dispatcher.dispatchBatch(batch.events);
+    }
+
+    @Benchmark
+    public void submit(RunningDispatcher state) {
+        state.dispatcher.submit(Event.newBroadcast(state.sequence++));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SUBMITTED_BATCH_SIZE)
+    public void submitAll(RunningDispatcher state) {
+        List<Event> events = new ArrayList<>(SUBMITTED_BATCH_SIZE);
+        for (int i = 0; i < SUBMITTED_BATCH_SIZE; i++) {
+            events.add(Event.newBroadcast(state.sequence++));
+        }
+        state.dispatcher.submitAll(events);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SUBMITTED_BATCH_SIZE)
+    public void submitThroughProducer(RunningProducer state) throws InterruptedIOException {
+        state.events.clear();
+        for (int i = 0; i < SUBMITTED_BATCH_SIZE; i++) {
+            state.events.add(Event.newBroadcast(state.sequence++));
+        }
+        state.producer.submitAll(state.events);
+    }
+}
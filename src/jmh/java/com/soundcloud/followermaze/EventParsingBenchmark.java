@@ -0,0 +1,89 @@
+package com.soundcloud.followermaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing stage: turning payloads and raw frames into events. Frames are
+ * decoded either into new events, or into pooled events that are recycled
+ * right away, the way the dispatcher recycles them once routed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventParsingBenchmark {
+
+    @Param({"666|F|60|50", "542532|B", "43|P|32|56", "634|S|32", "1|U|12|9"})
+    public String payload;
+
+    private String code;
+    private byte codeByte;
+    private ByteBuffer frames;
+    private EventDecoder decoder;
+    private EventDecoder pooledDecoder;
+
+    @Setup
+    public void setup() {
+        code = payload.split("\\|")[1];
+        codeByte = (byte) code.charAt(0);
+
+        // A buffer full of the same frame, decoded over and over again.
+        byte[] frame = (payload + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        frames = ByteBuffer.allocate(64 * 1024 / frame.length * frame.length);
+        while (frames.hasRemaining()) {
+            frames.put(frame);
+        }
+        frames.flip();
+        decoder = new EventDecoder();
+        pooledDecoder = new EventDecoder(new EventPool(1024));
+    }
+
+    @Benchmark
+    public Event fromPayload() {
+        return Event.fromPayload(payload);
+    }
+
+    @Benchmark
+    public EventType fromCode() {
+        return EventType.fromCode(code);
+    }
+
+    @Benchmark
+    public EventType fromCodeByte() {
+        return EventType.fromCode(codeByte);
+    }
+
+    @Benchmark
+    public Event decode() {
+        if (!frames.hasRemaining()) {
+            frames.rewind();
+        }
+        return decoder.decode(frames);
+    }
+
+    @Benchmark
+    public Event decodePooled() {
+        if (!frames.hasRemaining()) {
+            frames.rewind();
+        }
+        Event event = pooledDecoder.decode(frames);
+        event.recycle();
+        return event;
+    }
+}
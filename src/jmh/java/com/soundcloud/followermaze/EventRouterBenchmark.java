@@ -0,0 +1,97 @@
+package com.soundcloud.followermaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing stage: routing each type of event to clients that discard what
+ * they are sent.
+ *
+ * The follower graph is skewed, the way social graphs usually are: a few
+ * users are followed by most others, and most users have a handful of
+ * followers. Events are drawn from a pool built upfront, and routed
+ * clients are flushed every {@code FLUSH_INTERVAL} events, like the
+ * dispatcher does at the end of each batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventRouterBenchmark {
+
+    private static final int FOLLOWS_PER_USER = 20;
+    private static final int EVENT_POOL_SIZE = 64 * 1024;
+    private static final int FLUSH_INTERVAL = 4096;
+
+    @Param({"FOLLOW", "UNFOLLOW", "BROADCAST", "PRIVATE_MESSAGE", "STATUS_UPDATE"})
+    public EventType type;
+
+    @Param({"1000"})
+    public int users;
+
+    private EventRouter router;
+    private Event[] events;
+    private int next;
+
+    @Setup
+    public void setup() {
+        EventAudit.install(new EventAudit(0, 1, null));
+        router = new EventRouter();
+        for (long id = 1; id <= users; id++) {
+            router.register(new Client(id, new DiscardingSocket()));
+        }
+
+        Random random = new Random(666);
+        long sequence = 1;
+        for (int i = 0; i < users * FOLLOWS_PER_USER; i++) {
+            router.route(Event.newFollow(sequence++, randomUser(random), skewedUser(random)));
+        }
+        router.flush();
+
+        events = new Event[EVENT_POOL_SIZE];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = newEvent(sequence++, random);
+        }
+    }
+
+    private Event newEvent(long sequence, Random random) {
+        switch (type) {
+            case FOLLOW: return Event.newFollow(sequence, randomUser(random), skewedUser(random));
+            case UNFOLLOW: return Event.newUnfollow(sequence, randomUser(random), skewedUser(random));
+            case BROADCAST: return Event.newBroadcast(sequence);
+            case PRIVATE_MESSAGE: return Event.newPrivateMessage(sequence, randomUser(random), randomUser(random));
+            default: return Event.newStatusUpdate(sequence, skewedUser(random));
+        }
+    }
+
+    private long randomUser(Random random) {
+        return 1 + random.nextInt(users);
+    }
+
+    private long skewedUser(Random random) {
+        return 1 + (long) (Math.pow(random.nextDouble(), 3) * users);
+    }
+
+    @Benchmark
+    public void route() {
+        router.route(events[next]);
+        next = (next + 1) % events.length;
+        if (next % FLUSH_INTERVAL == 0) {
+            router.flush();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.soundcloud.followermaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Logging stage: appending a batch of received events to the write-ahead log,
+ * and committing it. Every event counts as delivered, so that full segments
+ * are deleted as they would be on a server keeping up with its event source.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteAheadLogBenchmark {
+
+    @Param({"NONE", "BATCH"})
+    public String syncPolicy;
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    private Path directory;
+    private WriteAheadLog log;
+    private List<Event> events;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("wal-benchmark");
+        log = new WriteAheadLog(directory, 16 * 1024 * 1024, WalSyncPolicy.valueOf(syncPolicy), 0, () -> Long.MAX_VALUE);
+        log.replay(event -> { });
+        events = TestFixtures.buildEvents(64 * 1024);
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public void appendAndCommit() throws IOException {
+        for (int i = 0; i < batchSize; i++) {
+            log.append(events.get(next));
+            next = (next + 1) & (events.size() - 1);
+        }
+        log.commit();
+    }
+}
@@ -0,0 +1,252 @@
+package com.soundcloud.followermaze;
+
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * A shared, append-only log of broadcast events.
+ *
+ * Instead of copying a broadcast into the outbound queue of every connected
+ * client, the routing thread appends it once to this log. Each subscribed
+ * client reads the log through its own {@link Cursor}, merging broadcasts
+ * with the events sent to it directly, in sequence order. This way, a
+ * broadcast costs one append on the routing thread, no matter how many
+ * clients are connected.
+ *
+ * The log is a linked list of fixed-size segments. Segments are reference
+ * counted by the cursors positioned in them, and are released as soon as
+ * every cursor has moved past them. Released segments become unreachable,
+ * and are reclaimed by the garbage collector.
+ *
+ * How far the slowest cursor can fall behind is bounded by a number of bytes.
+ * With the {@link SlowConsumerPolicy#BLOCK} policy, every append checks the
+ * bytes retained since the oldest segment still in use, and waits until the
+ * slowest cursor moves past that segment if they go over the bound. Since the
+ * log is only released a segment at a time, the bound does not apply while
+ * the log is made of a single segment. With the other policies, appends never
+ * block, and it is up to each cursor's owner to check its
+ * {@link Cursor#lagBytes() lag}.
+ *
+ * Events are appended by a single thread. Cursors can be opened by any
+ * thread, and each cursor is read by a single thread at a time.
+ */
+class BroadcastLog {
+
+    final static int SEGMENT_SIZE = 1024;
+
+    private final long capacityBytes;
+    private final SlowConsumerPolicy policy;
+    private final Set<Runnable> listeners = new CopyOnWriteArraySet<>();
+
+    // Guards the reference counts of segments, as well as the head.
+    private final Object lock = new Object();
+    private Segment head;
+
+    // Only modified by the appending thread.
+    private volatile Segment tail;
+    private volatile long appendedBytes;
+    private boolean unpublished;
+
+    // Where the head starts, so that appends can check the bytes retained without taking the lock.
+    private volatile long releasedBytes;
+
+    private static final class Segment {
+        final long startBytes;
+        final Event[] events = new Event[SEGMENT_SIZE];
+        // Bytes appended to the log up to, and including, each event.
+        final long[] endBytes = new long[SEGMENT_SIZE];
+        volatile int count;
+        volatile Segment next;
+        int references;
+
+        Segment(long startBytes) {
+            this.startBytes = startBytes;
+        }
+
+        long bytesBefore(int index) {
+            return index == 0 ? startBytes : endBytes[index - 1];
+        }
+    }
+
+    BroadcastLog(long capacityBytes, SlowConsumerPolicy policy) {
+        this.capacityBytes = capacityBytes;
+        this.policy = policy;
+        this.head = this.tail = new Segment(0);
+    }
+
+    /**
+     * Appends a broadcast to the log. Cursors can read it right away, but listeners are only notified
+     * about it once it is {@link #publish() published}.
+     */
+    void append(Event event) throws InterruptedIOException {
+        if (policy == SlowConsumerPolicy.BLOCK && appendedBytes - releasedBytes > capacityBytes) {
+            synchronized (lock) {
+                awaitSlowestCursor();
+            }
+        }
+        Segment segment = tail;
+        int count = segment.count;
+        if (count == SEGMENT_SIZE) {
+            segment = newSegment();
+            count = 0;
+        }
+        long bytes = appendedBytes + event.getFrameLength();
+        segment.events[count] = event;
+        segment.endBytes[count] = bytes;
+        segment.count = count + 1;
+        appendedBytes = bytes;
+        unpublished = true;
+    }
+
+    /**
+     * Lets listeners know that broadcasts were appended since the last time this was called.
+     */
+    void publish() {
+        if (unpublished) {
+            unpublished = false;
+            listeners.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Registers a listener to be notified whenever broadcasts are published.
+     * Adding the same listener more than once has no effect.
+     */
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Opens a cursor positioned at the end of the log, so that it will read every broadcast appended from now on.
+     */
+    Cursor newCursor() {
+        synchronized (lock) {
+            Segment segment = tail;
+            segment.references++;
+            return new Cursor(segment, segment.count);
+        }
+    }
+
+    long retainedBytes() {
+        synchronized (lock) {
+            return appendedBytes - head.startBytes;
+        }
+    }
+
+    private Segment newSegment() {
+        Segment segment = new Segment(appendedBytes);
+        synchronized (lock) {
+            tail.next = segment;
+            tail = segment;
+            releaseHead();
+        }
+        return segment;
+    }
+
+    private void awaitSlowestCursor() throws InterruptedIOException {
+        while (appendedBytes - head.startBytes > capacityBytes && head != tail) {
+            // Cursors may be waiting for a notification to catch up.
+            unpublished = true;
+            publish();
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a slow consumer");
+            }
+        }
+    }
+
+    private void releaseHead() {
+        boolean released = false;
+        while (head != tail && head.references == 0) {
+            head = head.next;
+            released = true;
+        }
+        if (released) {
+            releasedBytes = head.startBytes;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the log from a given position onwards. A cursor holds a reference
+     * to its current segment until it moves to the next one, or is closed.
+     */
+    class Cursor {
+
+        private Segment segment;
+        private int index;
+        private boolean closed;
+
+        private Cursor(Segment segment, int index) {
+            this.segment = segment;
+            this.index = index;
+        }
+
+        /**
+         * @return the next broadcast, or null if the cursor has read every published broadcast.
+         */
+        Event peek() {
+            if (index == SEGMENT_SIZE && !moveToNextSegment()) {
+                return null;
+            }
+            return index < segment.count ? segment.events[index] : null;
+        }
+
+        void advance() {
+            index++;
+        }
+
+        /**
+         * @return how many bytes of broadcasts were appended but not read by this cursor yet.
+         */
+        long lagBytes() {
+            return appendedBytes - segment.bytesBefore(index);
+        }
+
+        /**
+         * Skips every broadcast appended so far.
+         *
+         * @return the number of broadcasts skipped.
+         */
+        long skipToEnd() {
+            long skipped = 0;
+            while (peek() != null) {
+                int count = segment.count;
+                skipped += count - index;
+                index = count;
+            }
+            return skipped;
+        }
+
+        void close() {
+            synchronized (lock) {
+                if (!closed) {
+                    closed = true;
+                    segment.references--;
+                    releaseHead();
+                }
+            }
+        }
+
+        private boolean moveToNextSegment() {
+            Segment next = segment.next;
+            if (next == null) {
+                return false;
+            }
+            synchronized (lock) {
+                if (closed) {
+                    return false;
+                }
+                segment.references--;
+                next.references++;
+                segment = next;
+                index = 0;
+                releaseHead();
+            }
+            return true;
+        }
+    }
+}
@@ -1,15 +1,40 @@
 package com.soundcloud.followermaze;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static com.soundcloud.followermaze.SocketUtils.bufferedWriterFrom;
+import static com.soundcloud.followermaze.SocketUtils.silentClose;
 
+/**
+ * A user client, connected through a blocking socket.
+ *
+ * Events can either be sent one by one, or written in bulk and then flushed
+ * together. The latter lets {@link EventRouter} coalesce every event a client
+ * receives in a dispatch batch into as few socket writes as possible.
+ *
+ * Once a client finds out that its connection is gone, it lets its router
+ * know through a listener, so that it is evicted rather than written to
+ * again. A blocking client has no thread reading from its socket, so it only
+ * finds out when a write fails.
+ */
 public class Client {
 
-    private final Long id;
+    private final static int WRITE_BUFFER_SIZE = 8192;
+
+    final static Histogram writeLatency = Metrics.histogram("clients.writeNanos");
+
+    private final long id;
     private final Socket connection;
+    private OutputStream out;
+
+    // Whether this client has events written but not flushed yet. Only accessed by the routing thread.
+    private boolean unflushed;
+
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+    private volatile Runnable disconnectListener;
 
     Client(Long id, Socket connection) {
         this.id = id;
@@ -17,13 +42,89 @@ public class Client {
     }
 
     public void send(Event event) throws IOException {
-        Writer out = bufferedWriterFrom(this.connection);
-        out.write(event.toPayload());
-        out.write("\r\n");
-        out.flush();
+        write(event);
+        flush();
+    }
+
+    /**
+     * Writes an event without flushing it, so that it can be sent together with the following ones.
+     */
+    public void write(Event event) throws IOException {
+        event.writeFrameTo(outputStream());
+    }
+
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        outputStream().flush();
+        writeLatency.record(System.nanoTime() - start);
+    }
+
+    private OutputStream outputStream() throws IOException {
+        if (out == null) {
+            out = new BufferedOutputStream(connection.getOutputStream(), WRITE_BUFFER_SIZE);
+        }
+        return out;
+    }
+
+    /**
+     * Subscribes this client to a shared log of broadcasts, which it reads by itself from then on.
+     *
+     * @return false if this client does not support reading broadcasts from a log, and must be sent them one by one.
+     */
+    boolean subscribe(BroadcastLog log) {
+        return false;
+    }
+
+    /**
+     * Sets what to do once this client is disconnected. The listener is called right away if it already is,
+     * and may be called more than once.
+     */
+    void onDisconnect(Runnable listener) {
+        disconnectListener = listener;
+        if (disconnected.get()) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Closes the connection. Can be called from any thread, any number of times.
+     */
+    void close() {
+        silentClose(connection);
+        disconnected();
+    }
+
+    boolean isClosed() {
+        return disconnected.get();
+    }
+
+    /**
+     * Lets the listener know that the connection is gone, the first time it is called.
+     */
+    protected final void disconnected() {
+        if (disconnected.compareAndSet(false, true)) {
+            Runnable listener = disconnectListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    boolean markUnflushed() {
+        boolean wasFlushed = !unflushed;
+        unflushed = true;
+        return wasFlushed;
+    }
+
+    void markFlushed() {
+        unflushed = false;
     }
 
     public Long getId() {
         return id;
     }
+
+    long id() {
+        return id;
+    }
 }
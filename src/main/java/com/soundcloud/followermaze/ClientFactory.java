@@ -0,0 +1,14 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Builds the {@link Client} that will represent a user, once it has been
+ * identified by {@link ClientHandshake}. Each transport has its own factory.
+ */
+@FunctionalInterface
+interface ClientFactory {
+
+    Client newClient(Long id, Socket connection) throws IOException;
+}
@@ -15,6 +15,9 @@ import static com.soundcloud.followermaze.SocketUtils.bufferedReaderFrom;
  *
  * The handshake is as follows: the client connects, sends its
  * numeric ID as plain-text, followed by CRLF.
+ *
+ * The client is built by the {@link ClientFactory} of the transport chosen
+ * at startup.
  */
 class ClientHandshake implements Runnable {
 
@@ -23,10 +26,16 @@ class ClientHandshake implements Runnable {
 
     private final Socket connection;
     private final EventRouter eventRouter;
+    private final ClientFactory clientFactory;
 
     ClientHandshake(Socket connection, EventRouter eventRouter) {
+        this(connection, eventRouter, Client::new);
+    }
+
+    ClientHandshake(Socket connection, EventRouter eventRouter, ClientFactory clientFactory) {
         this.connection = connection;
         this.eventRouter = eventRouter;
+        this.clientFactory = clientFactory;
     }
 
     @Override
@@ -44,8 +53,8 @@ class ClientHandshake implements Runnable {
         }
     }
 
-    private void registerClient(Long id) {
+    private void registerClient(Long id) throws IOException {
         auditLogger.info("Registered client with id: " + id);
-        eventRouter.register(new Client(id, connection));
+        eventRouter.register(clientFactory.newClient(id, connection));
     }
 }
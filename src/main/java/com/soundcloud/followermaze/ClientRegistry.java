@@ -0,0 +1,214 @@
+package com.soundcloud.followermaze;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * The clients connected to an {@link EventRouter}, by id.
+ *
+ * Clients are kept in a dense array, so that the router can go through all
+ * of them, for broadcasts, as fast as through any array. Ids are looked up
+ * in an open-addressing table of primitive longs, like {@link LongHashSet}'s,
+ * that maps each id to the position of its client in the array, without
+ * boxing the id. A removed client is replaced by the last one in the array,
+ * so removals are O(1) too, but they change the position of that client.
+ *
+ * Zero marks free slots of the table, so it is tracked apart. This class is
+ * not thread-safe. It is meant to be owned by a single routing thread.
+ */
+class ClientRegistry {
+
+    private final static int MIN_CLIENTS = 16;
+
+    private long[] keys;
+    private int[] positions;
+    private int mask;
+    private int zeroPosition = -1;
+
+    private Client[] clients;
+    private int size;
+
+    ClientRegistry() {
+        this(0);
+    }
+
+    ClientRegistry(int expectedSize) {
+        allocate(LongHashing.capacityFor(expectedSize));
+        clients = new Client[Math.max(MIN_CLIENTS, expectedSize)];
+    }
+
+    /**
+     * @return the client registered under an id, or null if there is none.
+     */
+    Client get(long id) {
+        int position = positionOf(id);
+        return position < 0 ? null : clients[position];
+    }
+
+    /**
+     * Registers a client under its id, in place of the one registered under it before, if any.
+     *
+     * @return the client it replaced, or null if there was none.
+     */
+    Client put(Client client) {
+        long id = client.id();
+        int position = positionOf(id);
+        if (position >= 0) {
+            Client previous = clients[position];
+            clients[position] = client;
+            return previous;
+        }
+        if (size == clients.length) {
+            clients = Arrays.copyOf(clients, clients.length << 1);
+        }
+        clients[size] = client;
+        addKey(id, size++);
+        return null;
+    }
+
+    /**
+     * @return the client that was registered under an id, or null if there was none.
+     */
+    Client remove(long id) {
+        int position = removeKey(id);
+        if (position < 0) {
+            return null;
+        }
+        Client removed = clients[position];
+        int last = --size;
+        if (position != last) {
+            Client moved = clients[last];
+            clients[position] = moved;
+            setPosition(moved.id(), position);
+        }
+        clients[last] = null;
+        if (clients.length > MIN_CLIENTS && size < (clients.length >>> 2)) {
+            clients = Arrays.copyOf(clients, clients.length >>> 1);
+        }
+        if (LongHashing.shouldShrink(size - (zeroPosition < 0 ? 0 : 1), keys.length)) {
+            rehash(LongHashing.capacityFor(size));
+        }
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the client at a position of the dense array, between 0 and {@link #size()}. Positions change as
+     * clients are removed.
+     */
+    Client clientAt(int position) {
+        return clients[position];
+    }
+
+    void forEach(Consumer<Client> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(clients[i]);
+        }
+    }
+
+    private int positionOf(long id) {
+        if (id == 0) {
+            return zeroPosition;
+        }
+        int i = LongHashing.mix(id) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == id) {
+                return positions[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void setPosition(long id, int position) {
+        if (id == 0) {
+            zeroPosition = position;
+            return;
+        }
+        int i = LongHashing.mix(id) & mask;
+        while (keys[i] != id) {
+            i = (i + 1) & mask;
+        }
+        positions[i] = position;
+    }
+
+    private void addKey(long id, int position) {
+        if (id == 0) {
+            zeroPosition = position;
+            return;
+        }
+        int i = LongHashing.mix(id) & mask;
+        while (keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        positions[i] = position;
+        if (size > keys.length - (keys.length >>> 2)) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * @return the position the id was mapped to, or -1 if it was not in the table.
+     */
+    private int removeKey(long id) {
+        if (id == 0) {
+            int position = zeroPosition;
+            zeroPosition = -1;
+            return position;
+        }
+        int i = LongHashing.mix(id) & mask;
+        while (keys[i] != id) {
+            if (keys[i] == 0) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+        int position = positions[i];
+        shiftKeysBack(i);
+        return position;
+    }
+
+    private void shiftKeysBack(int free) {
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = keys[i];
+            if (key == 0) {
+                break;
+            }
+            int home = LongHashing.mix(key) & mask;
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = key;
+                positions[free] = positions[i];
+                free = i;
+            }
+        }
+        keys[free] = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldPositions = positions;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = LongHashing.mix(oldKeys[j]) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                positions[i] = oldPositions[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        positions = new int[capacity];
+        mask = capacity - 1;
+    }
+}
@@ -0,0 +1,18 @@
+package com.soundcloud.followermaze;
+
+/**
+ * The ways events can be written to user clients.
+ *
+ * <ul>
+ *     <li>{@link #BLOCKING}: events are written straight to the client's socket by the routing thread.</li>
+ *     <li>{@link #NIO}: events are queued and written by a small pool of selector threads
+ *     as soon as the client's channel is writable. See {@link NioTransport}.</li>
+ *     <li>{@link #THREADED}: events are queued and written by a thread of each client's own.
+ *     See {@link ThreadedClient}.</li>
+ * </ul>
+ */
+enum ClientTransport {
+    BLOCKING,
+    NIO,
+    THREADED
+}
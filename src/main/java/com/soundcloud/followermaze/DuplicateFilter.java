@@ -0,0 +1,67 @@
+package com.soundcloud.followermaze;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers which sequence numbers were received recently, so that events
+ * received twice, possibly from different event sources, can be discarded
+ * before they are logged and dispatched.
+ *
+ * Sequence numbers are tracked by a sliding bitset that covers a window of
+ * the most recent ones. Each word of the bitset holds 32 bits, one for each
+ * sequence number of a block, and the number of that block in its upper
+ * half. A word is reset, with a single compare-and-set, as soon as a newer
+ * block maps to it. This way, receivers can share a filter without locks.
+ *
+ * Sequence numbers older than the window cannot be told apart anymore, and
+ * are let through. The {@link ReorderBuffer} still rejects them, if they
+ * turn out to be duplicates.
+ */
+class DuplicateFilter {
+
+    private final static int BLOCK_SHIFT = 5;
+
+    private final AtomicLongArray words;
+    private final int mask;
+
+    /**
+     * @param window how many of the most recent sequence numbers are tracked, rounded up to a power of two.
+     */
+    DuplicateFilter(int window) {
+        int blocks = Math.max(1, window >>> BLOCK_SHIFT);
+        int size = blocks == 1 ? 1 : Integer.highestOneBit(blocks - 1) << 1;
+        this.words = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Marks a sequence number as received.
+     *
+     * @return false if the sequence number had already been received.
+     */
+    boolean add(long sequence) {
+        long block = sequence >>> BLOCK_SHIFT;
+        int tag = (int) block;
+        long bit = 1L << (sequence & ((1 << BLOCK_SHIFT) - 1));
+        int i = (int) block & mask;
+        while (true) {
+            long word = words.get(i);
+            int wordTag = (int) (word >>> 32);
+            long updated;
+            if (wordTag == tag && word != 0) {
+                if ((word & bit) != 0) {
+                    return false;
+                }
+                updated = word | bit;
+            } else if (word == 0 || tag - wordTag > 0) {
+                updated = ((long) tag << 32) | bit;
+            } else {
+                // Older than the window.
+                return true;
+            }
+            if (words.compareAndSet(i, word, updated)) {
+                return true;
+            }
+        }
+    }
+}
@@ -1,19 +1,60 @@
 package com.soundcloud.followermaze;
 
-import java.util.regex.Pattern;
-
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An event keeps the frame it was decoded from, terminator included, so that
+ * it can be forwarded to user clients exactly as it was read. The frame is
+ * never modified nor re-encoded, and the same bytes are shared by every
+ * recipient of the event.
+ *
+ * Events built through the factory methods have their frames encoded once,
+ * upon creation.
+ *
+ * Events decoded by an event receiver may instead come from an
+ * {@link EventPool}: preallocated slots, whose fields and frame buffer are
+ * overwritten by every event decoded into them. The dispatcher recycles a
+ * pooled event as soon as it is routed, so nothing may hold on to it past
+ * that point.
+ */
 public class Event implements Comparable<Event> {
 
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final int INITIAL_FRAME_CAPACITY = 64;
+
     private long sequence;
     private EventType type;
-    private Long fromId;
-    private Long toId;
+    private long fromId;
+    private long toId;
+    private byte[] frame;
+    private int frameLength;
+
+    // The pool the event is recycled to, or null if it is not pooled.
+    private final EventPool pool;
 
-    private Event(long sequence, EventType type, Long fromId, Long toId) {
+    private Event(long sequence, EventType type, long fromId, long toId, byte[] frame) {
         this.sequence = sequence;
         this.type = type;
         this.fromId = fromId;
         this.toId = toId;
+        this.frame = frame;
+        this.frameLength = frame.length;
+        this.pool = null;
+    }
+
+    /**
+     * Builds an empty slot of a pool, to be filled by {@link #set}.
+     */
+    Event(EventPool pool) {
+        this.frame = new byte[INITIAL_FRAME_CAPACITY];
+        this.pool = pool;
+    }
+
+    private Event(long sequence, EventType type, long fromId, long toId) {
+        this(sequence, type, fromId, toId, encode(sequence, type, fromId, toId));
     }
 
     public static Event newFollow(long sequence, long fromId, long toId) {
@@ -25,7 +66,7 @@ public class Event implements Comparable<Event> {
     }
 
     public static Event newBroadcast(long sequence) {
-        return new Event(sequence, EventType.BROADCAST, null, null);
+        return new Event(sequence, EventType.BROADCAST, 0, 0);
     }
 
     public static Event newPrivateMessage(long sequence, long fromId, long toId) {
@@ -33,28 +74,56 @@ public class Event implements Comparable<Event> {
     }
 
     public static Event newStatusUpdate(long sequence, long fromId) {
-        return new Event(sequence, EventType.STATUS_UPDATE, fromId, null);
+        return new Event(sequence, EventType.STATUS_UPDATE, fromId, 0);
     }
 
-    public static Event fromPayload(String payload) {
-        String[] tokens = getTokens(payload);
-        EventType type = EventType.fromCode(tokens[1]);
+    /**
+     * Builds an event that owns the given frame. The caller must not modify the frame afterwards.
+     */
+    static Event of(long sequence, EventType type, long fromId, long toId, byte[] frame) {
+        return new Event(sequence, type, fromId, toId, frame);
+    }
 
-        return new Event(
-                Long.parseLong(tokens[0]),
-                type,
-                type.hasFrom()? Long.parseLong(tokens[2]) : null,
-                type.hasTo()? Long.parseLong(tokens[3]) : null
-        );
+    /**
+     * Overwrites a pooled event, copying its frame from a buffer. Only called by the thread that acquired it.
+     */
+    void set(long sequence, EventType type, long fromId, long toId, ByteBuffer in, int frameStart, int frameEnd) {
+        this.sequence = sequence;
+        this.type = type;
+        this.fromId = fromId;
+        this.toId = toId;
+        this.frameLength = frameEnd - frameStart;
+        if (frame.length < frameLength) {
+            frame = new byte[Math.max(frameLength, frame.length << 1)];
+        }
+        for (int i = 0; i < frameLength; i++) {
+            frame[i] = in.get(frameStart + i);
+        }
+    }
+
+    /**
+     * Gives a pooled event back to its pool, once it was routed. Does nothing to other events.
+     */
+    void recycle() {
+        if (pool != null) {
+            pool.release(this);
+        }
     }
 
-    private static String[] getTokens(String payload) {
-        String[] tokens = payload.split(Pattern.quote("|"));
-        assert(tokens.length >= 2);
-        return tokens;
+    public static Event fromPayload(String payload) {
+        ByteBuffer frame = ByteBuffer.wrap((payload + "\r\n").getBytes(StandardCharsets.UTF_8));
+        Event event = new EventDecoder().decode(frame);
+        if (event == null) {
+            throw new IllegalArgumentException(payload);
+        }
+        return event;
     }
 
-    public String toPayload() {
+    private static byte[] encode(long sequence, EventType type, long fromId, long toId) {
+        return (payloadOf(sequence, type, fromId, toId) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static String payloadOf(long sequence, EventType type, long fromId, long toId) {
         StringBuilder s = new StringBuilder();
         s.append(sequence).append('|');
         s.append(type.getCode());
@@ -67,6 +136,34 @@ public class Event implements Comparable<Event> {
         return s.toString();
     }
 
+    public String toPayload() {
+        return new String(frame, 0, frameLength - terminatorLength(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns a read-only view of the original frame, terminator included.
+     */
+    public ByteBuffer getFrame() {
+        return ByteBuffer.wrap(frame, 0, frameLength).asReadOnlyBuffer();
+    }
+
+    void writeFrameTo(OutputStream out) throws IOException {
+        out.write(frame, 0, frameLength);
+    }
+
+    void writeFrameTo(ByteBuffer out) {
+        out.put(frame, 0, frameLength);
+    }
+
+    int getFrameLength() {
+        return frameLength;
+    }
+
+    private int terminatorLength() {
+        int length = frameLength;
+        return length >= CRLF.length && frame[length - 2] == CRLF[0] ? 2 : 1;
+    }
+
     public long getSequence() {
         return sequence;
     }
@@ -76,10 +173,18 @@ public class Event implements Comparable<Event> {
     }
 
     public Long getFromId() {
-        return fromId;
+        return type.hasFrom() ? fromId : null;
     }
 
     public Long getToId() {
+        return type.hasTo() ? toId : null;
+    }
+
+    long fromId() {
+        return fromId;
+    }
+
+    long toId() {
         return toId;
     }
 
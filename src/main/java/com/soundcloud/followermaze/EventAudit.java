@@ -0,0 +1,224 @@
+package com.soundcloud.followermaze;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Audit trail of the events received and forwarded by the server, kept off
+ * the threads receiving and routing events.
+ *
+ * Recording an event only copies a few primitives into a preallocated ring
+ * buffer. No message is built, and nothing is written, until a background
+ * thread drains the ring, turns each record into an "audit" log message and,
+ * optionally, appends it to a compact binary audit file. When the ring is
+ * full, records are dropped and counted, instead of holding back the caller.
+ *
+ * Events can be sampled. Whether an event is sampled only depends on its
+ * sequence number, so that every record of a sampled event is kept. Events
+ * are not recorded at all when they are not sampled, or when neither the
+ * "audit" logger nor the audit file would take them.
+ *
+ * Like loggers, the audit trail is reached statically. The server installs
+ * the one it was configured with; until then, nothing is audited.
+ */
+final class EventAudit implements Runnable {
+
+    final static byte RECEIVED = 0;
+    final static byte FORWARDED = 1;
+    final static byte BROADCAST = 2;
+
+    // Every record of the audit file takes the same number of bytes:
+    // kind, type code, sequence, from id, to id, client id and timestamp.
+    final static int RECORD_BYTES = 2 + 5 * 8;
+
+    private final static Logger auditLogger = Logger.getLogger("audit");
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    private final static LongAdder droppedRecords = Metrics.counter("audit.droppedRecords");
+
+    private final static long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final static long ALL_SAMPLED = 1L << 32;
+
+    private static volatile EventAudit installed = new EventAudit(0, 1, null);
+
+    private final long sampleThreshold;
+    private final DataOutputStream file;
+    private volatile boolean stopped;
+    private volatile Thread writer;
+
+    // Ring of records, one array per field. A slot is published once its
+    // entry in published holds the claim that filled it, plus one.
+    private final int mask;
+    private final byte[] kinds;
+    private final EventType[] types;
+    private final long[] sequences;
+    private final long[] fromIds;
+    private final long[] toIds;
+    private final long[] clientIds;
+    private final long[] timestamps;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+
+    /**
+     * @param sampleRate fraction of the events to audit, between 0 and 1.
+     * @param capacity number of records the ring holds, rounded up to a power of two.
+     * @param file the binary audit file, or null to only log records.
+     */
+    EventAudit(double sampleRate, int capacity, DataOutputStream file) {
+        this.sampleThreshold = (long) (Math.max(0, Math.min(1, sampleRate)) * ALL_SAMPLED);
+        this.file = file;
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.kinds = new byte[size];
+        this.types = new EventType[size];
+        this.sequences = new long[size];
+        this.fromIds = new long[size];
+        this.toIds = new long[size];
+        this.clientIds = new long[size];
+        this.timestamps = new long[size];
+        this.published = new AtomicLongArray(size);
+    }
+
+    /**
+     * Opens an audit trail and starts its writer thread.
+     *
+     * @param path the binary audit file, or null to only log records.
+     */
+    static EventAudit open(double sampleRate, int capacity, String path) throws IOException {
+        DataOutputStream file = path == null ? null
+                : new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path, true), 64 * 1024));
+        EventAudit audit = new EventAudit(sampleRate, capacity, file);
+        Thread writer = new Thread(audit, "audit-writer");
+        writer.setDaemon(true);
+        audit.writer = writer;
+        writer.start();
+        return audit;
+    }
+
+    static void install(EventAudit audit) {
+        installed = audit;
+    }
+
+    static void received(Event event) {
+        installed.record(RECEIVED, event, 0);
+    }
+
+    static void forwarded(long clientId, Event event) {
+        installed.record(FORWARDED, event, clientId);
+    }
+
+    static void broadcast(Event event) {
+        installed.record(BROADCAST, event, 0);
+    }
+
+    boolean isSampled(long sequence) {
+        return (LongHashing.mix(sequence) & 0xFFFFFFFFL) < sampleThreshold;
+    }
+
+    void record(byte kind, Event event, long clientId) {
+        if (!isSampled(event.getSequence()) || (file == null && !auditLogger.isLoggable(Level.INFO))) {
+            return;
+        }
+        long claim;
+        do {
+            claim = claimed.get();
+            if (claim - consumed > mask) {
+                droppedRecords.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(claim, claim + 1));
+
+        int i = (int) claim & mask;
+        kinds[i] = kind;
+        types[i] = event.getType();
+        sequences[i] = event.getSequence();
+        fromIds[i] = event.fromId();
+        toIds[i] = event.toId();
+        clientIds[i] = clientId;
+        timestamps[i] = System.currentTimeMillis();
+        published.lazySet(i, claim + 1);
+    }
+
+    /**
+     * Stops the writer thread once every record published so far has been written, and closes the audit file.
+     */
+    void close() throws InterruptedException {
+        stopped = true;
+        Thread thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopped) {
+                if (drain() == 0) {
+                    if (file != null) {
+                        file.flush();
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            drain();
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException e) {
+            errorLogger.severe("I/O error while writing audit file: " + e.getMessage());
+        }
+    }
+
+    private int drain() throws IOException {
+        int drained = 0;
+        long next = consumed;
+        while (true) {
+            int i = (int) next & mask;
+            if (published.get(i) != next + 1) {
+                break;
+            }
+            write(i);
+            types[i] = null;
+            consumed = ++next;
+            drained++;
+        }
+        return drained;
+    }
+
+    private void write(int i) throws IOException {
+        if (auditLogger.isLoggable(Level.INFO)) {
+            String payload = Event.payloadOf(sequences[i], types[i], fromIds[i], toIds[i]);
+            switch (kinds[i]) {
+                case RECEIVED:
+                    auditLogger.info("Received event: " + payload);
+                    break;
+                case FORWARDED:
+                    auditLogger.info("Forwarding to client " + clientIds[i] + " event: " + payload);
+                    break;
+                default:
+                    auditLogger.info("Appending to broadcast log event: " + payload);
+            }
+        }
+        if (file != null) {
+            file.writeByte(kinds[i]);
+            file.writeByte(types[i].getCode().charAt(0));
+            file.writeLong(sequences[i]);
+            file.writeLong(fromIds[i]);
+            file.writeLong(toIds[i]);
+            file.writeLong(clientIds[i]);
+            file.writeLong(timestamps[i]);
+        }
+    }
+}
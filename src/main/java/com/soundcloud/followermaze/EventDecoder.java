@@ -0,0 +1,174 @@
+package com.soundcloud.followermaze;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Event decoder turns the raw bytes read from an event source into events,
+ * without decoding them into characters or strings first.
+ *
+ * Frames are terminated by LF, optionally preceded by CR. The decoder scans
+ * the buffer in place, parses sequence numbers and user ids as ASCII digits
+ * straight into primitives and maps the event type through a lookup table.
+ * The only objects allocated per frame are the resulting {@link Event} and a
+ * copy of its original bytes, which the event keeps for forwarding. With an
+ * {@link EventPool}, frames are decoded into pooled events instead, and
+ * nothing is allocated at all.
+ *
+ * Malformed frames are not reported with exceptions. Instead, they are
+ * consumed, skipped and counted. A frame that does not fit in the buffer is
+ * considered malformed, and everything up to its terminator is discarded.
+ *
+ * This class is stateful and not thread-safe. Each event source connection
+ * should have its own decoder.
+ */
+class EventDecoder {
+
+    private static final byte SEPARATOR = '|';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    // Enough for any positive long value without overflowing.
+    private static final int MAX_DIGITS = 18;
+
+    private final EventPool pool;
+
+    private long malformedFrames;
+    private boolean discarding;
+
+    // Cursor shared by the parsing methods, so that they can return primitives.
+    private int cursor;
+
+    EventDecoder() {
+        this(null);
+    }
+
+    /**
+     * @param pool the pool events are decoded into, or null to allocate a new one for each frame.
+     */
+    EventDecoder(EventPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Decodes the next event from the buffer, which must be in read mode. The
+     * buffer's position is advanced past every frame consumed, including
+     * malformed ones.
+     *
+     * @return the next event, or null if the buffer does not hold any other complete, valid frame.
+     */
+    Event decode(ByteBuffer in) {
+        while (true) {
+            int start = in.position();
+            int end = indexOfLineFeed(in, start, in.limit());
+            if (end < 0) {
+                discardIfFull(in);
+                return null;
+            }
+            in.position(end + 1);
+            if (discarding) {
+                discarding = false;
+                continue;
+            }
+            Event event = parse(in, start, end + 1);
+            if (event != null) {
+                return event;
+            }
+            malformedFrames++;
+        }
+    }
+
+    long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    private void discardIfFull(ByteBuffer in) {
+        if (in.position() == 0 && in.limit() == in.capacity()) {
+            in.position(in.limit());
+            if (!discarding) {
+                discarding = true;
+                malformedFrames++;
+            }
+        }
+    }
+
+    private Event parse(ByteBuffer in, int start, int frameEnd) {
+        int end = frameEnd - 1;
+        if (end > start && in.get(end - 1) == CR) {
+            end--;
+        }
+        cursor = start;
+
+        long sequence = parseNumber(in, end);
+        if (sequence < 0 || !skipSeparator(in, end) || cursor >= end) {
+            return null;
+        }
+
+        EventType type = EventType.fromCode(in.get(cursor++));
+        if (type == null) {
+            return null;
+        }
+
+        long fromId = 0;
+        if (type.hasFrom()) {
+            if (!skipSeparator(in, end) || (fromId = parseNumber(in, end)) < 0) {
+                return null;
+            }
+        }
+
+        long toId = 0;
+        if (type.hasTo()) {
+            if (!skipSeparator(in, end) || (toId = parseNumber(in, end)) < 0) {
+                return null;
+            }
+        }
+
+        if (cursor != end) {
+            return null;
+        }
+        if (pool == null) {
+            return Event.of(sequence, type, fromId, toId, copyFrame(in, start, frameEnd));
+        }
+        Event event = pool.acquire();
+        event.set(sequence, type, fromId, toId, in, start, frameEnd);
+        return event;
+    }
+
+    private static byte[] copyFrame(ByteBuffer in, int start, int end) {
+        byte[] frame = new byte[end - start];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = in.get(start + i);
+        }
+        return frame;
+    }
+
+    private long parseNumber(ByteBuffer in, int end) {
+        int start = cursor;
+        long value = 0;
+        while (cursor < end && cursor - start < MAX_DIGITS) {
+            int digit = in.get(cursor) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            cursor++;
+        }
+        return cursor > start ? value : -1;
+    }
+
+    private boolean skipSeparator(ByteBuffer in, int end) {
+        if (cursor < end && in.get(cursor) == SEPARATOR) {
+            cursor++;
+            return true;
+        }
+        return false;
+    }
+
+    private static int indexOfLineFeed(ByteBuffer in, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (in.get(i) == LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,21 +1,49 @@
 package com.soundcloud.followermaze;
 
-import java.util.concurrent.PriorityBlockingQueue;
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Event dispatcher is an event loop. It has an internal queue that synchronize
- * producers and consumers of events. Producers can submit events at will.
+ * Event dispatcher is an event loop. It synchronizes producers and consumers
+ * of events. Producers can submit events at will, either one by one or,
+ * preferably, a whole batch at once.
  *
- * At each interaction, events are picked from the queue in batches, and then
- * dispatched to {@link EventRouter}. If an event stays in the queue for more
- * than a timeout period, it will be dispatched regardless of a batch being
- * filled or not.
+ * Each event source connection is expected to be a {@link Producer} of its
+ * own, with its own {@link EventRing}: a preallocated ring, which hands
+ * events over to the dispatching thread without taking any lock. Events
+ * can also be submitted by any thread through an unbounded shared queue,
+ * which is how the server submits the events it recovers on startup.
  *
- * The queue also sorts events by their respective sequence numbers, in case events
- * are sent out-of-order. Please note that the ability for this server to sort
- * out-of-order events is dictated by the batch size and batch timeout values.
- * They should be large enough to fit your needs while not sacrificing
- * efficiency.
+ * When there is nothing to dispatch, and when a producer's ring is full,
+ * threads wait according to a {@link WaitStrategy}, trading CPU time for
+ * latency. While the dispatcher waits, a {@link GapWatchdog} can decide to
+ * skip events that are missing for too long.
+ *
+ * Events are taken from the rings and the queue as soon as they arrive and
+ * placed into a {@link ReorderBuffer}, keyed by their sequence numbers.
+ * Whenever the next expected sequence number becomes available, the
+ * contiguous run of events that starts with it is dispatched to
+ * {@link EventRouter} immediately. This way, events are always dispatched
+ * in strict order, and no event waits longer than it takes for the gap
+ * before it to close. The reorder buffer sizes itself from the disorder it
+ * observes, so it does not need to be tuned by hand.
+ *
+ * Optionally, each producer also has an {@link EventPool}, which its events
+ * are decoded into, and which the dispatching thread gives them back to as
+ * soon as they are routed. This is only safe with a router that does not
+ * hold on to events once it has routed them.
+ *
+ * Events that are already waiting are dispatched together, in a batch of
+ * about {@code MAX_BATCH_SIZE} events. The router is flushed at the end of
+ * each batch, so that every client receives the events dispatched to it in
+ * that batch with a single write.
  *
  * When implementing TCP servers, it is important to receive and acknowledge
  * requests as quickly as possible to achieve maximum server throughput and
@@ -26,53 +54,267 @@ import java.util.concurrent.PriorityBlockingQueue;
  */
 public class EventDispatcher implements Runnable {
 
+    private final static long FIRST_SEQUENCE = 1L;
+    private final static int MAX_BATCH_SIZE = 4096;
+
+    final static int DEFAULT_MIN_REORDER_WINDOW = 1024;
+    final static int DEFAULT_MAX_REORDER_WINDOW = 1024 * 1024;
+    final static int DEFAULT_RING_CAPACITY = 64 * 1024;
+    final static int DEFAULT_EVENT_POOL_SIZE = 64 * 1024;
+
+    private final static Histogram batchSizes = Metrics.histogram("dispatcher.batchSize");
+
     private final EventRouter router;
+    private final WaitStrategy waitStrategy;
+    private final int ringCapacity;
+    private final int eventPoolSize;
 
-    // A thread-safe queue that stores comparable elements and retrieves then in order.
-    private final PriorityBlockingQueue<Event> queue;
+    // Each element is a batch of events, submitted together.
+    private final Queue<List<Event>> queue = new ConcurrentLinkedQueue<>();
+    private final List<EventRing> rings = new CopyOnWriteArrayList<>();
 
-    private final int batchSize;
-    private final long batchTimeout;
-    private final Object dispatchMonitor;
+    // Set while the dispatching thread is parked, waiting for events.
+    private volatile Thread dispatchingThread;
+    private volatile boolean parked;
+
+    // Only accessed by the dispatching thread.
+    private final ReorderBuffer reorderBuffer;
+    private final GapWatchdog gapWatchdog;
+    // Index of the ring to visit first, kept below the number of rings so that it never overflows.
+    int nextRing;
 
     EventDispatcher(EventRouter router) {
-        this(router, 8192, 5000);
+        this(router, new ReorderBuffer(DEFAULT_MIN_REORDER_WINDOW, DEFAULT_MAX_REORDER_WINDOW, FIRST_SEQUENCE),
+                WaitStrategy.PARK, DEFAULT_RING_CAPACITY, null, 0);
     }
 
-    EventDispatcher(EventRouter router, int batchSize, long batchTimeout) {
+    /**
+     * Creates a dispatcher whose reorder window does not adapt to the disorder of the stream.
+     */
+    EventDispatcher(EventRouter router, int reorderWindow) {
+        this(router, new ReorderBuffer(reorderWindow, FIRST_SEQUENCE), WaitStrategy.PARK, DEFAULT_RING_CAPACITY, null, 0);
+    }
+
+    /**
+     * @param reorderBuffer the buffer events are reordered in, positioned at the first sequence number to dispatch.
+     * @param ringCapacity number of events the ring of each producer holds.
+     * @param gapWatchdog the watchdog that decides when to skip missing events, or null to wait for them forever.
+     * @param eventPoolSize number of events the pool of each producer holds, or 0 for producers without pools.
+     */
+    EventDispatcher(EventRouter router, ReorderBuffer reorderBuffer, WaitStrategy waitStrategy, int ringCapacity,
+                    GapWatchdog gapWatchdog, int eventPoolSize) {
         this.router = router;
-        this.queue = new PriorityBlockingQueue<>(batchSize * 2);
-        this.batchSize = batchSize;
-        this.batchTimeout = batchTimeout;
-        this.dispatchMonitor = new Object();
+        this.eventPoolSize = eventPoolSize;
+        this.gapWatchdog = gapWatchdog;
+        this.waitStrategy = waitStrategy;
+        this.ringCapacity = ringCapacity;
+        this.reorderBuffer = reorderBuffer;
+        Metrics.gauge("dispatcher.queueDepth", queue::size);
+        Metrics.gauge("dispatcher.ringDepth", () -> rings.stream().mapToLong(EventRing::size).sum());
+        Metrics.gauge("dispatcher.reorderBufferSize", reorderBuffer::size);
+        Metrics.gauge("dispatcher.reorderWindow", reorderBuffer::capacity);
+        Metrics.gauge("dispatcher.reorderDisplacement", reorderBuffer::getCoveredDisplacement);
+        Metrics.gauge("dispatcher.spilledSize", reorderBuffer::spilled);
     }
 
     public void submit(Event event) {
-        queue.add(event);
-        if (queue.size() >= batchSize) {
-            synchronized (dispatchMonitor) {
-                dispatchMonitor.notifyAll();
-            }
+        queue.add(Collections.singletonList(event));
+        wakeUp();
+    }
+
+    /**
+     * Submits several events at once. The dispatcher takes ownership of the list, which must not be modified
+     * afterwards.
+     */
+    public void submitAll(List<Event> events) {
+        if (!events.isEmpty()) {
+            queue.add(events);
+            wakeUp();
         }
     }
 
+    /**
+     * Opens a producer with a ring, and possibly a pool, of its own, to be used by a single thread at a time.
+     */
+    Producer newProducer() {
+        EventRing ring = new EventRing(ringCapacity);
+        rings.add(ring);
+        return new Producer(ring, eventPoolSize > 0 ? new EventPool(eventPoolSize) : null);
+    }
+
     @Override
     public void run() {
-        while (true) {
-            try {
-                synchronized (dispatchMonitor) {
-                    dispatchMonitor.wait(batchTimeout);
-                }
-                dispatchBatch();
-            } catch (InterruptedException ignored) { }
+        dispatchingThread = Thread.currentThread();
+        List<Event> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            take(batch);
+            boolean idle = batch.isEmpty();
+            if (!idle) {
+                dispatchBatch(batch);
+                batch.clear();
+            }
+            long nanosUntilGapSkip = gapWatchdog == null ? Long.MAX_VALUE : watchGap();
+            if (idle && nanosUntilGapSkip > 0) {
+                idle(nanosUntilGapSkip);
+            }
+        }
+        reorderBuffer.close();
+    }
+
+    /**
+     * Dispatches every event of a batch that is in order, and flushes the router.
+     * Only called by the dispatching thread.
+     */
+    void dispatchBatch(List<Event> batch) {
+        batchSizes.record(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            reorder(batch.get(i));
+        }
+        router.flush();
+    }
+
+    //
+    // Rings are visited starting with a different one every time, so that a
+    // busy producer cannot keep the others waiting. Closed rings are dropped
+    // once every event published to them was taken.
+    //
+
+    void take(List<Event> batch) {
+        Object[] snapshot = rings.toArray();
+        int first = snapshot.length == 0 ? 0 : nextRing % snapshot.length;
+        for (int i = 0; i < snapshot.length && batch.size() < MAX_BATCH_SIZE; i++) {
+            EventRing ring = (EventRing) snapshot[(first + i) % snapshot.length];
+            boolean closed = ring.isClosed();
+            ring.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+            if (closed && ring.isEmpty()) {
+                rings.remove(ring);
+            }
+        }
+        nextRing = first + 1;
+        List<Event> events;
+        while (batch.size() < MAX_BATCH_SIZE && (events = queue.poll()) != null) {
+            batch.addAll(events);
+        }
+    }
+
+    private boolean hasPendingEvents() {
+        if (!queue.isEmpty()) {
+            return true;
+        }
+        for (EventRing ring : rings) {
+            if (!ring.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //
+    // A parked dispatching thread is unparked by producers after they publish.
+    // Both sides write a volatile field before reading the other side's, so
+    // either the producer sees that the thread is parked, or the thread sees
+    // the events.
+    //
+
+    /**
+     * @param maxNanos how long to wait at most, or {@code Long.MAX_VALUE} to wait until events are published.
+     */
+    private void idle(long maxNanos) {
+        if (waitStrategy != WaitStrategy.PARK) {
+            waitStrategy.idle();
+            return;
+        }
+        parked = true;
+        if (!hasPendingEvents()) {
+            if (maxNanos == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, maxNanos);
+            }
+        }
+        parked = false;
+    }
+
+    /**
+     * Skips the gap in front of the reorder buffer's head if it is due, and dispatches the events held back by it.
+     *
+     * @return how many nanoseconds the dispatching thread can wait before checking the gap again.
+     */
+    private long watchGap() {
+        long now = System.nanoTime();
+        long nanosLeft = gapWatchdog.nanosLeft(reorderBuffer, now);
+        if (nanosLeft > 0) {
+            return nanosLeft;
+        }
+        gapWatchdog.skip(reorderBuffer, now);
+        dispatchContiguousRun();
+        router.flush();
+        return 0;
+    }
+
+    private void wakeUp() {
+        if (parked) {
+            LockSupport.unpark(dispatchingThread);
+        }
+    }
+
+    private void reorder(Event event) {
+        if (reorderBuffer.offer(event)) {
+            dispatchContiguousRun();
         }
     }
 
-    private void dispatchBatch() {
-        for (int i = 0; i < batchSize; i++) {
-            Event e = queue.poll();
-            if (e == null) break;
+    private void dispatchContiguousRun() {
+        Event e;
+        while ((e = reorderBuffer.poll()) != null) {
             router.route(e);
+            e.recycle();
+        }
+    }
+
+    /**
+     * Submits events through a ring of its own. When the ring is full, submitting waits for the dispatching
+     * thread to make room, according to the dispatcher's wait strategy.
+     */
+    class Producer implements Closeable {
+
+        private final EventRing ring;
+        private final EventPool pool;
+
+        private Producer(EventRing ring, EventPool pool) {
+            this.ring = ring;
+            this.pool = pool;
+        }
+
+        /**
+         * @return the pool to decode the submitted events into, or null if they are not pooled.
+         */
+        EventPool getEventPool() {
+            return pool;
+        }
+
+        /**
+         * Submits several events at once. Unlike {@link EventDispatcher#submitAll(List)}, the list can be reused
+         * as soon as this returns.
+         */
+        void submitAll(List<Event> events) throws InterruptedIOException {
+            int published = 0;
+            while (true) {
+                published += ring.offer(events, published);
+                wakeUp();
+                if (published == events.size()) {
+                    return;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Interrupted while waiting for the dispatcher");
+                }
+                waitStrategy.idle();
+            }
+        }
+
+        @Override
+        public void close() {
+            ring.close();
         }
     }
 }
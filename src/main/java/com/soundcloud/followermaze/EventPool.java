@@ -0,0 +1,64 @@
+package com.soundcloud.followermaze;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reusable {@link Event} slots for an event receiver, so that decoding an
+ * event does not allocate anything once the pool is warm.
+ *
+ * A pool sits between a single receiver, which acquires events and decodes
+ * into them, and the dispatching thread, which releases them once they are
+ * routed. Released events go back through an {@link EventRing}, the other
+ * way around from the ring that hands events to the dispatcher, so neither
+ * side takes a lock. The receiver takes them back in batches.
+ *
+ * The pool is bounded: when it is empty, a new event is allocated, and when
+ * it is full, released events are left to the garbage collector. Events that
+ * are never released, such as the ones spilled to disk or discarded as too
+ * old, are not lost, only replaced.
+ */
+final class EventPool {
+
+    private final static int REFILL_BATCH_SIZE = 256;
+
+    private final static LongAdder allocatedEvents = Metrics.counter("events.pool.allocated");
+
+    private final EventRing released;
+
+    // Only accessed by the receiver.
+    private final List<Event> free = new ArrayList<>(REFILL_BATCH_SIZE);
+
+    /**
+     * @param capacity number of released events the pool holds, rounded up to a power of two.
+     */
+    EventPool(int capacity) {
+        this.released = new EventRing(capacity);
+    }
+
+    /**
+     * Takes an event to decode into. Only called by the receiver.
+     */
+    Event acquire() {
+        if (free.isEmpty() && released.drainTo(free, REFILL_BATCH_SIZE) == 0) {
+            allocatedEvents.increment();
+            return new Event(this);
+        }
+        return free.remove(free.size() - 1);
+    }
+
+    /**
+     * Gives back an event that was acquired, but never submitted. Only called by the receiver.
+     */
+    void reuse(Event event) {
+        free.add(event);
+    }
+
+    /**
+     * Gives back an event once it is routed. Only called by the dispatching thread.
+     */
+    void release(Event event) {
+        released.offer(event);
+    }
+}
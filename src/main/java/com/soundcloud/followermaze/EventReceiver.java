@@ -1,48 +1,125 @@
 package com.soundcloud.followermaze;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
-import static com.soundcloud.followermaze.SocketUtils.bufferedReaderFrom;
-
 /**
  * Event receiver has one single function: to receive and acknowledge
  * events from an event source TCP connection as quickly as possible, and
  * enqueue them at an instance of {@link EventDispatcher} for asynchronous
  * processing and dispatching.
+ *
+ * Bytes are read straight into a reusable buffer and decoded in place by an
+ * {@link EventDecoder}, without going through a character decoder or
+ * splitting strings.
+ *
+ * Several event sources can be connected at once, each one with its own
+ * receiver. Receivers may share a {@link DuplicateFilter}, so that an event
+ * sent by more than one source is only submitted once.
+ *
+ * The events decoded from each read are submitted together, in a single
+ * batch, through an {@link EventDispatcher.Producer} of the receiver's own.
+ * Optionally, they are first appended to a {@link WriteAheadLog},
+ * shared by every receiver, and only submitted once committed. If the
+ * producer has an {@link EventPool}, events are decoded into it.
  */
 class EventReceiver implements Runnable {
 
-    private final static Logger auditLogger = Logger.getLogger("audit");
     private final static Logger errorLogger = Logger.getLogger("errors");
 
+    private final static int RECEIVE_BUFFER_SIZE = 64 * 1024;
+
+    private final static LongAdder receivedEvents = Metrics.counter("events.received");
+    private final static LongAdder malformedEvents = Metrics.counter("events.malformed");
+    private final static LongAdder duplicateEvents = Metrics.counter("events.duplicate");
+
     private final Socket connection;
     private final EventDispatcher dispatcher;
+    private final WriteAheadLog log;
+    private final DuplicateFilter duplicates;
 
     EventReceiver(Socket connection, EventDispatcher dispatcher) {
+        this(connection, dispatcher, null, null);
+    }
+
+    /**
+     * @param log the log events are committed to before they are submitted, or null for none.
+     * @param duplicates the filter of events already received, or null to submit every event.
+     */
+    EventReceiver(Socket connection, EventDispatcher dispatcher, WriteAheadLog log, DuplicateFilter duplicates) {
         this.connection = connection;
         this.dispatcher = dispatcher;
+        this.log = log;
+        this.duplicates = duplicates;
     }
 
     @Override
     public void run() {
+        EventDispatcher.Producer producer = dispatcher.newProducer();
+        EventPool pool = producer.getEventPool();
+        EventDecoder decoder = new EventDecoder(pool);
         try {
             //
             // Please note that because we're buffering the socket's input
             // stream, each event source's TCP connection can be processed
             // by just one thread at a time.
             //
-            BufferedReader in = bufferedReaderFrom(connection);
-            String payload;
-            while ((payload = in.readLine()) != null) {
-                auditLogger.info("Received event: " + payload);
-                Event event = Event.fromPayload(payload);
-                dispatcher.submit(event);
+            InputStream in = connection.getInputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+            List<Event> decoded = new ArrayList<>();
+            int read;
+            long malformed = 0;
+            while ((read = in.read(buffer.array(), buffer.position(), buffer.remaining())) != -1) {
+                buffer.position(buffer.position() + read);
+                buffer.flip();
+                Event event;
+                while ((event = decoder.decode(buffer)) != null) {
+                    receivedEvents.increment();
+                    if (duplicates != null && !duplicates.add(event.getSequence())) {
+                        duplicateEvents.increment();
+                        if (pool != null) {
+                            pool.reuse(event);
+                        }
+                        continue;
+                    }
+                    EventAudit.received(event);
+                    decoded.add(event);
+                }
+                buffer.compact();
+                if (!decoded.isEmpty()) {
+                    if (log != null) {
+                        commit(decoded);
+                    }
+                    producer.submitAll(decoded);
+                    decoded.clear();
+                }
+                if (decoder.getMalformedFrames() != malformed) {
+                    malformedEvents.add(decoder.getMalformedFrames() - malformed);
+                    malformed = decoder.getMalformedFrames();
+                }
             }
         } catch (IOException e) {
             errorLogger.warning("I/O error while receiving event: " + e.getMessage());
+        } finally {
+            producer.close();
+            if (decoder.getMalformedFrames() > 0) {
+                errorLogger.warning("Discarded malformed events: " + decoder.getMalformedFrames());
+            }
+        }
+    }
+
+    private void commit(List<Event> events) throws IOException {
+        synchronized (log) {
+            for (Event event : events) {
+                log.append(event);
+            }
+            log.commit();
         }
     }
 }
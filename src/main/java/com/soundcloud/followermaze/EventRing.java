@@ -0,0 +1,155 @@
+package com.soundcloud.followermaze;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A bounded, lock-free ring of events, between a single producer and a
+ * single consumer.
+ *
+ * Slots are preallocated, and each side only writes its own sequence
+ * counter: the producer publishes events by moving the tail, and the
+ * consumer releases their slots by moving the head. A batch of events is
+ * published, and taken, by moving a counter once. Each counter is padded
+ * to a cache line of its own, so that the producer and the consumer do not
+ * invalidate each other's cache lines when they move them.
+ *
+ * The ring never waits. It is up to its users to decide what to do when
+ * it is full or empty; see {@link WaitStrategy}.
+ */
+final class EventRing {
+
+    private final Event[] slots;
+    private final int mask;
+
+    // Next sequence the consumer takes. Only moved by the consumer.
+    private final Sequence head = new Sequence();
+
+    // Next sequence the producer publishes. Only moved by the producer.
+    private final Sequence tail = new Sequence();
+
+    private volatile boolean closed;
+
+    /**
+     * @param capacity number of events the ring holds, rounded up to a power of two.
+     */
+    EventRing(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Event[size];
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Publishes as many events as fit in the ring, starting at a given index of a list. Only called by the producer.
+     *
+     * @return the number of events published.
+     */
+    int offer(List<Event> events, int from) {
+        long next = tail.get();
+        int published = (int) Math.min(events.size() - from, slots.length - (next - head.get()));
+        for (int i = 0; i < published; i++) {
+            slots[(int) (next + i) & mask] = events.get(from + i);
+        }
+        if (published > 0) {
+            //
+            // A volatile write, rather than a lazy one, so that it is ordered
+            // before the producer checks whether the consumer is parked.
+            //
+            tail.set(next + published);
+        }
+        return published;
+    }
+
+    /**
+     * Publishes a single event, if it fits. Only called by the producer.
+     *
+     * @return false if the ring is full.
+     */
+    boolean offer(Event event) {
+        long next = tail.get();
+        if (next - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) next & mask] = event;
+        tail.lazySet(next + 1);
+        return true;
+    }
+
+    /**
+     * Takes up to a given number of events out of the ring. Only called by the consumer.
+     *
+     * @return the number of events taken.
+     */
+    int drainTo(List<Event> events, int maxEvents) {
+        long next = head.get();
+        int taken = (int) Math.min(maxEvents, tail.get() - next);
+        for (int i = 0; i < taken; i++) {
+            int slot = (int) (next + i) & mask;
+            events.add(slots[slot]);
+            slots[slot] = null;
+        }
+        if (taken > 0) {
+            head.lazySet(next + taken);
+        }
+        return taken;
+    }
+
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * Lets the consumer know that nothing else will be published. Events already published can still be taken.
+     */
+    void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    //
+    // A sequence counter, with 56 bytes of padding on each side. Fields of a
+    // superclass are laid out before the fields of its subclasses, so the
+    // padding ends up around the value.
+    //
+
+    static class LeftPadding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    static class Value extends LeftPadding {
+        volatile long value;
+    }
+
+    static class RightPadding extends Value {
+        long p9, p10, p11, p12, p13, p14, p15;
+    }
+
+    static final class Sequence extends RightPadding {
+
+        private final static AtomicLongFieldUpdater<Value> updater =
+                AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+        long get() {
+            return value;
+        }
+
+        void set(long newValue) {
+            value = newValue;
+        }
+
+        void lazySet(long newValue) {
+            updater.lazySet(this, newValue);
+        }
+    }
+}
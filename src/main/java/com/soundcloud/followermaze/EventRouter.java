@@ -1,11 +1,13 @@
 package com.soundcloud.followermaze;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
 import java.util.logging.Logger;
 
 /**
@@ -14,80 +16,273 @@ import java.util.logging.Logger;
  * <ul>
  *     <li>Registers clients. Clients can be safely registered from multiple concurrent threads.</li>
  *     <li>Receives, interprets and route events to clients (if needed).</li>
- *     <li>Stores the follow/unfollow status for each client.</li>
+ *     <li>Stores the follow/unfollow status for each client, in a {@link FollowerGraph}.</li>
  * </ul>
  *
  * The event router is a finite-state machine and its state constantly changes as events are processed.
  *
+ * Routed events are written to their recipients, but not flushed right away. Instead, each recipient
+ * is flushed once when {@link #flush()} is called at the end of a dispatch batch, so that all the
+ * events it received in that batch go out together, in order.
+ *
+ * Registering threads never wait for the routing thread, nor the other way around: registrations are
+ * queued, and the routing thread applies them to its {@link ClientRegistry} before it routes the next
+ * event. A client is thus sent every event routed after it was registered.
+ *
+ * A client that finds out its connection is gone, or that fails to be written to, is evicted the same
+ * way, before the next event is routed, and is not written to in the meantime. A client registered
+ * under the id of another one takes its place, and the stale one is closed. A stale client that is
+ * evicted afterwards leaves the one that replaced it alone.
+ *
  * Please note that although multiple threads can register clients, only one thread can route events
- * at the moment. If we need multiple threads to be able to route events concurrently, this can be
- * easily achieved by using a ConcurrentHashMap and a CopyOnWriteArraySet to store the follow/unfollow
- * status in a thread-safe manner.
+ * through a given router. In order to route events concurrently, clients can be partitioned by id into
+ * shards, each one with its own router (see {@link ShardedEventRouter}). A shard only keeps the
+ * follow/unfollow status of the followers it owns, so that it can route status updates to them.
+ *
+ * Optionally, broadcasts can be appended once to a shared {@link BroadcastLog}, instead of being written
+ * to every client. Clients that {@link Client#subscribe(BroadcastLog) subscribe} to the log read broadcasts
+ * from it by themselves, while the others are still sent each broadcast directly.
+ *
+ * The router keeps track of the sequence number of the last event it flushed, so that the events up to
+ * it can be forgotten by the {@link WriteAheadLog}, if any. Events count as delivered once they were
+ * flushed to the client transport.
+ *
+ * Optionally, the follow/unfollow status is restored from a snapshot when the server starts, and new
+ * snapshots are taken as events are routed (see {@link FollowerGraphSnapshotter}). Events up to the
+ * restored snapshot are then ignored, since they are already reflected by it.
  */
 public class EventRouter {
 
     private final static int INITIAL_CLIENT_CAPACITY = 100;
 
-    private final static Logger auditLogger = Logger.getLogger("audit");
     private final static Logger errorLogger = Logger.getLogger("errors");
 
-    private final Map<Long, Client> clients = new ConcurrentHashMap<>(INITIAL_CLIENT_CAPACITY);
-    private final Map<Long, Set<Long>> followers = new HashMap<>();
+    private final static LongAdder clientErrors = Metrics.counter("clients.ioErrors");
+    private final static LongAdder evictedClients = Metrics.counter("clients.evicted");
+    private final static LongAdder replacedClients = Metrics.counter("clients.replaced");
+    private final static Histogram fanOut = Metrics.histogram("router.fanOut");
+    private final static LongAdder[] routedEvents = new LongAdder[EventType.values().length];
+
+    static {
+        for (EventType type : EventType.values()) {
+            routedEvents[type.ordinal()] = Metrics.counter("events.routed." + type.name());
+        }
+    }
+
+    private final Queue<Registration> registrations = new ConcurrentLinkedQueue<>();
+
+    // Only accessed by the routing thread.
+    private final ClientRegistry clients = new ClientRegistry(INITIAL_CLIENT_CAPACITY);
+    private final ClientRegistry directBroadcastClients = new ClientRegistry(INITIAL_CLIENT_CAPACITY);
+    private final FollowerGraph followers = new LongFollowerGraph();
+    private final List<Client> unflushed = new ArrayList<>();
+
+    private final int shard;
+    private final int shardCount;
+    private final BroadcastLog broadcastLog;
+    private FollowerGraphSnapshotter snapshotter;
+    private long restoredSequence;
+
+    // Number of clients the event being routed was sent to. Only accessed by the routing thread.
+    private int recipients;
+    private long routedSequence;
+
+    private volatile long deliveredSequence;
+
+    public EventRouter() {
+        this(null);
+    }
+
+    EventRouter(BroadcastLog broadcastLog) {
+        this(0, 1, broadcastLog);
+    }
+
+    EventRouter(int shard, int shardCount) {
+        this(shard, shardCount, null);
+    }
+
+    EventRouter(int shard, int shardCount, BroadcastLog broadcastLog) {
+        this.shard = shard;
+        this.shardCount = shardCount;
+        this.broadcastLog = broadcastLog;
+        // Shards are counted together by the router they belong to.
+        if (shardCount == 1) {
+            Metrics.gauge("clients.connected", this::connectedClients);
+        }
+    }
+
+    static int shardOf(long id, int shardCount) {
+        return (int) Math.floorMod(id, (long) shardCount);
+    }
 
     public void register(Client client) {
-        clients.put(client.getId(), client);
+        boolean direct = broadcastLog == null || !client.subscribe(broadcastLog);
+        registrations.add(new Registration(client, direct, false));
+        client.onDisconnect(() -> registrations.add(new Registration(client, false, true)));
+    }
+
+    //
+    // A client that replaces another one with the same id takes its place in
+    // the direct broadcast clients only if it is not subscribed to the log.
+    //
+
+    private void applyRegistrations() {
+        Registration registration;
+        while ((registration = registrations.poll()) != null) {
+            Client client = registration.client;
+            if (registration.evicted) {
+                evict(client);
+                continue;
+            }
+            Client previous = clients.put(client);
+            if (previous != null && previous != client) {
+                replacedClients.increment();
+                previous.close();
+            }
+            if (registration.direct) {
+                directBroadcastClients.put(client);
+            } else if (previous != null) {
+                directBroadcastClients.remove(client.id());
+            }
+        }
+    }
+
+    private void evict(Client client) {
+        long id = client.id();
+        if (clients.get(id) != client) {
+            return;
+        }
+        clients.remove(id);
+        if (directBroadcastClients.get(id) == client) {
+            directBroadcastClients.remove(id);
+        }
+        evictedClients.increment();
+    }
+
+    /**
+     * Restores the follow/unfollow status from the latest snapshot, if any, and keeps taking snapshots
+     * from now on. Must be called before any event is routed.
+     *
+     * @param snapshotters supplies the snapshotter of each shard.
+     * @return the sequence number of the last event reflected by the restored status, or zero if none.
+     */
+    long restoreSnapshots(IntFunction<FollowerGraphSnapshotter> snapshotters) throws IOException {
+        snapshotter = snapshotters.apply(shard);
+        restoredSequence = snapshotter.restore(followers);
+        return restoredSequence;
     }
 
     public void route(Event event) {
+        applyRegistrations();
+        routedSequence = event.getSequence();
+        if (routedSequence <= restoredSequence) {
+            return;
+        }
+        routedEvents[event.getType().ordinal()].increment();
+        recipients = 0;
         switch (event.getType()) {
             case FOLLOW:
-                addFollower(event.getFromId(), event.getToId());
-                send(event.getToId(), event);
+                if (owns(event.fromId())) {
+                    followers.follow(event.fromId(), event.toId());
+                }
+                send(event.toId(), event);
                 break;
             case UNFOLLOW:
-                removeFollower(event.getFromId(), event.getToId());
+                if (owns(event.fromId())) {
+                    followers.unfollow(event.fromId(), event.toId());
+                }
                 break;
             case BROADCAST:
-                clients.values().forEach(i -> send(i, event));
+                appendBroadcast(event);
+                for (int i = 0; i < directBroadcastClients.size(); i++) {
+                    send(directBroadcastClients.clientAt(i), event);
+                }
+                fanOut.record(clients.size());
                 break;
             case PRIVATE_MESSAGE:
-                send(event.getToId(), event);
+                send(event.toId(), event);
                 break;
             case STATUS_UPDATE:
-                sendToFollowers(event.getFromId(), event);
+                followers.forEachFollower(event.fromId(), i -> send(i, event));
+                fanOut.record(recipients);
                 break;
         }
     }
 
+    private boolean owns(long id) {
+        return shardCount == 1 || shardOf(id, shardCount) == shard;
+    }
+
+    public void flush() {
+        for (Client client : unflushed) {
+            client.markFlushed();
+            if (client.isClosed()) {
+                continue;
+            }
+            try {
+                client.flush();
+            } catch (IOException e) {
+                clientErrors.increment();
+                errorLogger.warning(String.format("I/O error while flushing events to client %d: %s", client.getId(), e.getMessage()));
+                client.close();
+            }
+        }
+        unflushed.clear();
+        if (broadcastLog != null) {
+            broadcastLog.publish();
+        }
+        deliveredSequence = routedSequence;
+        if (snapshotter != null) {
+            snapshotter.maybeSnapshot(followers, routedSequence);
+        }
+    }
+
+    /**
+     * @return the sequence number of the last event flushed. Can be called from any thread.
+     */
+    long getDeliveredSequence() {
+        return deliveredSequence;
+    }
+
+    /**
+     * @return the sequence number of the latest snapshot written to disk. Can be called from any thread.
+     */
+    long getSnapshotSequence() {
+        return snapshotter == null ? 0 : snapshotter.getWrittenSequence();
+    }
+
+    /**
+     * @return the number of clients registered and not evicted yet. Can be called from any thread, but then only
+     * sees registrations and evictions as of the last events routed.
+     */
+    long connectedClients() {
+        return clients.size();
+    }
 
     //
-    // FIXME: this method was only exposed for testing purposes.
+    // FIXME: this method was only exposed for testing purposes. It applies
+    // pending registrations itself, so it must not be called while events
+    // are being routed.
     //
 
     protected Client getClient(Long id) {
+        applyRegistrations();
         return clients.get(id);
     }
 
-    private void addFollower(Long followerId, Long followeeId) {
-        if (!followers.containsKey(followeeId)) {
-            followers.put(followeeId, new HashSet<>());
-        }
-        followers.get(followeeId).add(followerId);
-    }
-
-    private void removeFollower(Long followerId, Long followeeId) {
-        if (followers.containsKey(followeeId)) {
-            followers.get(followeeId).remove(followerId);
+    private void appendBroadcast(Event event) {
+        if (broadcastLog == null) {
+            return;
         }
-    }
-
-    private void sendToFollowers(Long followeeId, Event event) {
-        if (followers.containsKey(followeeId)) {
-            followers.get(followeeId).forEach(i -> send(i, event));
+        try {
+            EventAudit.broadcast(event);
+            broadcastLog.append(event);
+        } catch (InterruptedIOException e) {
+            errorLogger.warning("Interrupted while appending event to broadcast log: " + event.toPayload());
         }
     }
 
-    private void send(Long recipientId, Event event) {
+    private void send(long recipientId, Event event) {
         Client recipient = clients.get(recipientId);
         if (recipient != null) {
             send(recipient, event);
@@ -95,12 +290,38 @@ public class EventRouter {
     }
 
     private void send(Client recipient, Event event) {
-        Long id = recipient.getId();
+        if (recipient.isClosed()) {
+            return;
+        }
+        long id = recipient.id();
         try {
-            auditLogger.info(String.format("Forwarding to client %d event: %s", id, event.toPayload()));
-            recipient.send(event);
+            EventAudit.forwarded(id, event);
+            recipient.write(event);
+            if (recipient.markUnflushed()) {
+                unflushed.add(recipient);
+            }
+            recipients++;
         } catch (IOException e) {
+            clientErrors.increment();
             errorLogger.warning(String.format("I/O error while forwarding event to client %d: %s", id, e.getMessage()));
+            recipient.close();
+        }
+    }
+
+    private static final class Registration {
+
+        final Client client;
+
+        // Whether the client is sent broadcasts one by one, rather than reading them from the log.
+        final boolean direct;
+
+        // Whether the client is to be evicted, rather than registered.
+        final boolean evicted;
+
+        Registration(Client client, boolean direct, boolean evicted) {
+            this.client = client;
+            this.direct = direct;
+            this.evicted = evicted;
         }
     }
 }
@@ -1,7 +1,5 @@
 package com.soundcloud.followermaze;
 
-import java.util.Arrays;
-
 public enum EventType {
     UNFOLLOW("U", true, true),
     FOLLOW("F", true, true),
@@ -9,6 +7,15 @@ public enum EventType {
     PRIVATE_MESSAGE("P", true, true),
     STATUS_UPDATE("S", true, false);
 
+    // Maps the ASCII code of each event type to its value, so that decoding does not need to search.
+    private static final EventType[] BY_CODE = new EventType[128];
+
+    static {
+        for (EventType type : values()) {
+            BY_CODE[type.code.charAt(0)] = type;
+        }
+    }
+
     private String code;
     private boolean hasFrom;
     private boolean hasTo;
@@ -20,10 +27,18 @@ public enum EventType {
     }
 
     public static EventType fromCode(String code) {
-        return Arrays.stream(EventType.values())
-                .filter(e -> e.code.equals(code))
-                .findFirst()
-                .orElseThrow(() -> new IllegalArgumentException(code));
+        EventType type = code.length() == 1 && code.charAt(0) < BY_CODE.length ? BY_CODE[code.charAt(0)] : null;
+        if (type == null) {
+            throw new IllegalArgumentException(code);
+        }
+        return type;
+    }
+
+    /**
+     * Returns the event type for an ASCII code, or null if the code is unknown.
+     */
+    static EventType fromCode(byte code) {
+        return code >= 0 ? BY_CODE[code] : null;
     }
 
     public String getCode() {
@@ -0,0 +1,53 @@
+package com.soundcloud.followermaze;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Stores who follows whom, keyed by primitive user ids.
+ */
+interface FollowerGraph {
+
+    /**
+     * @return true if the follower was not following the followee yet.
+     */
+    boolean follow(long followerId, long followeeId);
+
+    /**
+     * @return true if the follower was following the followee.
+     */
+    boolean unfollow(long followerId, long followeeId);
+
+    void forEachFollower(long followeeId, LongConsumer action);
+
+    long edgeCount();
+
+    int followeeCount();
+
+    /**
+     * Takes a view of the graph as it is now, which can be read by another thread until it is released.
+     * Any view taken before must have been released already.
+     */
+    View view();
+
+    /**
+     * Replaces the followers of a followee, taking ownership of the given set.
+     */
+    void putFollowers(long followeeId, LongHashSet set);
+
+    /**
+     * The followees of a graph and their followers, as they were when the view was taken.
+     */
+    interface View {
+
+        int followeeCount();
+
+        long edgeCount();
+
+        void forEach(LongObjectHashMap.LongObjectConsumer<LongHashSet> action);
+
+        /**
+         * Lets the graph change the followers shared with this view again. The view must not be read anymore.
+         */
+        void release();
+    }
+}
@@ -0,0 +1,171 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A copy of a {@link FollowerGraph}, tagged with the sequence number of
+ * the last event applied to the graph when it was taken.
+ *
+ * Taking a snapshot only takes a view of the graph (see
+ * {@link FollowerGraph#view()}), so it can be written to a file by
+ * another thread while the graph keeps changing. The view is released once
+ * the snapshot is written, so a snapshot can only be written once. The file
+ * holds a fixed header followed by a flat array of longs: each followee id,
+ * its number of followers and their ids.
+ *
+ * Files are written aside and renamed once forced to disk, so that a crash
+ * never leaves a partial snapshot behind. They are loaded through a memory
+ * mapping, straight into hash sets sized for their followers, without any
+ * intermediate copy nor rehashing.
+ */
+final class FollowerGraphSnapshot {
+
+    private final static int MAGIC = 0x464D4753;
+    private final static int VERSION = 1;
+
+    // Magic number, version, sequence, number of followees and number of edges.
+    private final static int HEADER_BYTES = 4 + 4 + 3 * 8;
+
+    // Files are mapped whole when loaded, so they must not be larger than a mapping can be.
+    private final static long MAX_VALUES = (Integer.MAX_VALUE - HEADER_BYTES) / 8;
+
+    private final static int WRITE_BUFFER_BYTES = 1024 * 1024;
+
+    private final long sequence;
+    private final FollowerGraph.View graph;
+
+    private FollowerGraphSnapshot(long sequence, FollowerGraph.View graph) {
+        this.sequence = sequence;
+        this.graph = graph;
+    }
+
+    /**
+     * Takes a snapshot of a graph, which must fit in a snapshot file (see {@link #fits}). Must be called by the
+     * thread that owns the graph.
+     */
+    static FollowerGraphSnapshot of(FollowerGraph graph, long sequence) {
+        return new FollowerGraphSnapshot(sequence, graph.view());
+    }
+
+    /**
+     * @return whether a snapshot of the graph would fit in a file that can be loaded back.
+     */
+    static boolean fits(FollowerGraph graph) {
+        return 2L * graph.followeeCount() + graph.edgeCount() <= MAX_VALUES;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void writeTo(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ValueWriter writer = new ValueWriter(channel);
+            writer.buffer.putInt(MAGIC).putInt(VERSION).putLong(sequence)
+                    .putLong(graph.followeeCount()).putLong(graph.edgeCount());
+            graph.forEach(writer);
+            drain(writer.buffer, channel);
+            channel.force(true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            graph.release();
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads a snapshot file into an empty graph.
+     *
+     * @return the sequence number the snapshot was tagged with, or zero if there is no snapshot file.
+     */
+    static long load(Path path, FollowerGraph graph) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Unexpected size of follower graph snapshot: " + path);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+            throw new IOException("Not a follower graph snapshot: " + path);
+        }
+        long sequence = mapped.getLong();
+        long followees = mapped.getLong();
+        long edges = mapped.getLong();
+        LongBuffer values = mapped.asLongBuffer();
+        if (values.remaining() != 2 * followees + edges) {
+            throw new IOException("Truncated follower graph snapshot: " + path);
+        }
+        for (long i = 0; i < followees; i++) {
+            long followeeId = values.get();
+            int count = (int) values.get();
+            LongHashSet followers = new LongHashSet(count);
+            for (int j = 0; j < count; j++) {
+                followers.add(values.get());
+            }
+            graph.putFollowers(followeeId, followers);
+        }
+        return sequence;
+    }
+
+    /**
+     * Writes each followee of a graph, followed by its number of followers and their ids.
+     */
+    private final static class ValueWriter implements LongObjectHashMap.LongObjectConsumer<LongHashSet> {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        private long[] followers = new long[0];
+
+        ValueWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void accept(long followeeId, LongHashSet set) {
+            if (followers.length < set.size()) {
+                followers = new long[set.size()];
+            }
+            int count = set.copyTo(followers, 0);
+            try {
+                put(followeeId);
+                put(count);
+                for (int i = 0; i < count; i++) {
+                    put(followers[i]);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void put(long value) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain(buffer, channel);
+            }
+            buffer.putLong(value);
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,97 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Takes periodic snapshots of the follower graph of a router, and writes
+ * them in the background.
+ *
+ * Every so many events, the routing thread takes a view of its graph (see
+ * {@link FollowerGraphSnapshot}) at the end of a batch, and hands it over to
+ * a writer. A new snapshot is not taken until the previous one is written,
+ * so that slow disks never pile up copies in memory. Graphs too large for a
+ * snapshot file are not snapshotted at all.
+ */
+class FollowerGraphSnapshotter {
+
+    private final static Logger auditLogger = Logger.getLogger("audit");
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    private final Path path;
+    private final long intervalEvents;
+    private final Executor writer;
+
+    // Only accessed by the routing thread.
+    private long takenSequence;
+
+    private volatile boolean writing;
+    private volatile long writtenSequence;
+
+    /**
+     * @param intervalEvents number of events between snapshots.
+     * @param writer executes the writing of snapshot files.
+     */
+    FollowerGraphSnapshotter(Path path, long intervalEvents, Executor writer) {
+        this.path = path;
+        this.intervalEvents = intervalEvents;
+        this.writer = writer;
+    }
+
+    /**
+     * Loads the latest snapshot written, if any, into an empty graph.
+     *
+     * @return the sequence number of the last event the graph reflects, or zero if there was no snapshot.
+     */
+    long restore(FollowerGraph graph) throws IOException {
+        long start = System.nanoTime();
+        long sequence = FollowerGraphSnapshot.load(path, graph);
+        if (sequence > 0) {
+            auditLogger.info(String.format("Restored %d follow edges as of event %d from %s in %d ms",
+                    graph.edgeCount(), sequence, path, (System.nanoTime() - start) / 1_000_000));
+        }
+        takenSequence = writtenSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Takes a snapshot if enough events were applied to the graph since the last one. Only called by the
+     * routing thread, between events.
+     *
+     * @param sequence the sequence number of the last event applied to the graph.
+     */
+    void maybeSnapshot(FollowerGraph graph, long sequence) {
+        if (writing || sequence - takenSequence < intervalEvents) {
+            return;
+        }
+        takenSequence = sequence;
+        if (!FollowerGraphSnapshot.fits(graph)) {
+            errorLogger.warning(String.format("Follower graph of %d edges is too large for a snapshot, skipping it",
+                    graph.edgeCount()));
+            return;
+        }
+        writing = true;
+        FollowerGraphSnapshot snapshot = FollowerGraphSnapshot.of(graph, sequence);
+        writer.execute(() -> write(snapshot));
+    }
+
+    /**
+     * @return the sequence number of the latest snapshot written to disk. Can be called from any thread.
+     */
+    long getWrittenSequence() {
+        return writtenSequence;
+    }
+
+    private void write(FollowerGraphSnapshot snapshot) {
+        try {
+            snapshot.writeTo(path);
+            writtenSequence = snapshot.getSequence();
+        } catch (IOException e) {
+            errorLogger.warning("I/O error while writing follower graph snapshot: " + e.getMessage());
+        } finally {
+            writing = false;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.soundcloud.followermaze;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Watches the gap in front of the head of a {@link ReorderBuffer}: the
+ * missing events that hold back every event buffered after them.
+ *
+ * Events are dispatched in strict order, so an event that never arrives
+ * would freeze delivery to every client forever. The watchdog lets the
+ * dispatcher skip the gap once it has been open for longer than a deadline,
+ * or once the events held back by it take more than a number of bytes,
+ * whichever comes first. Skipped events are lost: if they arrive later,
+ * they are discarded as too old.
+ *
+ * Every skipped range is logged, counted, and kept as the last skipped
+ * range, for monitoring.
+ *
+ * This class is not thread-safe. It is meant to be owned by a single
+ * dispatching thread.
+ */
+final class GapWatchdog {
+
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    private final static LongAdder skippedGaps = Metrics.counter("dispatcher.skippedGaps");
+    private final static LongAdder skippedEvents = Metrics.counter("dispatcher.skippedEvents");
+
+    private final long timeoutNanos;
+    private final long maxBufferedBytes;
+
+    // The head of the buffer when the gap was first seen, or -1 if there is no gap.
+    private long watchedSequence = -1;
+    private long openedAt;
+
+    private volatile long lastSkippedFrom;
+    private volatile long lastSkippedTo;
+
+    /**
+     * @param timeoutMillis how long a gap stays open before it is skipped, or 0 for as long as it takes.
+     * @param maxBufferedBytes how many bytes of events a gap holds back before it is skipped, or 0 for no limit.
+     */
+    GapWatchdog(long timeoutMillis, long maxBufferedBytes) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxBufferedBytes = maxBufferedBytes;
+        Metrics.gauge("dispatcher.lastSkippedFrom", () -> lastSkippedFrom);
+        Metrics.gauge("dispatcher.lastSkippedTo", () -> lastSkippedTo);
+    }
+
+    /**
+     * Checks the gap in front of the buffer's head, if there is one.
+     *
+     * @param now the current time, as given by {@link System#nanoTime()}.
+     * @return how many nanoseconds are left before the gap is due to be skipped, 0 if it is due, or
+     * {@code Long.MAX_VALUE} if there is no gap, or it has no deadline.
+     */
+    long nanosLeft(ReorderBuffer buffer, long now) {
+        if (buffer.isEmpty()) {
+            watchedSequence = -1;
+            return Long.MAX_VALUE;
+        }
+        if (buffer.getNextSequence() != watchedSequence) {
+            watchedSequence = buffer.getNextSequence();
+            openedAt = now;
+        }
+        if (maxBufferedBytes > 0 && buffer.bufferedBytes() > maxBufferedBytes) {
+            return 0;
+        }
+        if (timeoutNanos <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, openedAt + timeoutNanos - now);
+    }
+
+    /**
+     * Skips the gap in front of the buffer's head, so that the events after it can be polled.
+     *
+     * @return the number of events skipped.
+     */
+    long skip(ReorderBuffer buffer, long now) {
+        long from = buffer.getNextSequence();
+        long to = buffer.skipGap();
+        long skipped = to - from;
+        if (skipped > 0) {
+            lastSkippedFrom = from;
+            lastSkippedTo = to - 1;
+            skippedGaps.increment();
+            skippedEvents.add(skipped);
+            errorLogger.warning("Skipped missing events " + from + " to " + (to - 1) + ", after waiting for "
+                    + TimeUnit.NANOSECONDS.toMillis(now - openedAt) + " ms with "
+                    + buffer.bufferedBytes() + " bytes of events held back");
+        }
+        watchedSequence = -1;
+        return skipped;
+    }
+
+    long getLastSkippedFrom() {
+        return lastSkippedFrom;
+    }
+
+    long getLastSkippedTo() {
+        return lastSkippedTo;
+    }
+}
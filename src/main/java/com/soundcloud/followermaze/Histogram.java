@@ -0,0 +1,37 @@
+package com.soundcloud.followermaze;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram metric, with the same fixed buckets as {@link LatencyHistogram},
+ * that many threads can record values in without locking.
+ */
+final class Histogram {
+
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(LatencyHistogram.indexOf(v));
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    /**
+     * @return a copy of the values recorded so far. Values recorded concurrently may or may not be included.
+     */
+    LatencyHistogram snapshot() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                snapshot.recordBucket(i, count);
+            }
+        }
+        snapshot.recordMax(max.get());
+        return snapshot;
+    }
+}
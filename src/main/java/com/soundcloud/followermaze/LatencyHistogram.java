@@ -0,0 +1,98 @@
+package com.soundcloud.followermaze;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, with
+ * a fixed memory footprint and a relative precision of about 3%.
+ *
+ * Values are counted in buckets: every power of two is split into 32 buckets
+ * of equal width, and values below 32 have buckets of their own. Recording a
+ * value takes a few bit operations, and never allocates.
+ *
+ * This class is not thread-safe. Threads should record values in histograms
+ * of their own, and {@link #add(LatencyHistogram) add} them up afterwards.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts[indexOf(v)]++;
+        count++;
+        max = Math.max(max, v);
+    }
+
+    void recordBucket(int index, long times) {
+        counts[index] += times;
+        count += times;
+    }
+
+    void recordMax(long value) {
+        max = Math.max(max, value);
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @param quantile between 0 and 1, eg: 0.99 for the 99th percentile.
+     * @return the highest value that many of the recorded values are equal to or lower than, or 0 if nothing was recorded.
+     */
+    long percentile(double quantile) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, lowestValueAt(i + 1) - 1);
+            }
+        }
+        return max;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+        return lowest < 0 ? Long.MAX_VALUE : lowest;
+    }
+}
@@ -0,0 +1,487 @@
+package com.soundcloud.followermaze;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.soundcloud.followermaze.ServerSettings.*;
+import static com.soundcloud.followermaze.SocketUtils.silentClose;
+
+/**
+ * Load generator and end-to-end harness. It plays both the event source and
+ * every user client over loopback, and measures what the server does with
+ * the events it is sent:
+ *
+ * <ul>
+ *     <li>Throughput, in events per second, from the first event sent to the last one received.</li>
+ *     <li>Latency of every delivery, from the moment its event was sent to the moment a client received it.</li>
+ *     <li>Ordering violations, ie: events received by a client after an event with a higher sequence number.</li>
+ *     <li>Missing deliveries, by routing every event through a follower graph of its own.</li>
+ * </ul>
+ *
+ * Events are generated with a configurable type mix, and are shuffled within
+ * consecutive windows of a configurable size before being sent. Followees
+ * are drawn from a skewed distribution, so that a few users get most of the
+ * followers. Events are sent as fast as possible, unless a rate is set, in
+ * which case latencies are those of a server that is not saturated.
+ *
+ * Events can be spread across several event source connections, and some of
+ * them can be sent twice, through two different connections, so that the
+ * server has to merge the sources and discard duplicates.
+ *
+ * Every setting can be overridden through a system property prefixed by
+ * {@code followermaze.load.}, eg: {@code -Dfollowermaze.load.events=1000000}.
+ * Unless told otherwise, the generator also starts a server of its own,
+ * configured through the usual {@code followermaze.} system properties.
+ */
+public class LoadGenerator {
+
+    private static final String PREFIX = "load.";
+    private static final String HOST = "localhost";
+    private static final long CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private long events = 100_000;
+    private int disorderWindow = 100;
+    private String typeMix = "F=20,U=10,B=1,P=30,S=39";
+    private int clients = 100;
+    private double followerSkew = 3;
+    private long eventsPerSecond;
+    private long settleMillis = 1000;
+    private long seed = 666;
+    private int sources = 1;
+    private double duplicates;
+    private int eventSourcePort = 9090;
+    private int clientPort = 9099;
+
+    // Cumulative weights of each event type, in the order of typeMixTypes.
+    private final List<EventType> typeMixTypes = new ArrayList<>();
+    private final List<Integer> typeMixWeights = new ArrayList<>();
+
+    static LoadGenerator fromSystemProperties(ServerSettings server) {
+        LoadGenerator generator = new LoadGenerator();
+        generator.events = longProperty(PREFIX + "events", generator.events);
+        generator.disorderWindow = intProperty(PREFIX + "disorderWindow", generator.disorderWindow);
+        generator.typeMix = stringProperty(PREFIX + "typeMix", generator.typeMix);
+        generator.clients = intProperty(PREFIX + "clients", generator.clients);
+        generator.followerSkew = doubleProperty(PREFIX + "followerSkew", generator.followerSkew);
+        generator.eventsPerSecond = longProperty(PREFIX + "eventsPerSecond", generator.eventsPerSecond);
+        generator.settleMillis = longProperty(PREFIX + "settleMillis", generator.settleMillis);
+        generator.seed = longProperty(PREFIX + "seed", generator.seed);
+        generator.sources = intProperty(PREFIX + "sources", generator.sources);
+        generator.duplicates = doubleProperty(PREFIX + "duplicates", generator.duplicates);
+        generator.eventSourcePort = server.getEventSourcePort();
+        generator.clientPort = server.getClientPort();
+        return generator;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ServerSettings settings = ServerSettings.fromSystemProperties();
+        if (booleanProperty(PREFIX + "embeddedServer", true)) {
+            startEmbeddedServer(settings);
+        }
+        Report report = fromSystemProperties(settings).run();
+        report.print(System.out);
+        System.exit(report.isClean() ? 0 : 1);
+    }
+
+    private static void startEmbeddedServer(ServerSettings settings) {
+        Thread server = new Thread(() -> {
+            try {
+                new Server(settings).run();
+            } catch (IOException e) {
+                System.err.println("Embedded server failed: " + e.getMessage());
+            }
+        }, "embedded-server");
+        server.setDaemon(true);
+        server.start();
+    }
+
+    LoadGenerator withEvents(long events) {
+        this.events = events;
+        return this;
+    }
+
+    LoadGenerator withDisorderWindow(int disorderWindow) {
+        this.disorderWindow = disorderWindow;
+        return this;
+    }
+
+    LoadGenerator withTypeMix(String typeMix) {
+        this.typeMix = typeMix;
+        return this;
+    }
+
+    LoadGenerator withClients(int clients) {
+        this.clients = clients;
+        return this;
+    }
+
+    LoadGenerator withFollowerSkew(double followerSkew) {
+        this.followerSkew = followerSkew;
+        return this;
+    }
+
+    LoadGenerator withEventsPerSecond(long eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+        return this;
+    }
+
+    LoadGenerator withSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+        return this;
+    }
+
+    LoadGenerator withSources(int sources) {
+        this.sources = sources;
+        return this;
+    }
+
+    LoadGenerator withDuplicates(double duplicates) {
+        this.duplicates = duplicates;
+        return this;
+    }
+
+    LoadGenerator withPorts(int eventSourcePort, int clientPort) {
+        this.eventSourcePort = eventSourcePort;
+        this.clientPort = clientPort;
+        return this;
+    }
+
+    /**
+     * Connects to the server, sends every event, and waits until every expected delivery was received, or
+     * until nothing was received for a while.
+     */
+    Report run() throws IOException, InterruptedException {
+        parseTypeMix();
+        AtomicLongArray sentAt = new AtomicLongArray((int) events + 1);
+        LongAdder received = new LongAdder();
+
+        List<Socket> eventSources = new ArrayList<>(sources);
+        List<UserClient> users = new ArrayList<>(clients);
+        List<Thread> readers = new ArrayList<>(clients);
+        long start, sent, expected;
+        try {
+            for (int i = 0; i < sources; i++) {
+                eventSources.add(connect(eventSourcePort));
+            }
+            for (long id = 1; id <= clients; id++) {
+                UserClient user = new UserClient(id, connect(clientPort), sentAt, received);
+                users.add(user);
+                Thread reader = new Thread(user, "load-client-" + id);
+                reader.setDaemon(true);
+                reader.start();
+                readers.add(reader);
+            }
+            Thread.sleep(settleMillis);
+
+            start = System.nanoTime();
+            expected = sendEvents(eventSources, sentAt);
+            sent = System.nanoTime();
+            awaitDeliveries(received, expected);
+        } finally {
+            for (Socket eventSource : eventSources) {
+                silentClose(eventSource);
+            }
+            users.forEach(UserClient::close);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        return new Report(events, expected, start, sent, users);
+    }
+
+    private Socket connect(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                Socket socket = new Socket(HOST, port);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * @return the number of deliveries the events should result in.
+     */
+    private long sendEvents(List<Socket> eventSources, AtomicLongArray sentAt) throws IOException {
+        Random random = new Random(seed);
+        FollowerGraph followers = new LongFollowerGraph();
+        List<OutputStream> outs = new ArrayList<>(eventSources.size());
+        for (Socket eventSource : eventSources) {
+            outs.add(new BufferedOutputStream(eventSource.getOutputStream(), 64 * 1024));
+        }
+        List<Event> window = new ArrayList<>(disorderWindow);
+        long expected = 0;
+        long start = System.nanoTime();
+
+        long sequence = 1;
+        while (sequence <= events) {
+            pace(start, sequence - 1);
+            window.clear();
+            for (int i = 0; i < disorderWindow && sequence <= events; i++) {
+                Event event = nextEvent(sequence++, random);
+                expected += route(event, followers);
+                window.add(event);
+            }
+            Collections.shuffle(window, random);
+            for (Event event : window) {
+                sentAt.set((int) event.getSequence(), System.nanoTime());
+                int source = outs.size() == 1 ? 0 : random.nextInt(outs.size());
+                event.writeFrameTo(outs.get(source));
+                if (duplicates > 0 && random.nextDouble() < duplicates) {
+                    event.writeFrameTo(outs.get((source + 1) % outs.size()));
+                }
+            }
+            for (OutputStream out : outs) {
+                out.flush();
+            }
+        }
+        return expected;
+    }
+
+    private void pace(long start, long eventsSent) {
+        if (eventsPerSecond > 0) {
+            long due = start + (long) (eventsSent * 1e9 / eventsPerSecond);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    private Event nextEvent(long sequence, Random random) {
+        long from = 1 + random.nextInt(clients);
+        long to = 1 + (long) (Math.pow(random.nextDouble(), followerSkew) * clients);
+        switch (nextType(random)) {
+            case FOLLOW: return Event.newFollow(sequence, from, to);
+            case UNFOLLOW: return Event.newUnfollow(sequence, from, to);
+            case BROADCAST: return Event.newBroadcast(sequence);
+            case PRIVATE_MESSAGE: return Event.newPrivateMessage(sequence, from, to);
+            default: return Event.newStatusUpdate(sequence, to);
+        }
+    }
+
+    private EventType nextType(Random random) {
+        int weight = random.nextInt(typeMixWeights.get(typeMixWeights.size() - 1));
+        int i = 0;
+        while (weight >= typeMixWeights.get(i)) {
+            i++;
+        }
+        return typeMixTypes.get(i);
+    }
+
+    //
+    // Mirrors what the server does with each event, given that every user is connected.
+    //
+
+    private long route(Event event, FollowerGraph followers) {
+        switch (event.getType()) {
+            case FOLLOW:
+                followers.follow(event.fromId(), event.toId());
+                return 1;
+            case UNFOLLOW:
+                followers.unfollow(event.fromId(), event.toId());
+                return 0;
+            case BROADCAST:
+                return clients;
+            case PRIVATE_MESSAGE:
+                return 1;
+            default:
+                long[] count = new long[1];
+                followers.forEachFollower(event.fromId(), follower -> count[0]++);
+                return count[0];
+        }
+    }
+
+    private void awaitDeliveries(LongAdder received, long expected) throws InterruptedException {
+        long last = received.sum();
+        long lastProgress = System.nanoTime();
+        while (last < expected && System.nanoTime() - lastProgress < IDLE_TIMEOUT_NANOS) {
+            Thread.sleep(10);
+            long now = received.sum();
+            if (now != last) {
+                last = now;
+                lastProgress = System.nanoTime();
+            }
+        }
+    }
+
+    private void parseTypeMix() {
+        typeMixTypes.clear();
+        typeMixWeights.clear();
+        int total = 0;
+        for (String entry : typeMix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid type mix: " + typeMix);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                total += weight;
+                typeMixTypes.add(EventType.fromCode(pair[0].trim()));
+                typeMixWeights.add(total);
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Invalid type mix: " + typeMix);
+        }
+    }
+
+    /**
+     * A user client that reads every event sent to it, checking that sequence numbers keep increasing.
+     */
+    private static class UserClient implements Runnable {
+
+        private final long id;
+        private final Socket socket;
+        private final AtomicLongArray sentAt;
+        private final LongAdder received;
+
+        // Only accessed by the reading thread, until it is done.
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long lastSequence;
+        private long orderingViolations;
+        private long lastReceivedAt;
+
+        UserClient(long id, Socket socket, AtomicLongArray sentAt, LongAdder received) throws IOException {
+            this.id = id;
+            this.socket = socket;
+            this.sentAt = sentAt;
+            this.received = received;
+            OutputStream out = socket.getOutputStream();
+            out.write((id + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        @Override
+        public void run() {
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                long sequence;
+                while ((sequence = readSequence(in)) >= 0) {
+                    long now = System.nanoTime();
+                    if (sequence < sentAt.length()) {
+                        latencies.record(now - sentAt.get((int) sequence));
+                    }
+                    if (sequence <= lastSequence) {
+                        orderingViolations++;
+                    }
+                    lastSequence = sequence;
+                    lastReceivedAt = now;
+                    received.increment();
+                }
+            } catch (IOException ignored) {
+                // The connection was closed by the generator once done.
+            }
+        }
+
+        //
+        // Reads the sequence number of the next frame, and skips the rest of it.
+        //
+
+        private static long readSequence(InputStream in) throws IOException {
+            long sequence = 0;
+            int b;
+            while ((b = in.read()) >= '0' && b <= '9') {
+                sequence = sequence * 10 + (b - '0');
+            }
+            while (b != '\n') {
+                if (b < 0) {
+                    return -1;
+                }
+                b = in.read();
+            }
+            return sequence;
+        }
+
+        void close() {
+            silentClose(socket);
+        }
+    }
+
+    static class Report {
+
+        private final long events;
+        private final long expectedDeliveries;
+        private final long elapsedSendingNanos;
+        private final long elapsedNanos;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long receivedDeliveries;
+        private long orderingViolations;
+
+        private Report(long events, long expectedDeliveries, long start, long sent, List<UserClient> users) {
+            this.events = events;
+            this.expectedDeliveries = expectedDeliveries;
+            long end = sent;
+            for (UserClient user : users) {
+                latencies.add(user.latencies);
+                orderingViolations += user.orderingViolations;
+                end = Math.max(end, user.lastReceivedAt);
+            }
+            this.receivedDeliveries = latencies.getCount();
+            this.elapsedSendingNanos = sent - start;
+            this.elapsedNanos = end - start;
+        }
+
+        long getReceivedDeliveries() {
+            return receivedDeliveries;
+        }
+
+        long getMissingDeliveries() {
+            return Math.max(0, expectedDeliveries - receivedDeliveries);
+        }
+
+        long getOrderingViolations() {
+            return orderingViolations;
+        }
+
+        LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        double getEventsPerSecond() {
+            return events * 1e9 / elapsedNanos;
+        }
+
+        boolean isClean() {
+            return orderingViolations == 0 && receivedDeliveries == expectedDeliveries;
+        }
+
+        void print(PrintStream out) {
+            out.printf("Events:               %,d sent in %,d ms%n", events, elapsedSendingNanos / 1_000_000);
+            out.printf("Deliveries:           %,d expected, %,d received, %,d missing%n",
+                    expectedDeliveries, receivedDeliveries, getMissingDeliveries());
+            out.printf("Ordering violations:  %,d%n", orderingViolations);
+            out.printf("Throughput:           %,.0f events/s%n", getEventsPerSecond());
+            out.printf("Latency (ms):         p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n",
+                    millis(latencies.percentile(0.5)), millis(latencies.percentile(0.9)),
+                    millis(latencies.percentile(0.99)), millis(latencies.percentile(0.999)),
+                    millis(latencies.getMax()));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
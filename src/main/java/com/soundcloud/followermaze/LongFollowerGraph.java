@@ -0,0 +1,143 @@
+package com.soundcloud.followermaze;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link FollowerGraph} made of primitive, open-addressing hash tables: a
+ * {@link LongObjectHashMap} from each followee to a {@link LongHashSet} of
+ * its followers. Followees that lose their last follower are removed, so
+ * the graph only takes memory for edges that exist.
+ *
+ * The graph can hand out a {@link FollowerGraph.View} of itself, as it is, to be read by
+ * another thread while it keeps changing. Taking a view only copies the
+ * table of followees, whose sets are then shared with the graph. Until the
+ * view is released, the graph copies the followers of a followee the first
+ * time they change, and changes the copy instead, so the cost of copying
+ * is spread over the events that follow, and only paid for the followees
+ * they touch.
+ *
+ * This class is not thread-safe. It is meant to be owned by the routing thread.
+ */
+class LongFollowerGraph implements FollowerGraph {
+
+    private final LongObjectHashMap<LongHashSet> followers = new LongObjectHashMap<>();
+    private long edgeCount;
+
+    // Sets tagged with an older generation may be shared with the latest view.
+    private int generation;
+    private SharedView view;
+
+    @Override
+    public boolean follow(long followerId, long followeeId) {
+        LongHashSet set = followers.get(followeeId);
+        if (set == null) {
+            set = new LongHashSet();
+            set.generation = generation;
+            followers.put(followeeId, set);
+        } else if (set.generation != generation) {
+            if (set.contains(followerId)) {
+                return false;
+            }
+            set = writable(followeeId, set);
+        }
+        if (set.add(followerId)) {
+            edgeCount++;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean unfollow(long followerId, long followeeId) {
+        LongHashSet set = followers.get(followeeId);
+        if (set == null || !set.contains(followerId)) {
+            return false;
+        }
+        if (set.size() == 1) {
+            followers.remove(followeeId);
+        } else {
+            writable(followeeId, set).remove(followerId);
+        }
+        edgeCount--;
+        return true;
+    }
+
+    @Override
+    public void forEachFollower(long followeeId, LongConsumer action) {
+        LongHashSet set = followers.get(followeeId);
+        if (set != null) {
+            set.forEach(action);
+        }
+    }
+
+    @Override
+    public long edgeCount() {
+        return edgeCount;
+    }
+
+    @Override
+    public int followeeCount() {
+        return followers.size();
+    }
+
+    @Override
+    public View view() {
+        generation++;
+        view = new SharedView(followers.copy(), edgeCount);
+        return view;
+    }
+
+    @Override
+    public void putFollowers(long followeeId, LongHashSet set) {
+        set.generation = generation;
+        LongHashSet previous = set.isEmpty() ? followers.remove(followeeId) : followers.put(followeeId, set);
+        edgeCount += set.size() - (previous == null ? 0 : previous.size());
+    }
+
+    private LongHashSet writable(long followeeId, LongHashSet set) {
+        if (set.generation == generation) {
+            return set;
+        }
+        if (view != null && !view.released) {
+            set = set.copy();
+            followers.put(followeeId, set);
+        }
+        set.generation = generation;
+        return set;
+    }
+
+    /**
+     * A copy of the table of followees, whose sets are shared with the graph until it is released.
+     */
+    private static final class SharedView implements View {
+
+        private final LongObjectHashMap<LongHashSet> followers;
+        private final long edgeCount;
+        private volatile boolean released;
+
+        private SharedView(LongObjectHashMap<LongHashSet> followers, long edgeCount) {
+            this.followers = followers;
+            this.edgeCount = edgeCount;
+        }
+
+        @Override
+        public int followeeCount() {
+            return followers.size();
+        }
+
+        @Override
+        public long edgeCount() {
+            return edgeCount;
+        }
+
+        @Override
+        public void forEach(LongObjectHashMap.LongObjectConsumer<LongHashSet> action) {
+            followers.forEach(action);
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+}
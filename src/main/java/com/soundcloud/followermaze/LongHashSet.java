@@ -0,0 +1,181 @@
+package com.soundcloud.followermaze;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A set of primitive longs, backed by a single open-addressing array with
+ * linear probing. It takes about 11 to 21 bytes per element, instead of the
+ * 50 or more taken by a {@code HashSet<Long>}.
+ *
+ * Removals shift the following elements back instead of leaving tombstones,
+ * and the array is shrunk once it becomes sparse, so the set never holds on
+ * to memory it does not need.
+ *
+ * Zero marks free slots, so it is tracked apart. This class is not thread-safe.
+ */
+class LongHashSet {
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    // Tags the set with the views of a LongFollowerGraph it may belong to. Only used by the graph.
+    int generation;
+
+    LongHashSet() {
+        this(0);
+    }
+
+    LongHashSet(int expectedSize) {
+        allocate(LongHashing.capacityFor(expectedSize));
+    }
+
+    private LongHashSet(LongHashSet other) {
+        keys = other.keys.clone();
+        mask = other.mask;
+        size = other.size;
+        containsZero = other.containsZero;
+    }
+
+    LongHashSet copy() {
+        return new LongHashSet(this);
+    }
+
+    boolean add(long key) {
+        if (key == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int i = LongHashing.mix(key) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        if (++size > keys.length - (keys.length >>> 2)) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    boolean remove(long key) {
+        if (key == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int i = LongHashing.mix(key) & mask;
+        while (keys[i] != key) {
+            if (keys[i] == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        shiftKeysBack(i);
+        if (LongHashing.shouldShrink(--size, keys.length)) {
+            rehash(LongHashing.capacityFor(size));
+        }
+        return true;
+    }
+
+    boolean contains(long key) {
+        if (key == 0) {
+            return containsZero;
+        }
+        int i = LongHashing.mix(key) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    void forEach(LongConsumer action) {
+        if (containsZero) {
+            action.accept(0);
+        }
+        for (long key : keys) {
+            if (key != 0) {
+                action.accept(key);
+            }
+        }
+    }
+
+    /**
+     * Copies every element into an array, starting at an offset.
+     *
+     * @return the offset right after the last element copied.
+     */
+    int copyTo(long[] target, int offset) {
+        if (containsZero) {
+            target[offset++] = 0;
+        }
+        for (long key : keys) {
+            if (key != 0) {
+                target[offset++] = key;
+            }
+        }
+        return offset;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    private void shiftKeysBack(int free) {
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = keys[i];
+            if (key == 0) {
+                break;
+            }
+            int home = LongHashing.mix(key) & mask;
+            // Moves the key to the free slot, unless its home slot lies cyclically between the two.
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = key;
+                free = i;
+            }
+        }
+        keys[free] = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        allocate(capacity);
+        for (long key : oldKeys) {
+            if (key != 0) {
+                int i = LongHashing.mix(key) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+}
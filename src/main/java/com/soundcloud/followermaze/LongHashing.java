@@ -0,0 +1,31 @@
+package com.soundcloud.followermaze;
+
+/**
+ * Helpers shared by the open-addressing, long-keyed hash tables.
+ */
+final class LongHashing {
+
+    static final int MIN_CAPACITY = 4;
+
+    private LongHashing() { }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Returns the smallest power-of-two capacity that keeps {@code size} keys under a load factor of 3/4.
+     */
+    static int capacityFor(int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity - (capacity >>> 2) <= size) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static boolean shouldShrink(int size, int capacity) {
+        return capacity > MIN_CAPACITY && size < (capacity >>> 3);
+    }
+}
@@ -0,0 +1,175 @@
+package com.soundcloud.followermaze;
+
+/**
+ * A map from primitive longs to objects, backed by open-addressing arrays
+ * with linear probing. Like {@link LongHashSet}, it shifts entries back on
+ * removal, shrinks once it becomes sparse and tracks the zero key apart.
+ *
+ * Null values are not supported. This class is not thread-safe.
+ */
+class LongObjectHashMap<V> {
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private V zeroValue;
+
+    LongObjectHashMap() {
+        this(0);
+    }
+
+    LongObjectHashMap(int expectedSize) {
+        allocate(LongHashing.capacityFor(expectedSize));
+    }
+
+    private LongObjectHashMap(LongObjectHashMap<V> other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        mask = other.mask;
+        size = other.size;
+        zeroValue = other.zeroValue;
+    }
+
+    /**
+     * @return a copy of this map, sharing its values.
+     */
+    LongObjectHashMap<V> copy() {
+        return new LongObjectHashMap<>(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int i = LongHashing.mix(key) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return the value previously associated with the key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (key == 0) {
+            V previous = zeroValue;
+            zeroValue = value;
+            if (previous == null) {
+                size++;
+            }
+            return previous;
+        }
+        int i = LongHashing.mix(key) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length - (keys.length >>> 2)) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value that was associated with the key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        if (key == 0) {
+            V previous = zeroValue;
+            zeroValue = null;
+            if (previous != null) {
+                size--;
+            }
+            return previous;
+        }
+        int i = LongHashing.mix(key) & mask;
+        while (keys[i] != key) {
+            if (keys[i] == 0) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        V previous = (V) values[i];
+        shiftEntriesBack(i);
+        if (LongHashing.shouldShrink(--size, keys.length)) {
+            rehash(LongHashing.capacityFor(size));
+        }
+        return previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(LongObjectConsumer<? super V> action) {
+        if (zeroValue != null) {
+            action.accept(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                action.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface LongObjectConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private void shiftEntriesBack(int free) {
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = keys[i];
+            if (key == 0) {
+                break;
+            }
+            int home = LongHashing.mix(key) & mask;
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = key;
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        keys[free] = 0;
+        values[free] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = LongHashing.mix(oldKeys[j]) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+}
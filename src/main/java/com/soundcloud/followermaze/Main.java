@@ -4,7 +4,7 @@ import java.io.IOException;
 
 class Main {
     public static void main(String[] args) throws IOException {
-        Server server = new Server(9090, 9099);
+        Server server = new Server(ServerSettings.fromSystemProperties());
         server.run();
     }
 }
@@ -0,0 +1,66 @@
+package com.soundcloud.followermaze;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the server's metrics. Much like loggers, metrics are looked up
+ * by name, and are usually kept in static fields of the classes updating them.
+ *
+ * There are three kinds of metrics:
+ *
+ * <ul>
+ *     <li>Counters are striped ({@link LongAdder}), so that they can be updated by many threads without contention.</li>
+ *     <li>Gauges are read from a supplier whenever a snapshot is taken, so they cost nothing otherwise.</li>
+ *     <li>Histograms count values in fixed buckets, and are reported as a count, a few percentiles and a maximum.</li>
+ * </ul>
+ *
+ * Snapshots flatten every metric into a sorted map of names to values, which
+ * is how they are exposed through JMX (see {@link MetricsMBean}) and the
+ * plain-text stats port (see {@link StatsServer}).
+ */
+final class Metrics {
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() { }
+
+    static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge previously registered with the same name.
+     */
+    static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            LatencyHistogram values = histogram.snapshot();
+            snapshot.put(name + ".count", values.getCount());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                snapshot.put(name + "." + PERCENTILE_NAMES[i], values.percentile(PERCENTILES[i]));
+            }
+            snapshot.put(name + ".max", values.getMax());
+        });
+        return snapshot;
+    }
+}
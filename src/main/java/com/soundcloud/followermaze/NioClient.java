@@ -0,0 +1,208 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.soundcloud.followermaze.SocketUtils.silentClose;
+
+/**
+ * A user client served by {@link NioTransport}.
+ *
+ * Sending an event never blocks: its frame is appended to an outbound queue,
+ * and once flushed the client is scheduled with its {@link NioWriter}, which
+ * writes the queue to the non-blocking channel whenever the channel is
+ * writable. Frames written before a flush are gathered into as few writes as
+ * possible.
+ *
+ * Broadcasts are not queued per client. Instead, the client subscribes to
+ * the router's {@link BroadcastLog}, and its writer merges the log with the
+ * outbound queue in sequence order.
+ *
+ * Both the outbound queue and the broadcast lag are bounded, so a client that
+ * stops reading is dealt with according to the transport's
+ * {@link SlowConsumerPolicy}, instead of taking an unbounded amount of memory.
+ *
+ * The writer also watches the channel for reads, so that the client is
+ * closed as soon as the user disconnects.
+ *
+ * Events can be sent by any thread, but the outbound queue and the broadcast
+ * log are only written to the channel by the client's writer thread.
+ */
+class NioClient extends Client {
+
+    private final static int MAX_GATHERED_FRAMES = 64;
+
+    private final SocketChannel channel;
+    private final NioWriter writer;
+    private final OutboundQueue outbound;
+    private final long outboundCapacityBytes;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile BroadcastLog.Cursor broadcasts;
+    private volatile boolean closed;
+
+    // Only accessed by the writer thread.
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_FRAMES];
+    private int gatheredStart;
+    private int gatheredEnd;
+    private SelectionKey key;
+
+    NioClient(Long id, SocketChannel channel, NioWriter writer, long outboundCapacityBytes,
+              SlowConsumerPolicy slowConsumerPolicy) {
+        super(id, channel.socket());
+        this.channel = channel;
+        this.writer = writer;
+        this.outboundCapacityBytes = outboundCapacityBytes;
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.outbound = new OutboundQueue(outboundCapacityBytes, slowConsumerPolicy, this::schedule);
+    }
+
+    @Override
+    public void write(Event event) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        try {
+            outbound.offer(event);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (!outbound.isEmpty()) {
+            schedule();
+        }
+    }
+
+    @Override
+    boolean subscribe(BroadcastLog log) {
+        broadcasts = log.newCursor();
+        log.addListener(writer.getBroadcastListener());
+        if (closed) {
+            broadcasts.close();
+        }
+        return true;
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            writer.schedule(this);
+        }
+    }
+
+    /**
+     * Writes as much of the outbound queue and the broadcast log as the
+     * channel accepts, gathering several frames into each write.
+     *
+     * @return true if everything was written, false if the channel is not writable anymore.
+     */
+    boolean writeOutbound() throws IOException {
+        checkBroadcastLag();
+        while (true) {
+            if (gatheredStart == gatheredEnd && !gatherOutbound()) {
+                return true;
+            }
+            channel.write(gathered, gatheredStart, gatheredEnd - gatheredStart);
+            while (gatheredStart < gatheredEnd && !gathered[gatheredStart].hasRemaining()) {
+                gathered[gatheredStart++] = null;
+            }
+            if (gatheredStart < gatheredEnd) {
+                return false;
+            }
+        }
+    }
+
+    private void checkBroadcastLag() throws IOException {
+        BroadcastLog.Cursor cursor = broadcasts;
+        if (cursor == null || cursor.lagBytes() <= outboundCapacityBytes) {
+            return;
+        }
+        switch (slowConsumerPolicy) {
+            case DROP:
+                OutboundQueue.droppedEvents.add(cursor.skipToEnd());
+                break;
+            case DISCONNECT:
+                OutboundQueue.disconnectedClients.increment();
+                throw new IOException("Slow consumer: more than " + outboundCapacityBytes + " bytes of broadcasts behind");
+            default:
+                // The broadcast log blocks the routing thread by itself.
+        }
+    }
+
+    //
+    // Directed events and broadcasts are both appended in sequence order by the
+    // routing thread, so merging them only takes comparing their heads. The log
+    // is peeked again whenever it looks empty, since a broadcast preceding the
+    // directed event just seen may have been appended in the meantime.
+    //
+
+    private boolean gatherOutbound() {
+        gatheredStart = 0;
+        gatheredEnd = 0;
+        BroadcastLog.Cursor cursor = broadcasts;
+        while (gatheredEnd < gathered.length) {
+            Event broadcast = cursor == null ? null : cursor.peek();
+            Event directed = outbound.peek();
+            if (broadcast == null && directed != null && cursor != null) {
+                broadcast = cursor.peek();
+            }
+            if (broadcast != null && (directed == null || broadcast.getSequence() < directed.getSequence())) {
+                cursor.advance();
+                gathered[gatheredEnd++] = broadcast.getFrame();
+            } else if (directed != null) {
+                outbound.poll();
+                gathered[gatheredEnd++] = directed.getFrame();
+            } else {
+                break;
+            }
+        }
+        return gatheredEnd > 0;
+    }
+
+    /**
+     * Called by the writer once everything has been written. Events may have
+     * been queued in the meantime, in which case the client is scheduled again.
+     */
+    void writeCompleted() {
+        scheduled.set(false);
+        if (!outbound.isEmpty()) {
+            schedule();
+        }
+    }
+
+    @Override
+    void close() {
+        closed = true;
+        outbound.clear();
+        BroadcastLog.Cursor cursor = broadcasts;
+        if (cursor != null) {
+            cursor.close();
+        }
+        silentClose(channel);
+        writer.release(this);
+        disconnected();
+    }
+
+    @Override
+    boolean isClosed() {
+        return closed;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+}
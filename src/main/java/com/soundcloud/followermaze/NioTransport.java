@@ -0,0 +1,75 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking transport for user clients, built on {@link java.nio.channels.Selector}.
+ *
+ * Each client is given a non-blocking {@link SocketChannel} and an outbound
+ * queue, and is assigned to one of a small, fixed set of {@link NioWriter}
+ * threads in a round-robin fashion. Threads routing events only append to
+ * the outbound queues, so a slow client can never hold them back, unless
+ * the {@link SlowConsumerPolicy} says so.
+ *
+ * Clients must have been accepted through a
+ * {@link java.nio.channels.ServerSocketChannel}, so that their sockets have channels.
+ */
+class NioTransport implements ClientFactory {
+
+    private final NioWriter[] writers;
+    private final ExecutorService writerWorkers;
+    private final AtomicInteger nextWriter = new AtomicInteger();
+    private final long outboundCapacityBytes;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+
+    NioTransport(int numberOfWriters, long outboundCapacityBytes, SlowConsumerPolicy slowConsumerPolicy)
+            throws IOException {
+        this.outboundCapacityBytes = outboundCapacityBytes;
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.writers = new NioWriter[numberOfWriters];
+        for (int i = 0; i < numberOfWriters; i++) {
+            writers[i] = new NioWriter();
+        }
+        this.writerWorkers = Executors.newFixedThreadPool(numberOfWriters);
+    }
+
+    void start() {
+        for (NioWriter writer : writers) {
+            writerWorkers.submit(writer);
+        }
+    }
+
+    void stop() {
+        writerWorkers.shutdownNow();
+    }
+
+    @Override
+    public Client newClient(Long id, Socket connection) throws IOException {
+        SocketChannel channel = connection.getChannel();
+        if (channel == null) {
+            throw new IOException("Client socket was not accepted through a channel");
+        }
+        channel.configureBlocking(false);
+        NioWriter writer = nextWriter();
+        NioClient client = new NioClient(id, channel, writer, outboundCapacityBytes, slowConsumerPolicy);
+        writer.adopt(client);
+        return client;
+    }
+
+    int clientCount() {
+        int count = 0;
+        for (NioWriter writer : writers) {
+            count += writer.clientCount();
+        }
+        return count;
+    }
+
+    private NioWriter nextWriter() {
+        return writers[Math.floorMod(nextWriter.getAndIncrement(), writers.length)];
+    }
+}
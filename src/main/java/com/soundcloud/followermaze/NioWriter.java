@@ -0,0 +1,217 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * An I/O thread of {@link NioTransport}. It owns a selector and writes the
+ * outbound queues of the {@link NioClient}s assigned to it.
+ *
+ * Clients that have something to write are scheduled by the threads sending
+ * them events. The writer then tries to write to them right away, and only
+ * waits for the selector to report a channel as writable when its socket
+ * buffer is full.
+ *
+ * Broadcasts are not scheduled client by client. Whenever a {@link BroadcastLog}
+ * that its clients subscribe to is published, the writer is woken up once,
+ * and catches up every one of its clients.
+ *
+ * The writer also registers every channel for reads. Users do not send
+ * anything once they are registered, so a channel only becomes readable
+ * when the user disconnects, or sends something that is discarded. A
+ * client whose channel reaches the end of its stream is closed.
+ *
+ * Clients can be closed by other threads at any time, which closes their
+ * channels and cancels their keys under the writer's feet. The writer then
+ * lets go of them quietly, rather than failing its selector loop.
+ */
+class NioWriter implements Runnable {
+
+    private final static int DISCARD_BUFFER_SIZE = 256;
+
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    private final static LongAdder clientErrors = Metrics.counter("clients.ioErrors");
+
+    private final Selector selector;
+    private final Queue<NioClient> adopted = new ConcurrentLinkedQueue<>();
+    private final Queue<NioClient> scheduled = new ConcurrentLinkedQueue<>();
+    private final Set<NioClient> clients = ConcurrentHashMap.newKeySet();
+    private final Runnable broadcastListener = this::broadcastPublished;
+    private volatile boolean broadcastPending;
+
+    // Only accessed by the writer thread.
+    private final ByteBuffer discarded = ByteBuffer.allocate(DISCARD_BUFFER_SIZE);
+
+    NioWriter() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    //
+    // Channels are registered with the selector by the writer thread itself,
+    // since registering them from another thread would block while the
+    // selector is waiting.
+    //
+
+    void adopt(NioClient client) {
+        clients.add(client);
+        adopted.add(client);
+        selector.wakeup();
+    }
+
+    /**
+     * Forgets a client once it is closed, by whichever thread closes it, so that closed clients are not kept
+     * until the next broadcast.
+     */
+    void release(NioClient client) {
+        clients.remove(client);
+    }
+
+    int clientCount() {
+        return clients.size();
+    }
+
+    void schedule(NioClient client) {
+        scheduled.add(client);
+        selector.wakeup();
+    }
+
+    Runnable getBroadcastListener() {
+        return broadcastListener;
+    }
+
+    private void broadcastPublished() {
+        broadcastPending = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                registerAdoptedClients();
+                if (broadcastPending) {
+                    broadcastPending = false;
+                    writeAllClients();
+                }
+                writeScheduledClients();
+                writeSelectedClients();
+            }
+        } catch (IOException e) {
+            errorLogger.severe("I/O error in selector loop: " + e.getMessage());
+        }
+    }
+
+    private void registerAdoptedClients() {
+        NioClient client;
+        while ((client = adopted.poll()) != null) {
+            if (client.isClosed()) {
+                // Closed before it was adopted, so it may have been released before it was added.
+                clients.remove(client);
+                continue;
+            }
+            try {
+                setInterest(client, 0);
+            } catch (ClosedChannelException | CancelledKeyException e) {
+                client.close();
+            }
+        }
+    }
+
+    private void writeScheduledClients() {
+        NioClient client;
+        while ((client = scheduled.poll()) != null) {
+            write(client);
+        }
+    }
+
+    private void writeAllClients() {
+        for (NioClient client : clients) {
+            write(client);
+        }
+    }
+
+    private void writeSelectedClients() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioClient client = (NioClient) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    read(client);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    write(client);
+                }
+            } catch (CancelledKeyException e) {
+                client.close();
+            }
+        }
+    }
+
+    private void write(NioClient client) {
+        if (client.isClosed()) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            boolean completed = client.writeOutbound();
+            Client.writeLatency.record(System.nanoTime() - start);
+            if (completed) {
+                setInterest(client, 0);
+                client.writeCompleted();
+            } else {
+                setInterest(client, SelectionKey.OP_WRITE);
+            }
+        } catch (ClosedChannelException | CancelledKeyException e) {
+            client.close();
+        } catch (IOException e) {
+            clientErrors.increment();
+            errorLogger.warning(String.format("I/O error while writing to client %d: %s", client.getId(), e.getMessage()));
+            client.close();
+        }
+    }
+
+    private void read(NioClient client) {
+        try {
+            int read;
+            do {
+                discarded.clear();
+                read = client.getChannel().read(discarded);
+            } while (read > 0);
+            if (read == -1) {
+                client.close();
+            }
+        } catch (IOException e) {
+            client.close();
+        }
+    }
+
+    /**
+     * Sets whether the writer waits for the client's channel to become writable. It always waits for reads.
+     */
+    private void setInterest(NioClient client, int writeOps) throws ClosedChannelException {
+        int ops = SelectionKey.OP_READ | writeOps;
+        SelectionKey key = client.getKey();
+        if (key == null) {
+            client.setKey(client.getChannel().register(selector, ops, client));
+        } else if (!key.isValid()) {
+            throw new CancelledKeyException();
+        } else if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A queue of events waiting to be written to a client, bounded by the number
+ * of bytes their frames take. This caps the memory each connection can take.
+ *
+ * When an event does not fit, the {@link SlowConsumerPolicy} decides whether
+ * the producer waits, the client is disconnected, or the frame is dropped.
+ * Every time the policy fires, it is counted in {@link Metrics}. A queue that
+ * is empty always accepts an event, however large it is.
+ *
+ * Events can be offered by any thread, and are polled by a single writer.
+ */
+class OutboundQueue {
+
+    final static LongAdder blockedWrites = Metrics.counter("clients.slowConsumer.blockedWrites");
+    final static LongAdder disconnectedClients = Metrics.counter("clients.slowConsumer.disconnected");
+    final static LongAdder droppedEvents = Metrics.counter("clients.slowConsumer.droppedEvents");
+
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final long capacityBytes;
+    private final SlowConsumerPolicy policy;
+    private final Runnable drainRequest;
+
+    private final Object roomMonitor = new Object();
+    private volatile boolean awaitingRoom;
+
+    /**
+     * @param drainRequest asks the writer to drain the queue. It is run before blocking, so that the
+     *                     events already queued are written even if they were not flushed yet.
+     */
+    OutboundQueue(long capacityBytes, SlowConsumerPolicy policy, Runnable drainRequest) {
+        this.capacityBytes = capacityBytes;
+        this.policy = policy;
+        this.drainRequest = drainRequest;
+    }
+
+    /**
+     * @return true if the event was queued, false if it was dropped.
+     * @throws IOException if the client must be disconnected, or if the thread was interrupted while blocked.
+     */
+    boolean offer(Event event) throws IOException {
+        int length = event.getFrameLength();
+        if (!hasRoomFor(length)) {
+            switch (policy) {
+                case DROP:
+                    droppedEvents.increment();
+                    return false;
+                case DISCONNECT:
+                    disconnectedClients.increment();
+                    throw new IOException("Slow consumer: more than " + capacityBytes + " bytes queued");
+                case BLOCK:
+                    blockedWrites.increment();
+                    awaitRoomFor(length);
+                    break;
+            }
+        }
+        queuedBytes.addAndGet(length);
+        events.add(event);
+        return true;
+    }
+
+    Event peek() {
+        return events.peek();
+    }
+
+    Event poll() {
+        Event event = events.poll();
+        if (event != null) {
+            queuedBytes.addAndGet(-event.getFrameLength());
+            signalRoom();
+        }
+        return event;
+    }
+
+    boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    void clear() {
+        while (poll() != null) { }
+    }
+
+    private boolean hasRoomFor(int length) {
+        long queued = queuedBytes.get();
+        return queued == 0 || queued + length <= capacityBytes;
+    }
+
+    private void awaitRoomFor(int length) throws InterruptedIOException {
+        drainRequest.run();
+        synchronized (roomMonitor) {
+            awaitingRoom = true;
+            try {
+                while (!hasRoomFor(length)) {
+                    roomMonitor.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a slow consumer");
+            } finally {
+                awaitingRoom = false;
+            }
+        }
+    }
+
+    private void signalRoom() {
+        if (awaitingRoom) {
+            synchronized (roomMonitor) {
+                roomMonitor.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Reorder buffer restores the order of a stream of events that carry
+ * contiguous sequence numbers but arrive out-of-order.
+ *
+ * Events are stored in a ring of power-of-two size, at the slot given by
+ * {@code sequence & mask}. The buffer keeps track of the next expected
+ * sequence number, so that the event at the head of the ring can be released
+ * in O(1) as soon as it arrives. Whenever the head slot is filled, the whole
+ * contiguous run that follows it can be drained right away, without waiting
+ * for a batch to fill up or a timeout to expire.
+ *
+ * The size of the ring adapts to the disorder of the stream. The buffer
+ * records how far ahead of the head each event arrives, and every
+ * {@code ADAPTATION_INTERVAL} events, resizes the ring to cover the 99.99th
+ * percentile of those displacements, within a minimum and a maximum size.
+ * The ring is only shrunk when the new size is a quarter of the current one
+ * or less, and when every buffered event still fits, so that it does not
+ * keep on growing and shrinking around the same size.
+ *
+ * If an event arrives too far ahead of the head to fit in the ring, the ring
+ * is doubled until it does, up to its maximum size. Past it, the event is
+ * handed to a {@link ReorderSpill} instead, if there is one, so that heap use
+ * stays flat no matter how wide a gap is. Otherwise, the event is rejected,
+ * counted and logged, so that a single bogus sequence number can neither
+ * exhaust the heap nor hold back the dispatcher. Spilled events are put back
+ * into the ring, in sequence order, once the head is within half a ring of
+ * them.
+ *
+ * Events older than the head, or duplicates of an event already buffered,
+ * are rejected too.
+ *
+ * This class is not thread-safe. It is meant to be owned by a single
+ * dispatching thread.
+ */
+class ReorderBuffer {
+
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    private final static LongAdder rejectedEvents = Metrics.counter("dispatcher.rejectedEvents");
+
+    final static int ADAPTATION_INTERVAL = 64 * 1024;
+    final static double COVERED_QUANTILE = 0.9999;
+
+    private final int minCapacity;
+    private final int maxCapacity;
+    private final LatencyHistogram displacements = new LatencyHistogram();
+    private long coveredDisplacement;
+    private ReorderSpill spill;
+    private boolean spilling;
+
+    private Event[] slots;
+    private int mask;
+    private long nextSequence;
+    private long highestSequence;
+    private int size;
+    private long bytes;
+
+    /**
+     * Creates a buffer whose size does not adapt to the disorder of the stream.
+     */
+    ReorderBuffer(int capacity, long firstSequence) {
+        this(capacity, capacity, firstSequence);
+    }
+
+    ReorderBuffer(int minCapacity, int maxCapacity, long firstSequence) {
+        this(minCapacity, maxCapacity, firstSequence, null);
+    }
+
+    /**
+     * @param spill where events past the maximum size go, or null to keep every event in memory.
+     */
+    ReorderBuffer(int minCapacity, int maxCapacity, long firstSequence, ReorderSpill spill) {
+        this.spill = spill;
+        this.spilling = spill != null;
+        this.minCapacity = powerOfTwoAtLeast(minCapacity);
+        this.maxCapacity = Math.max(this.minCapacity, powerOfTwoAtLeast(maxCapacity));
+        this.slots = new Event[this.minCapacity];
+        this.mask = this.minCapacity - 1;
+        this.nextSequence = firstSequence;
+        this.highestSequence = firstSequence - 1;
+    }
+
+    boolean offer(Event event) {
+        long distance = event.getSequence() - nextSequence;
+        if (distance < 0) {
+            return false;
+        }
+        if (distance >= slots.length) {
+            if (distance >= maxCapacity) {
+                if (spilling && spill(event)) {
+                    displacements.record(distance);
+                    return true;
+                }
+                rejectedEvents.increment();
+                errorLogger.warning(String.format("Rejected event %d, %d events ahead of the reorder window",
+                        event.getSequence(), distance));
+                return false;
+            }
+            resize(powerOfTwoAtLeast((int) distance + 1));
+        }
+        int index = (int) (event.getSequence() & mask);
+        if (slots[index] != null) {
+            return false;
+        }
+        slots[index] = event;
+        size++;
+        bytes += event.getFrameLength();
+        highestSequence = Math.max(highestSequence, event.getSequence());
+        displacements.record(distance);
+        if (displacements.getCount() == ADAPTATION_INTERVAL) {
+            adapt();
+        }
+        return true;
+    }
+
+    Event poll() {
+        if (spill != null && spill.lowestSequence() < nextSequence + Math.max(1, slots.length >> 1)) {
+            unspill();
+        }
+        int index = (int) (nextSequence & mask);
+        Event head = slots[index];
+        if (head == null) {
+            return null;
+        }
+        slots[index] = null;
+        size--;
+        bytes -= head.getFrameLength();
+        nextSequence++;
+        return head;
+    }
+
+    long getNextSequence() {
+        return nextSequence;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    long spilled() {
+        ReorderSpill s = spill;
+        return s == null ? 0 : s.size();
+    }
+
+    /**
+     * @return true if no event is buffered, in memory or spilled.
+     */
+    boolean isEmpty() {
+        return size == 0 && spilled() == 0;
+    }
+
+    /**
+     * @return the number of bytes the frames of the buffered events take, in memory or spilled.
+     */
+    long bufferedBytes() {
+        ReorderSpill s = spill;
+        return bytes + (s == null ? 0 : s.bytes());
+    }
+
+    /**
+     * Gives up on the missing events in front of the head, and moves the head to the first event buffered after
+     * them. Events that arrive later with a sequence number lower than that are rejected.
+     *
+     * @return the new head.
+     */
+    long skipGap() {
+        long lowest = spill == null ? Long.MAX_VALUE : spill.lowestSequence();
+        for (long sequence = nextSequence; sequence <= highestSequence && sequence < lowest; sequence++) {
+            if (slots[(int) (sequence & mask)] != null) {
+                lowest = sequence;
+            }
+        }
+        if (lowest != Long.MAX_VALUE) {
+            nextSequence = lowest;
+        }
+        return nextSequence;
+    }
+
+    /**
+     * Deletes the events spilled to disk, if any.
+     */
+    void close() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                errorLogger.warning("I/O error while deleting spilled events: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the 99.99th percentile of how far ahead of the head events arrived, as of the last adaptation.
+     */
+    long getCoveredDisplacement() {
+        return coveredDisplacement;
+    }
+
+    //
+    // If spilling fails, later events past the maximum size are rejected
+    // instead, while the events already spilled are still put back.
+    //
+
+    private boolean spill(Event event) {
+        try {
+            spill.add(event);
+            return true;
+        } catch (IOException e) {
+            errorLogger.severe("I/O error while spilling events, rejecting them from now on: " + e.getMessage());
+            spilling = false;
+            return false;
+        }
+    }
+
+    private void unspill() {
+        try {
+            spill.drainBelow(nextSequence + slots.length, this::place);
+        } catch (IOException e) {
+            errorLogger.severe("I/O error while reading spilled events, they are lost: " + e.getMessage());
+            close();
+            spill = null;
+            spilling = false;
+        }
+    }
+
+    private void place(Event event) {
+        long sequence = event.getSequence();
+        int index = (int) (sequence & mask);
+        if (sequence >= nextSequence && slots[index] == null) {
+            slots[index] = event;
+            size++;
+            bytes += event.getFrameLength();
+            highestSequence = Math.max(highestSequence, sequence);
+        }
+    }
+
+    private void adapt() {
+        coveredDisplacement = displacements.percentile(COVERED_QUANTILE);
+        displacements.reset();
+        int target = Math.max(minCapacity, powerOfTwoAtLeast((int) Math.min(maxCapacity, coveredDisplacement + 1)));
+        boolean fits = highestSequence - nextSequence < target;
+        if (target > slots.length || (fits && target <= slots.length / 4)) {
+            resize(target);
+        }
+    }
+
+    private void resize(int capacity) {
+        Event[] oldSlots = slots;
+        slots = new Event[capacity];
+        mask = capacity - 1;
+        for (Event e : oldSlots) {
+            if (e != null) {
+                slots[(int) (e.getSequence() & mask)] = e;
+            }
+        }
+    }
+
+    private static int powerOfTwoAtLeast(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+}
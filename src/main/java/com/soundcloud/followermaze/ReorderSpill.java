@@ -0,0 +1,343 @@
+package com.soundcloud.followermaze;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Events that arrived too far ahead of a {@link ReorderBuffer}'s window to
+ * be kept in memory, spilled to local disk until the window reaches them.
+ *
+ * Spilled events are first staged in a bounded array. When it is full, the
+ * staged events are sorted by sequence number and appended to a new run
+ * file, in their original frames. Runs are read back through a small buffer
+ * each, and merged in sequence order with the staged events as the window
+ * moves over them. This way, heap use only depends on the size of the
+ * staging array and on the number of runs, not on the number of events
+ * spilled. When there are too many runs, the smallest ones are merged
+ * together into a single one, so that runs grow in tiers, and each event is
+ * only rewritten a logarithmic number of times. Merged runs are written from
+ * readers of their own, and only replace their sources once written, so
+ * that a failed merge leaves the spill as it was.
+ *
+ * Spill files are not meant to survive a restart: the ones left over in the
+ * directory are deleted when a spill is opened. Events are made durable by
+ * the {@link WriteAheadLog} instead.
+ *
+ * This class is not thread-safe. It is meant to be owned by a single
+ * dispatching thread.
+ */
+class ReorderSpill implements Closeable {
+
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    private final static String RUN_SUFFIX = ".spill";
+    private final static int READ_BUFFER_SIZE = 8 * 1024;
+    private final static int WRITE_BUFFER_SIZE = 64 * 1024;
+    private final static int MAX_RUNS = 64;
+    private final static int MERGE_FACTOR = 16;
+
+    private final static LongAdder spilledEvents = Metrics.counter("dispatcher.spilledEvents");
+    private final static LongAdder spilledRuns = Metrics.counter("dispatcher.spilledRuns");
+    final static LongAdder mergedEvents = Metrics.counter("dispatcher.mergedSpillEvents");
+
+    private final static Comparator<Event> BY_SEQUENCE = Comparator.comparingLong(Event::getSequence);
+    private final static Comparator<Run> BY_HEAD_SEQUENCE = Comparator.comparingLong(Run::headSequence);
+
+    private final Path directory;
+    private final Event[] staging;
+    private int staged;
+    private long lowestStaged = Long.MAX_VALUE;
+
+    private final PriorityQueue<Run> runs = new PriorityQueue<>(BY_HEAD_SEQUENCE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private long nextRunId;
+    private long size;
+    private long bytes;
+
+    /**
+     * @param stagingCapacity number of events staged in memory before they are written to a run.
+     */
+    ReorderSpill(Path directory, int stagingCapacity) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.staging = new Event[Math.max(1, stagingCapacity)];
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*" + RUN_SUFFIX)) {
+            for (Path leftover : leftovers) {
+                Files.delete(leftover);
+            }
+        }
+    }
+
+    void add(Event event) throws IOException {
+        if (staged == staging.length) {
+            writeStagedRun();
+        }
+        staging[staged++] = event;
+        lowestStaged = Math.min(lowestStaged, event.getSequence());
+        size++;
+        bytes += event.getFrameLength();
+        spilledEvents.increment();
+    }
+
+    /**
+     * @return the lowest sequence number spilled, or {@code Long.MAX_VALUE} if nothing is spilled.
+     */
+    long lowestSequence() {
+        return runs.isEmpty() ? lowestStaged : Math.min(lowestStaged, runs.peek().headSequence());
+    }
+
+    /**
+     * Takes every spilled event with a sequence number lower than a given one, in sequence order.
+     */
+    void drainBelow(long sequence, Consumer<Event> consumer) throws IOException {
+        int nextStaged = 0;
+        if (lowestStaged < sequence) {
+            Arrays.sort(staging, 0, staged, BY_SEQUENCE);
+        }
+        while (true) {
+            boolean fromStaging = nextStaged < staged && staging[nextStaged].getSequence() < sequence;
+            boolean fromRuns = !runs.isEmpty() && runs.peek().headSequence() < sequence;
+            Event event;
+            if (fromStaging && (!fromRuns || staging[nextStaged].getSequence() < runs.peek().headSequence())) {
+                event = staging[nextStaged++];
+            } else if (fromRuns) {
+                Run run = runs.poll();
+                event = run.head;
+                if (run.advance()) {
+                    runs.add(run);
+                } else {
+                    run.delete();
+                }
+            } else {
+                break;
+            }
+            size--;
+            bytes -= event.getFrameLength();
+            consumer.accept(event);
+        }
+        if (nextStaged > 0) {
+            System.arraycopy(staging, nextStaged, staging, 0, staged - nextStaged);
+            Arrays.fill(staging, staged - nextStaged, staged, null);
+            staged -= nextStaged;
+            lowestStaged = staged == 0 ? Long.MAX_VALUE : staging[0].getSequence();
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the frames of the spilled events take.
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    int runs() {
+        return runs.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Run run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        Arrays.fill(staging, 0, staged, null);
+        staged = 0;
+        size = 0;
+        bytes = 0;
+    }
+
+    //
+    // Staged events are only let go once their run is written, so that they
+    // are not lost if it cannot be.
+    //
+
+    private void writeStagedRun() throws IOException {
+        Arrays.sort(staging, 0, staged, BY_SEQUENCE);
+        Path path = nextRunPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < staged; i++) {
+                write(channel, staging[i]);
+            }
+            flush(channel);
+        } catch (IOException e) {
+            writeBuffer.clear();
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        Run run = new Run(path, staged);
+        Arrays.fill(staging, 0, staged, null);
+        staged = 0;
+        lowestStaged = Long.MAX_VALUE;
+        addRun(run);
+        if (runs.size() > MAX_RUNS) {
+            try {
+                mergeSmallestRuns();
+            } catch (IOException e) {
+                errorLogger.warning("I/O error while merging spilled runs, keeping them: " + e.getMessage());
+            }
+        }
+    }
+
+    private void mergeSmallestRuns() throws IOException {
+        Run[] sources = runs.toArray(new Run[0]);
+        Arrays.sort(sources, Comparator.comparingLong(Run::remaining));
+        sources = Arrays.copyOf(sources, MERGE_FACTOR);
+        PriorityQueue<Run> merging = new PriorityQueue<>(BY_HEAD_SEQUENCE);
+        Path path = nextRunPath();
+        long events = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (Run source : sources) {
+                Run reader = source.reopen();
+                if (reader.advance()) {
+                    merging.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            Run reader;
+            while ((reader = merging.poll()) != null) {
+                write(channel, reader.head);
+                events++;
+                if (reader.advance()) {
+                    merging.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            flush(channel);
+        } catch (IOException e) {
+            writeBuffer.clear();
+            for (Run reader : merging) {
+                reader.close();
+            }
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        for (Run source : sources) {
+            runs.remove(source);
+            source.delete();
+        }
+        mergedEvents.add(events);
+        addRun(new Run(path, events));
+    }
+
+    private void addRun(Run run) throws IOException {
+        if (run.advance()) {
+            runs.add(run);
+            spilledRuns.increment();
+        } else {
+            run.delete();
+        }
+    }
+
+    private Path nextRunPath() {
+        return directory.resolve(String.format("%020d%s", nextRunId++, RUN_SUFFIX));
+    }
+
+    private void write(FileChannel channel, Event event) throws IOException {
+        if (writeBuffer.remaining() < event.getFrameLength()) {
+            flush(channel);
+        }
+        event.writeFrameTo(writeBuffer);
+    }
+
+    private void flush(FileChannel channel) throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * A run file, read sequentially. Its head is the next event to be merged.
+     * Several runs can read the same file, each from a position of its own.
+     */
+    private static final class Run {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final EventDecoder decoder = new EventDecoder();
+        private Event head;
+        // Events not taken from the run yet, including its head, and the bytes of the events taken before them.
+        private long remaining;
+        private long offset;
+
+        Run(Path path, long events) throws IOException {
+            this(path, events, 0);
+        }
+
+        private Run(Path path, long events, long offset) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.remaining = events;
+            this.offset = offset;
+            try {
+                channel.position(offset);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            buffer.flip();
+        }
+
+        /**
+         * @return another run reading the same file from the head of this one, which is left as it is.
+         */
+        Run reopen() throws IOException {
+            return new Run(path, remaining, offset);
+        }
+
+        long headSequence() {
+            return head.getSequence();
+        }
+
+        long remaining() {
+            return remaining;
+        }
+
+        /**
+         * @return false if every event of the run was read.
+         */
+        boolean advance() throws IOException {
+            if (head != null) {
+                remaining--;
+                offset += head.getFrameLength();
+            }
+            while ((head = decoder.decode(buffer)) == null) {
+                buffer.compact();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read == -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(path);
+        }
+    }
+}
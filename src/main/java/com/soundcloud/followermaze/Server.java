@@ -1,10 +1,18 @@
 package com.soundcloud.followermaze;
 
+import javax.management.JMException;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
 import java.util.logging.Logger;
 
 public class Server {
@@ -12,46 +20,218 @@ public class Server {
     private final static int CLIENT_HANDSHAKE_THREADS = 100;
 
     private final static Logger auditLogger = Logger.getLogger("audit");
+    private final static Logger errorLogger = Logger.getLogger("errors");
 
-    private final int clientPort;
-    private final int eventSourcePort;
+    private final ServerSettings settings;
+    private final ClientTransport clientTransport;
 
-    private final EventRouter eventRouter = new EventRouter();
-    private final EventDispatcher eventDispatcher = new EventDispatcher(eventRouter);
+    private final EventRouter eventRouter;
+    private EventDispatcher eventDispatcher;
+    private WriteAheadLog writeAheadLog;
 
     private ExecutorService eventDispatcherWorker = Executors.newSingleThreadExecutor();
-    private ExecutorService eventReceiverWorker = Executors.newSingleThreadExecutor();
-    private ExecutorService clientHandshakeWorker = Executors.newFixedThreadPool(CLIENT_HANDSHAKE_THREADS);
+    private ExecutorService eventSourceAcceptWorker = Executors.newSingleThreadExecutor();
+    private ExecutorService eventReceiverWorker;
+    private ExecutorService clientHandshakeWorker;
+    private ExecutorService clientWriterWorker;
+    private ExecutorService statsWorker = Executors.newSingleThreadExecutor();
+    private ExecutorService snapshotWorker = Executors.newSingleThreadExecutor();
 
-    Server(int eventSourcePort, int clientPort) {
-        this.eventSourcePort = eventSourcePort;
-        this.clientPort = clientPort;
+    Server(ServerSettings settings) {
+        this.settings = settings;
+        this.clientTransport = newBlockingTaskWorkers() ? ClientTransport.THREADED : settings.getClientTransport();
+        this.eventRouter = newEventRouter();
+    }
+
+    //
+    // On virtual threads, handshakes, event receivers and client writers all
+    // get a thread of their own, and every client gets a blocking writer.
+    //
+
+    private boolean newBlockingTaskWorkers() {
+        if (settings.getThreadMode() == ThreadMode.VIRTUAL) {
+            ExecutorService virtualThreads = VirtualThreads.newPerTaskExecutor();
+            if (virtualThreads != null) {
+                auditLogger.info("Running handshakes, event receivers and client writers on virtual threads");
+                eventReceiverWorker = clientHandshakeWorker = clientWriterWorker = virtualThreads;
+                return true;
+            }
+            errorLogger.warning("Virtual threads are not supported by this JVM, falling back to thread pools");
+        }
+        eventReceiverWorker = Executors.newCachedThreadPool();
+        clientHandshakeWorker = Executors.newFixedThreadPool(CLIENT_HANDSHAKE_THREADS);
+        clientWriterWorker = Executors.newCachedThreadPool();
+        return false;
     }
 
     public void run() throws IOException {
+        EventAudit.install(EventAudit.open(settings.getAuditSampleRate(), settings.getAuditBufferRecords(),
+                settings.getAuditFile()));
+        exposeMetrics();
+        long restored = restoreSnapshots();
+        recoverEvents(restored);
+        ClientFactory clientFactory = newClientFactory();
         newEventDispatcherThread();
-        acceptEventSourceConnection();
-        acceptClientConnections();
+        acceptEventSourceConnections();
+        acceptClientConnections(clientFactory);
+    }
+
+    ClientTransport getClientTransport() {
+        return clientTransport;
+    }
+
+    private void exposeMetrics() throws IOException {
+        try {
+            MetricsMBean.register();
+        } catch (JMException e) {
+            errorLogger.warning("Could not register metrics MBean: " + e.getMessage());
+        }
+        if (settings.getStatsPort() > 0) {
+            auditLogger.info("Serving stats on port " + settings.getStatsPort());
+            statsWorker.submit(new StatsServer(settings.getStatsPort()));
+        }
+    }
+
+    private long restoreSnapshots() throws IOException {
+        if (settings.getSnapshotDirectory() == null) {
+            return 0;
+        }
+        Path directory = Files.createDirectories(Paths.get(settings.getSnapshotDirectory()));
+        return eventRouter.restoreSnapshots(shard -> new FollowerGraphSnapshotter(
+                directory.resolve("followers-" + shard + ".snapshot"), settings.getSnapshotIntervalEvents(), snapshotWorker));
+    }
+
+    //
+    // Events up to the log's checkpoint were already delivered, so they are
+    // only routed to restore the follow/unfollow status, before any client
+    // connects. The others are dispatched as usual. Log segments are kept
+    // until the status they hold is in a snapshot, if snapshots are taken.
+    //
+
+    private void recoverEvents(long restored) throws IOException {
+        if (settings.getWalDirectory() == null) {
+            eventDispatcher = newEventDispatcher(restored + 1);
+            return;
+        }
+        LongSupplier durableSequence = settings.getSnapshotDirectory() == null
+                ? eventRouter::getDeliveredSequence
+                : () -> Math.min(eventRouter.getDeliveredSequence(), eventRouter.getSnapshotSequence());
+        writeAheadLog = new WriteAheadLog(Paths.get(settings.getWalDirectory()), settings.getWalSegmentBytes(),
+                settings.getWalSyncPolicy(), settings.getWalSyncMillis(), durableSequence);
+        long delivered = writeAheadLog.getCheckpoint();
+        eventDispatcher = newEventDispatcher(delivered + 1);
+        writeAheadLog.replay(event -> {
+            if (event.getSequence() <= delivered) {
+                eventRouter.route(event);
+            } else {
+                eventDispatcher.submit(event);
+            }
+        });
+        eventRouter.flush();
+    }
+
+    private EventDispatcher newEventDispatcher(long firstSequence) throws IOException {
+        ReorderSpill spill = settings.getSpillDirectory() == null ? null
+                : new ReorderSpill(Paths.get(settings.getSpillDirectory()), settings.getSpillStagingEvents());
+        ReorderBuffer reorderBuffer = new ReorderBuffer(settings.getReorderWindowMin(), settings.getReorderWindowMax(),
+                firstSequence, spill);
+        GapWatchdog gapWatchdog = settings.getGapTimeoutMillis() <= 0 && settings.getGapMaxBufferedBytes() <= 0 ? null
+                : new GapWatchdog(settings.getGapTimeoutMillis(), settings.getGapMaxBufferedBytes());
+        return new EventDispatcher(eventRouter, reorderBuffer, settings.getWaitStrategy(), settings.getRingCapacity(),
+                gapWatchdog, eventPoolSize());
+    }
+
+    //
+    // Pooled events are recycled as soon as they are routed, so they are only
+    // pooled when nothing holds on to them afterwards: blocking clients copy
+    // each event into their buffers right away, while the other transports
+    // queue events, and shards hand them over to threads of their own.
+    //
+
+    private int eventPoolSize() {
+        if (clientTransport != ClientTransport.BLOCKING || settings.getRoutingShards() > 1) {
+            return 0;
+        }
+        return settings.getEventPoolSize();
+    }
+
+    private EventRouter newEventRouter() {
+        if (settings.getRoutingShards() <= 1) {
+            return new EventRouter(newBroadcastLog());
+        }
+        auditLogger.info("Routing events with " + settings.getRoutingShards() + " shards");
+        ShardedEventRouter router = new ShardedEventRouter(settings.getRoutingShards(), settings.getShardQueueCapacity(),
+                shard -> newBroadcastLog());
+        router.start();
+        return router;
+    }
+
+    //
+    // Only NIO clients can read broadcasts from a shared log.
+    //
+
+    private BroadcastLog newBroadcastLog() {
+        if (clientTransport != ClientTransport.NIO) {
+            return null;
+        }
+        return new BroadcastLog(settings.getOutboundQueueBytes(), settings.getSlowConsumerPolicy());
+    }
+
+    private ClientFactory newClientFactory() throws IOException {
+        auditLogger.info("Using " + clientTransport + " client transport");
+        switch (clientTransport) {
+            case NIO:
+                NioTransport transport = new NioTransport(settings.getIoThreads(),
+                        settings.getOutboundQueueBytes(), settings.getSlowConsumerPolicy());
+                transport.start();
+                return transport;
+            case THREADED:
+                return (id, connection) -> ThreadedClient.start(id, connection, settings.getOutboundQueueBytes(),
+                        settings.getSlowConsumerPolicy(), clientWriterWorker);
+            default:
+                return Client::new;
+        }
     }
 
     private void newEventDispatcherThread() {
         eventDispatcherWorker.submit(eventDispatcher);
     }
 
-    private void acceptEventSourceConnection() throws IOException {
-        auditLogger.info("Listening event source connection on port " + eventSourcePort);
-        try (ServerSocket server = new ServerSocket(eventSourcePort)) {
-            Socket connection = server.accept();
-            eventReceiverWorker.submit(new EventReceiver(connection, eventDispatcher));
-        }
+    //
+    // Any number of event sources can connect, at any time. Each one has its
+    // own receiver, and they all feed the same dispatcher.
+    //
+
+    private void acceptEventSourceConnections() throws IOException {
+        auditLogger.info("Listening event source connections on port " + settings.getEventSourcePort());
+        ServerSocket server = new ServerSocket(settings.getEventSourcePort());
+        DuplicateFilter duplicates = new DuplicateFilter(settings.getDuplicateWindow());
+        eventSourceAcceptWorker.submit(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Socket connection = server.accept();
+                    eventReceiverWorker.submit(new EventReceiver(connection, eventDispatcher, writeAheadLog, duplicates));
+                }
+            } catch (IOException e) {
+                errorLogger.severe("I/O error while accepting event source connections: " + e.getMessage());
+            } finally {
+                SocketUtils.silentClose(server);
+            }
+        });
     }
 
-    private void acceptClientConnections() throws IOException {
-        auditLogger.info("Listening client connections on port " + clientPort);
-        try (ServerSocket server = new ServerSocket(this.clientPort)) {
+    //
+    // Client connections are accepted through a channel, so that they can be
+    // served by either transport.
+    //
+
+    private void acceptClientConnections(ClientFactory clientFactory) throws IOException {
+        auditLogger.info("Listening client connections on port " + settings.getClientPort());
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(settings.getClientPort()));
             while (true) {
-                Socket connection = server.accept();
-                clientHandshakeWorker.submit(new ClientHandshake(connection, eventRouter));
+                SocketChannel connection = server.accept();
+                clientHandshakeWorker.submit(new ClientHandshake(connection.socket(), eventRouter, clientFactory));
             }
         }
     }
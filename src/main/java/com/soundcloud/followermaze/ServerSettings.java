@@ -0,0 +1,366 @@
+package com.soundcloud.followermaze;
+
+/**
+ * Settings chosen when the server starts. Every setting has a sensible default,
+ * and can be overridden through a system property prefixed by
+ * {@code followermaze.}, eg: {@code -Dfollowermaze.clientTransport=nio}.
+ */
+class ServerSettings {
+
+    private static final String PREFIX = "followermaze.";
+
+    private int eventSourcePort = 9090;
+    private int clientPort = 9099;
+    private ClientTransport clientTransport = ClientTransport.BLOCKING;
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    private long outboundQueueBytes = 1024 * 1024;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.BLOCK;
+    private int routingShards = 1;
+    private int shardQueueCapacity = ShardedEventRouter.DEFAULT_QUEUE_CAPACITY;
+    private double auditSampleRate = 1;
+    private int auditBufferRecords = 64 * 1024;
+    private String auditFile;
+    private int statsPort;
+    private String walDirectory;
+    private int walSegmentBytes = 64 * 1024 * 1024;
+    private WalSyncPolicy walSyncPolicy = WalSyncPolicy.BATCH;
+    private long walSyncMillis = 10;
+    private String snapshotDirectory;
+    private long snapshotIntervalEvents = 1_000_000;
+    private int duplicateWindow = 1024 * 1024;
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private int ringCapacity = EventDispatcher.DEFAULT_RING_CAPACITY;
+    private int reorderWindowMin = EventDispatcher.DEFAULT_MIN_REORDER_WINDOW;
+    private int reorderWindowMax = EventDispatcher.DEFAULT_MAX_REORDER_WINDOW;
+    private String spillDirectory;
+    private int spillStagingEvents = 64 * 1024;
+    private long gapTimeoutMillis = 10_000;
+    private long gapMaxBufferedBytes;
+    private int eventPoolSize = EventDispatcher.DEFAULT_EVENT_POOL_SIZE;
+
+    static ServerSettings fromSystemProperties() {
+        ServerSettings settings = new ServerSettings();
+        settings.eventSourcePort = intProperty("eventSourcePort", settings.eventSourcePort);
+        settings.clientPort = intProperty("clientPort", settings.clientPort);
+        settings.clientTransport = enumProperty("clientTransport", settings.clientTransport);
+        settings.ioThreads = intProperty("ioThreads", settings.ioThreads);
+        settings.outboundQueueBytes = longProperty("outboundQueueBytes", settings.outboundQueueBytes);
+        settings.slowConsumerPolicy = enumProperty("slowConsumerPolicy", settings.slowConsumerPolicy);
+        settings.routingShards = intProperty("routingShards", settings.routingShards);
+        settings.shardQueueCapacity = intProperty("shardQueueCapacity", settings.shardQueueCapacity);
+        settings.auditSampleRate = doubleProperty("auditSampleRate", settings.auditSampleRate);
+        settings.auditBufferRecords = intProperty("auditBufferRecords", settings.auditBufferRecords);
+        settings.auditFile = stringProperty("auditFile", settings.auditFile);
+        settings.statsPort = intProperty("statsPort", settings.statsPort);
+        settings.walDirectory = stringProperty("walDirectory", settings.walDirectory);
+        settings.walSegmentBytes = intProperty("walSegmentBytes", settings.walSegmentBytes);
+        settings.walSyncPolicy = enumProperty("walSyncPolicy", settings.walSyncPolicy);
+        settings.walSyncMillis = longProperty("walSyncMillis", settings.walSyncMillis);
+        settings.snapshotDirectory = stringProperty("snapshotDirectory", settings.snapshotDirectory);
+        settings.snapshotIntervalEvents = longProperty("snapshotIntervalEvents", settings.snapshotIntervalEvents);
+        settings.duplicateWindow = intProperty("duplicateWindow", settings.duplicateWindow);
+        settings.threadMode = enumProperty("threadMode", settings.threadMode);
+        settings.waitStrategy = enumProperty("waitStrategy", settings.waitStrategy);
+        settings.ringCapacity = intProperty("ringCapacity", settings.ringCapacity);
+        settings.reorderWindowMin = intProperty("reorderWindowMin", settings.reorderWindowMin);
+        settings.reorderWindowMax = intProperty("reorderWindowMax", settings.reorderWindowMax);
+        settings.spillDirectory = stringProperty("spillDirectory", settings.spillDirectory);
+        settings.spillStagingEvents = intProperty("spillStagingEvents", settings.spillStagingEvents);
+        settings.gapTimeoutMillis = longProperty("gapTimeoutMillis", settings.gapTimeoutMillis);
+        settings.gapMaxBufferedBytes = longProperty("gapMaxBufferedBytes", settings.gapMaxBufferedBytes);
+        settings.eventPoolSize = intProperty("eventPoolSize", settings.eventPoolSize);
+        return settings;
+    }
+
+    static String stringProperty(String name, String defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    static boolean booleanProperty(String name, boolean defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    static long longProperty(String name, long defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    static <E extends Enum<E>> E enumProperty(String name, E defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value == null ? defaultValue : Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+    }
+
+    ServerSettings withEventSourcePort(int eventSourcePort) {
+        this.eventSourcePort = eventSourcePort;
+        return this;
+    }
+
+    ServerSettings withClientPort(int clientPort) {
+        this.clientPort = clientPort;
+        return this;
+    }
+
+    ServerSettings withClientTransport(ClientTransport clientTransport) {
+        this.clientTransport = clientTransport;
+        return this;
+    }
+
+    ServerSettings withIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    ServerSettings withOutboundQueueBytes(long outboundQueueBytes) {
+        this.outboundQueueBytes = outboundQueueBytes;
+        return this;
+    }
+
+    ServerSettings withSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        return this;
+    }
+
+    ServerSettings withRoutingShards(int routingShards) {
+        this.routingShards = routingShards;
+        return this;
+    }
+
+    ServerSettings withAuditSampleRate(double auditSampleRate) {
+        this.auditSampleRate = auditSampleRate;
+        return this;
+    }
+
+    ServerSettings withAuditBufferRecords(int auditBufferRecords) {
+        this.auditBufferRecords = auditBufferRecords;
+        return this;
+    }
+
+    ServerSettings withAuditFile(String auditFile) {
+        this.auditFile = auditFile;
+        return this;
+    }
+
+    ServerSettings withStatsPort(int statsPort) {
+        this.statsPort = statsPort;
+        return this;
+    }
+
+    ServerSettings withWalDirectory(String walDirectory) {
+        this.walDirectory = walDirectory;
+        return this;
+    }
+
+    ServerSettings withWalSegmentBytes(int walSegmentBytes) {
+        this.walSegmentBytes = walSegmentBytes;
+        return this;
+    }
+
+    ServerSettings withWalSyncPolicy(WalSyncPolicy walSyncPolicy) {
+        this.walSyncPolicy = walSyncPolicy;
+        return this;
+    }
+
+    ServerSettings withWalSyncMillis(long walSyncMillis) {
+        this.walSyncMillis = walSyncMillis;
+        return this;
+    }
+
+    ServerSettings withSnapshotDirectory(String snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+        return this;
+    }
+
+    ServerSettings withSnapshotIntervalEvents(long snapshotIntervalEvents) {
+        this.snapshotIntervalEvents = snapshotIntervalEvents;
+        return this;
+    }
+
+    ServerSettings withDuplicateWindow(int duplicateWindow) {
+        this.duplicateWindow = duplicateWindow;
+        return this;
+    }
+
+    ServerSettings withThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+        return this;
+    }
+
+    ServerSettings withWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+        return this;
+    }
+
+    ServerSettings withRingCapacity(int ringCapacity) {
+        this.ringCapacity = ringCapacity;
+        return this;
+    }
+
+    ServerSettings withReorderWindowMin(int reorderWindowMin) {
+        this.reorderWindowMin = reorderWindowMin;
+        return this;
+    }
+
+    ServerSettings withReorderWindowMax(int reorderWindowMax) {
+        this.reorderWindowMax = reorderWindowMax;
+        return this;
+    }
+
+    ServerSettings withSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    ServerSettings withSpillStagingEvents(int spillStagingEvents) {
+        this.spillStagingEvents = spillStagingEvents;
+        return this;
+    }
+
+    ServerSettings withGapTimeoutMillis(long gapTimeoutMillis) {
+        this.gapTimeoutMillis = gapTimeoutMillis;
+        return this;
+    }
+
+    ServerSettings withGapMaxBufferedBytes(long gapMaxBufferedBytes) {
+        this.gapMaxBufferedBytes = gapMaxBufferedBytes;
+        return this;
+    }
+
+    ServerSettings withEventPoolSize(int eventPoolSize) {
+        this.eventPoolSize = eventPoolSize;
+        return this;
+    }
+
+    ServerSettings withShardQueueCapacity(int shardQueueCapacity) {
+        this.shardQueueCapacity = shardQueueCapacity;
+        return this;
+    }
+
+    int getEventSourcePort() {
+        return eventSourcePort;
+    }
+
+    int getClientPort() {
+        return clientPort;
+    }
+
+    ClientTransport getClientTransport() {
+        return clientTransport;
+    }
+
+    int getIoThreads() {
+        return ioThreads;
+    }
+
+    long getOutboundQueueBytes() {
+        return outboundQueueBytes;
+    }
+
+    SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    int getRoutingShards() {
+        return routingShards;
+    }
+
+    double getAuditSampleRate() {
+        return auditSampleRate;
+    }
+
+    int getAuditBufferRecords() {
+        return auditBufferRecords;
+    }
+
+    String getAuditFile() {
+        return auditFile;
+    }
+
+    int getStatsPort() {
+        return statsPort;
+    }
+
+    String getWalDirectory() {
+        return walDirectory;
+    }
+
+    int getWalSegmentBytes() {
+        return walSegmentBytes;
+    }
+
+    WalSyncPolicy getWalSyncPolicy() {
+        return walSyncPolicy;
+    }
+
+    long getWalSyncMillis() {
+        return walSyncMillis;
+    }
+
+    String getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    long getSnapshotIntervalEvents() {
+        return snapshotIntervalEvents;
+    }
+
+    int getDuplicateWindow() {
+        return duplicateWindow;
+    }
+
+    ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    int getRingCapacity() {
+        return ringCapacity;
+    }
+
+    int getReorderWindowMin() {
+        return reorderWindowMin;
+    }
+
+    int getReorderWindowMax() {
+        return reorderWindowMax;
+    }
+
+    String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    int getSpillStagingEvents() {
+        return spillStagingEvents;
+    }
+
+    long getGapTimeoutMillis() {
+        return gapTimeoutMillis;
+    }
+
+    long getGapMaxBufferedBytes() {
+        return gapMaxBufferedBytes;
+    }
+
+    int getEventPoolSize() {
+        return eventPoolSize;
+    }
+
+    int getShardQueueCapacity() {
+        return shardQueueCapacity;
+    }
+}
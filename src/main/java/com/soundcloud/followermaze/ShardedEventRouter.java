@@ -0,0 +1,205 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+/**
+ * An event router that partitions clients by id across several shards, each
+ * one routing events on its own thread.
+ *
+ * Every shard is an {@link EventRouter} that owns the clients whose ids fall
+ * into it, as well as the follow/unfollow status of those clients. Events are
+ * handed, in sequence order, to the shards that need them:
+ *
+ * <ul>
+ *     <li>Follow: the shards of both the follower and the followee.</li>
+ *     <li>Unfollow: the shard of the follower.</li>
+ *     <li>Private message: the shard of the recipient.</li>
+ *     <li>Broadcast and status update: every shard.</li>
+ * </ul>
+ *
+ * Since each shard processes its events in the order they were handed, and
+ * any follow/unfollow affecting a status update is handled by the same shard
+ * that routes the status update, every client still receives its events in
+ * sequence order, with the follow/unfollow status as of that sequence number.
+ *
+ * Each shard has a bounded queue of events handed to it. Once a shard falls
+ * behind and its queue fills up, handing it events blocks, so that it holds
+ * back the dispatcher rather than piling events up in memory.
+ *
+ * Shards flush their clients whenever they run out of events to route. Each
+ * shard has its own broadcast log, if any, since a log is appended to by a
+ * single thread.
+ *
+ * Since each shard only sees some of the events, a shard that flushed every
+ * event handed to it is as far as the last event handed to any shard. The
+ * delivered sequence is the lowest of the shards' positions, and so is the
+ * sequence of the latest snapshot of the follower graph, which is split
+ * across the shards' snapshots.
+ */
+class ShardedEventRouter extends EventRouter {
+
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    final static int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+    private final static int MAX_BATCH_SIZE = 4096;
+
+    private final EventRouter[] shards;
+    private final BlockingQueue<Event>[] queues;
+    private final ExecutorService shardWorkers;
+
+    // Sequence number of the last event handed to each shard, and to any shard.
+    private final AtomicLongArray handedThrough;
+    private volatile long handedOff;
+
+    ShardedEventRouter(int shardCount) {
+        this(shardCount, DEFAULT_QUEUE_CAPACITY, shard -> null);
+    }
+
+    /**
+     * @param queueCapacity number of events each shard can be handed before it routes them.
+     * @param broadcastLogs creates the broadcast log of each shard, or returns null for shards without one.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ShardedEventRouter(int shardCount, int queueCapacity, IntFunction<BroadcastLog> broadcastLogs) {
+        this.shards = new EventRouter[shardCount];
+        this.queues = new BlockingQueue[shardCount];
+        this.handedThrough = new AtomicLongArray(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new EventRouter(i, shardCount, broadcastLogs.apply(i));
+            queues[i] = new ArrayBlockingQueue<>(queueCapacity);
+        }
+        this.shardWorkers = Executors.newFixedThreadPool(shardCount);
+    }
+
+    void start() {
+        for (int i = 0; i < shards.length; i++) {
+            EventRouter shard = shards[i];
+            BlockingQueue<Event> queue = queues[i];
+            shardWorkers.submit(() -> routeShard(shard, queue));
+        }
+    }
+
+    void stop() {
+        shardWorkers.shutdownNow();
+    }
+
+    @Override
+    public void register(Client client) {
+        shards[shardOf(client.id())].register(client);
+    }
+
+    @Override
+    public void route(Event event) {
+        switch (event.getType()) {
+            case FOLLOW:
+                int followerShard = shardOf(event.fromId());
+                int followeeShard = shardOf(event.toId());
+                handOff(followerShard, event);
+                if (followeeShard != followerShard) {
+                    handOff(followeeShard, event);
+                }
+                break;
+            case UNFOLLOW:
+                handOff(shardOf(event.fromId()), event);
+                break;
+            case PRIVATE_MESSAGE:
+                handOff(shardOf(event.toId()), event);
+                break;
+            default:
+                for (int i = 0; i < queues.length; i++) {
+                    handOff(i, event);
+                }
+        }
+        handedOff = event.getSequence();
+    }
+
+    private void handOff(int shard, Event event) {
+        handedThrough.lazySet(shard, event.getSequence());
+        try {
+            queues[shard].put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errorLogger.warning(String.format("Interrupted while handing event %d to shard %d", event.getSequence(), shard));
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Each shard flushes its own clients.
+    }
+
+    @Override
+    long restoreSnapshots(IntFunction<FollowerGraphSnapshotter> snapshotters) throws IOException {
+        long restored = Long.MAX_VALUE;
+        for (EventRouter shard : shards) {
+            restored = Math.min(restored, shard.restoreSnapshots(snapshotters));
+        }
+        return restored;
+    }
+
+    @Override
+    long getDeliveredSequence() {
+        return lowestPosition(EventRouter::getDeliveredSequence);
+    }
+
+    @Override
+    long getSnapshotSequence() {
+        return lowestPosition(EventRouter::getSnapshotSequence);
+    }
+
+    //
+    // The last event handed off is read first: any shard that went through
+    // everything handed to it afterwards is at least as far as that event.
+    //
+
+    private long lowestPosition(ToLongFunction<EventRouter> position) {
+        long lowest = handedOff;
+        for (int i = 0; i < shards.length; i++) {
+            long shardPosition = position.applyAsLong(shards[i]);
+            if (shardPosition < handedThrough.get(i)) {
+                lowest = Math.min(lowest, shardPosition);
+            }
+        }
+        return lowest;
+    }
+
+    @Override
+    long connectedClients() {
+        long connected = 0;
+        for (EventRouter shard : shards) {
+            connected += shard.connectedClients();
+        }
+        return connected;
+    }
+
+    @Override
+    protected Client getClient(Long id) {
+        return shards[shardOf(id)].getClient(id);
+    }
+
+    private int shardOf(long id) {
+        return shardOf(id, shards.length);
+    }
+
+    private static void routeShard(EventRouter shard, BlockingQueue<Event> queue) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                shard.route(queue.take());
+                Event next;
+                for (int i = 1; i < MAX_BATCH_SIZE && (next = queue.poll()) != null; i++) {
+                    shard.route(next);
+                }
+                shard.flush();
+            }
+        } catch (InterruptedException ignored) { }
+    }
+}
@@ -0,0 +1,16 @@
+package com.soundcloud.followermaze;
+
+/**
+ * What to do when an event is sent to a client whose {@link OutboundQueue} is full.
+ *
+ * <ul>
+ *     <li>{@link #BLOCK}: the sending thread waits until the client catches up.</li>
+ *     <li>{@link #DISCONNECT}: the client is disconnected.</li>
+ *     <li>{@link #DROP}: the event is dropped for that client only.</li>
+ * </ul>
+ */
+enum SlowConsumerPolicy {
+    BLOCK,
+    DISCONNECT,
+    DROP
+}
@@ -21,4 +21,8 @@ final class SocketUtils {
     static void silentClose(ServerSocket socket) {
         try { socket.close(); } catch (IOException ignored) { }
     }
+
+    static void silentClose(Closeable closeable) {
+        try { closeable.close(); } catch (IOException ignored) { }
+    }
 }
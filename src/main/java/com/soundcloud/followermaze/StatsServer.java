@@ -0,0 +1,53 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Dumps a snapshot of every metric, one {@code name value} pair per line, to
+ * whoever connects to the stats port, and closes the connection. Stats can
+ * be scraped with nothing more than {@code nc localhost 9095}.
+ */
+class StatsServer implements Runnable {
+
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    private final ServerSocket server;
+
+    StatsServer(int port) throws IOException {
+        this.server = new ServerSocket(port);
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted() && !server.isClosed()) {
+                try (Socket connection = server.accept()) {
+                    dump(connection.getOutputStream());
+                } catch (IOException e) {
+                    errorLogger.warning("I/O error while dumping stats: " + e.getMessage());
+                }
+            }
+        } finally {
+            SocketUtils.silentClose(server);
+        }
+    }
+
+    static void dump(OutputStream out) throws IOException {
+        StringBuilder stats = new StringBuilder();
+        for (Map.Entry<String, Long> metric : Metrics.snapshot().entrySet()) {
+            stats.append(metric.getKey()).append(' ').append(metric.getValue()).append('\n');
+        }
+        out.write(stats.toString().getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
@@ -0,0 +1,15 @@
+package com.soundcloud.followermaze;
+
+/**
+ * The kind of threads blocking tasks run on: client handshakes, event receivers, and client writers.
+ *
+ * <ul>
+ *     <li>{@link #PLATFORM}: bounded pools of platform threads.</li>
+ *     <li>{@link #VIRTUAL}: one virtual thread per task, and per client, if the JVM supports
+ *     virtual threads. See {@link VirtualThreads}.</li>
+ * </ul>
+ */
+enum ThreadMode {
+    PLATFORM,
+    VIRTUAL
+}
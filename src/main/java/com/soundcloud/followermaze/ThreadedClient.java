@@ -0,0 +1,152 @@
+package com.soundcloud.followermaze;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import static com.soundcloud.followermaze.SocketUtils.silentClose;
+
+/**
+ * A user client with a writer thread of its own, meant to be a virtual
+ * thread (see {@link ThreadMode#VIRTUAL}).
+ *
+ * Sending an event appends it to an {@link OutboundQueue}, and once flushed
+ * the writer is woken up. The writer is a plain blocking loop: it writes
+ * every queued event to the socket's buffered stream, flushes the stream
+ * once the queue is empty, and parks until it is woken up again. This way,
+ * a slow client only holds back its own writer.
+ *
+ * Another thread blocks reading from the socket, so that the client is
+ * closed as soon as the user disconnects.
+ *
+ * Events can be sent by any thread, but are only written by the writer.
+ */
+class ThreadedClient extends Client implements Runnable {
+
+    private final static Logger errorLogger = Logger.getLogger("errors");
+
+    private final static int WRITE_BUFFER_SIZE = 8192;
+    private final static int DISCARD_BUFFER_SIZE = 256;
+
+    private final Socket connection;
+    private final OutboundQueue outbound;
+    private volatile Thread writer;
+    private volatile boolean closed;
+
+    ThreadedClient(Long id, Socket connection, long outboundCapacityBytes, SlowConsumerPolicy slowConsumerPolicy) {
+        super(id, connection);
+        this.connection = connection;
+        this.outbound = new OutboundQueue(outboundCapacityBytes, slowConsumerPolicy, this::wakeWriter);
+    }
+
+    /**
+     * Builds a client and starts its writer and its reader.
+     */
+    static ThreadedClient start(Long id, Socket connection, long outboundCapacityBytes,
+                                SlowConsumerPolicy slowConsumerPolicy, Executor writers) {
+        ThreadedClient client = new ThreadedClient(id, connection, outboundCapacityBytes, slowConsumerPolicy);
+        writers.execute(client);
+        writers.execute(client::awaitDisconnect);
+        return client;
+    }
+
+    @Override
+    public void write(Event event) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        try {
+            outbound.offer(event);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (!outbound.isEmpty()) {
+            wakeWriter();
+        }
+    }
+
+    //
+    // The connection is closed right away, rather than by the writer, so that
+    // a writer blocked on a peer that stopped reading fails and exits.
+    //
+
+    @Override
+    void close() {
+        closed = true;
+        silentClose(connection);
+        wakeWriter();
+    }
+
+    @Override
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void run() {
+        writer = Thread.currentThread();
+        try {
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream(), WRITE_BUFFER_SIZE);
+            boolean unflushed = false;
+            while (!closed) {
+                Event event = outbound.poll();
+                if (event != null) {
+                    event.writeFrameTo(out);
+                    unflushed = true;
+                } else if (unflushed) {
+                    long start = System.nanoTime();
+                    out.flush();
+                    writeLatency.record(System.nanoTime() - start);
+                    unflushed = false;
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } catch (IOException e) {
+            errorLogger.warning(String.format("I/O error while writing to client %d: %s", getId(), e.getMessage()));
+        } finally {
+            closed = true;
+            outbound.clear();
+            silentClose(connection);
+            disconnected();
+        }
+    }
+
+    //
+    // Users do not send anything once they are registered, so reading only
+    // tells when they disconnect. Whatever they do send is discarded.
+    //
+
+    private void awaitDisconnect() {
+        byte[] discarded = new byte[DISCARD_BUFFER_SIZE];
+        try {
+            InputStream in = connection.getInputStream();
+            while (in.read(discarded) != -1) { }
+        } catch (IOException ignored) {
+        } finally {
+            close();
+        }
+    }
+
+    //
+    // A writer woken up before it parks does not park at all, so that no
+    // event is left behind in the queue.
+    //
+
+    private void wakeWriter() {
+        Thread thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.soundcloud.followermaze;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gives access to virtual threads, on JVMs that have them (Java 21 onwards),
+ * while the server is still built for, and runs on, older JVMs.
+ *
+ * Virtual threads are cheap enough to block: a task or a connection can have
+ * one of its own, without being limited by the size of a pool.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() { }
+
+    /**
+     * @return an executor that starts a new virtual thread for each task, or null if the JVM does not
+     * support virtual threads.
+     */
+    static ExecutorService newPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            // Virtual threads are missing before Java 19, and a disabled preview feature on Java 19 and 20.
+            return null;
+        }
+    }
+}
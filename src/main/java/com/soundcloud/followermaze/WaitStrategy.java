@@ -0,0 +1,42 @@
+package com.soundcloud.followermaze;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a thread does while it waits on an {@link EventRing}: the dispatching
+ * thread when every ring is empty, or a receiver when its ring is full.
+ *
+ * <ul>
+ *     <li>{@link #SPIN}: keeps checking, burning a whole CPU for the lowest latency. Only worth it with a core to
+ *     spare for each waiting thread.</li>
+ *     <li>{@link #YIELD}: keeps checking, but lets other threads run in between.</li>
+ *     <li>{@link #PARK}: sleeps. An idle dispatching thread is woken up as soon as events are published, at the cost
+ *     of a system call; a receiver waiting for room checks again every {@code PARK_NANOS}.</li>
+ * </ul>
+ */
+enum WaitStrategy {
+    SPIN {
+        @Override
+        void idle() { }
+    },
+    YIELD {
+        @Override
+        void idle() {
+            Thread.yield();
+        }
+    },
+    PARK {
+        @Override
+        void idle() {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    };
+
+    final static long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * Waits a little, before checking again.
+     */
+    abstract void idle();
+}
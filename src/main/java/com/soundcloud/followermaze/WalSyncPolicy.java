@@ -0,0 +1,17 @@
+package com.soundcloud.followermaze;
+
+/**
+ * When the {@link WriteAheadLog} forces appended events to disk.
+ *
+ * <ul>
+ *     <li>{@link #BATCH}: every batch of events read from the event source, before it is dispatched.</li>
+ *     <li>{@link #PERIODIC}: at most once per sync interval, so that a crash loses at most that much.</li>
+ *     <li>{@link #NONE}: whenever the operating system writes dirty pages back, which survives the server
+ *     crashing, but not the machine.</li>
+ * </ul>
+ */
+enum WalSyncPolicy {
+    BATCH,
+    PERIODIC,
+    NONE
+}
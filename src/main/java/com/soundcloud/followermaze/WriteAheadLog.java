@@ -0,0 +1,272 @@
+package com.soundcloud.followermaze;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Write-ahead log of the events received from the event source, so that the
+ * events received before a crash are not lost with it.
+ *
+ * The raw frames of events are appended, in the order they were received, to
+ * segment files of a fixed size, each mapped into memory, so that appending
+ * an event is a memory copy. Events are committed once per batch read from
+ * the event source: depending on the {@link WalSyncPolicy}, a commit forces
+ * the active segment to disk before the batch is handed to the dispatcher.
+ *
+ * When the active segment is full, a new one is started. Older segments are
+ * deleted as soon as every event in them has been delivered, according to
+ * the watermark given by the router (see {@link EventRouter#getDeliveredSequence()}).
+ * The watermark is checkpointed whenever segments are deleted, since the
+ * events up to it may no longer be in the log.
+ *
+ * When the server starts, the events left in the log are {@link #replay replayed}
+ * in sequence order, so that the follow/unfollow status they carry is restored,
+ * and the events that were not delivered yet are dispatched.
+ *
+ * This class is not thread-safe. Event receivers sharing a log append and
+ * commit each batch while holding its lock.
+ */
+class WriteAheadLog implements Closeable {
+
+    private final static Logger auditLogger = Logger.getLogger("audit");
+
+    private final static String SEGMENT_SUFFIX = ".wal";
+    private final static String CHECKPOINT_FILE = "checkpoint";
+
+    private final static LongAdder appendedEvents = Metrics.counter("wal.appendedEvents");
+    private final static LongAdder deletedSegments = Metrics.counter("wal.deletedSegments");
+    private final static Histogram syncLatency = Metrics.histogram("wal.syncNanos");
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final WalSyncPolicy syncPolicy;
+    private final long syncIntervalNanos;
+    private final LongSupplier deliveredSequence;
+
+    private final Deque<Segment> closedSegments = new ArrayDeque<>();
+    private volatile int segmentCount;
+    private long checkpoint;
+
+    private Segment active;
+    private MappedByteBuffer buffer;
+    private boolean unsynced;
+    private long lastSync = System.nanoTime();
+
+    private static final class Segment {
+        final Path path;
+        final long index;
+        long maxSequence;
+
+        Segment(Path path, long index) {
+            this.path = path;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Opens the log kept in a directory, creating the directory if needed.
+     *
+     * @param deliveredSequence supplies the sequence number up to which every event has been delivered.
+     */
+    WriteAheadLog(Path directory, int segmentBytes, WalSyncPolicy syncPolicy, long syncIntervalMillis,
+                  LongSupplier deliveredSequence) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.deliveredSequence = deliveredSequence;
+        this.checkpoint = readCheckpoint();
+        Metrics.gauge("wal.segments", () -> segmentCount);
+    }
+
+    /**
+     * @return the sequence number up to which every event was delivered, as of the last time segments were deleted.
+     */
+    long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Hands over every event left in the log, in sequence order, skipping duplicates, and starts a new
+     * segment to append to. Must be called once, before anything is appended.
+     *
+     * @return the number of events replayed.
+     */
+    int replay(Consumer<Event> consumer) throws IOException {
+        List<Event> events = new ArrayList<>();
+        for (Path path : listSegments()) {
+            Segment segment = new Segment(path, indexOf(path));
+            MappedByteBuffer mapped = map(path, FileChannel.MapMode.READ_ONLY);
+            mapped.limit(endOfData(mapped));
+            EventDecoder decoder = new EventDecoder();
+            Event event;
+            while ((event = decoder.decode(mapped)) != null) {
+                segment.maxSequence = Math.max(segment.maxSequence, event.getSequence());
+                events.add(event);
+            }
+            closedSegments.add(segment);
+        }
+        Collections.sort(events);
+        long previous = 0;
+        for (Event event : events) {
+            if (event.getSequence() != previous) {
+                consumer.accept(event);
+                previous = event.getSequence();
+            }
+        }
+        if (!events.isEmpty()) {
+            auditLogger.info("Replayed " + events.size() + " events from " + closedSegments.size() + " log segments");
+        }
+        startSegment(closedSegments.isEmpty() ? 0 : closedSegments.getLast().index + 1);
+        return events.size();
+    }
+
+    void append(Event event) throws IOException {
+        if (buffer.remaining() < event.getFrameLength()) {
+            roll();
+            if (buffer.remaining() < event.getFrameLength()) {
+                throw new IOException("Event does not fit in a log segment: " + event.toPayload());
+            }
+        }
+        event.writeFrameTo(buffer);
+        active.maxSequence = Math.max(active.maxSequence, event.getSequence());
+        unsynced = true;
+        appendedEvents.increment();
+    }
+
+    /**
+     * Makes the events appended so far durable, as far as the sync policy requires, and deletes the segments
+     * whose events were all delivered.
+     */
+    void commit() throws IOException {
+        if (unsynced && (syncPolicy == WalSyncPolicy.BATCH
+                || (syncPolicy == WalSyncPolicy.PERIODIC && System.nanoTime() - lastSync >= syncIntervalNanos))) {
+            sync();
+        }
+        deleteDeliveredSegments();
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null && unsynced) {
+            sync();
+        }
+    }
+
+    private void sync() {
+        long start = System.nanoTime();
+        buffer.force();
+        lastSync = System.nanoTime();
+        unsynced = false;
+        syncLatency.record(lastSync - start);
+    }
+
+    private void roll() throws IOException {
+        if (unsynced) {
+            sync();
+        }
+        closedSegments.add(active);
+        startSegment(active.index + 1);
+    }
+
+    private void startSegment(long index) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+        buffer = map(path, FileChannel.MapMode.READ_WRITE);
+        active = new Segment(path, index);
+        segmentCount = closedSegments.size() + 1;
+    }
+
+    private void deleteDeliveredSegments() throws IOException {
+        if (closedSegments.isEmpty()) {
+            return;
+        }
+        long delivered = deliveredSequence.getAsLong();
+        if (closedSegments.peekFirst().maxSequence > delivered) {
+            return;
+        }
+        // Events up to the watermark may only be found in the segments about to be deleted.
+        if (delivered > checkpoint) {
+            writeCheckpoint(delivered);
+        }
+        while (!closedSegments.isEmpty() && closedSegments.peekFirst().maxSequence <= delivered) {
+            Files.deleteIfExists(closedSegments.removeFirst().path);
+            deletedSegments.increment();
+        }
+        segmentCount = closedSegments.size() + 1;
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim());
+    }
+
+    private void writeCheckpoint(long sequence) throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(StandardCharsets.US_ASCII.encode(Long.toString(sequence)));
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE);
+        checkpoint = sequence;
+    }
+
+    private MappedByteBuffer map(Path path, FileChannel.MapMode mode) throws IOException {
+        boolean readOnly = mode == FileChannel.MapMode.READ_ONLY;
+        StandardOpenOption[] options = readOnly
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW};
+        // A mapping stays valid after its channel is closed.
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            return channel.map(mode, 0, readOnly ? channel.size() : segmentBytes);
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            paths.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    //
+    // Segments are zero-filled when created, and valid frames never contain
+    // a zero byte, so data ends right after the last non-zero byte.
+    //
+
+    private static int endOfData(MappedByteBuffer segment) {
+        int end = segment.limit();
+        while (end > 0 && segment.get(end - 1) == 0) {
+            end--;
+        }
+        return end;
+    }
+}
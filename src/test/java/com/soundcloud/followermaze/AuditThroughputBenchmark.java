@@ -0,0 +1,148 @@
+package com.soundcloud.followermaze;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Measures how fast events are received and routed with the audit trail at
+ * several sampling rates, compared to logging every event synchronously, as
+ * the server used to.
+ *
+ * Events are routed to clients that discard everything written to them, so
+ * that the numbers reflect the cost of routing and auditing only. The
+ * "audit" logger writes to a temporary file, and so does the binary audit
+ * trail. Synchronous logging is only measured over the first tenth of the
+ * events, since it is orders of magnitude slower.
+ *
+ * Usage: {@code ./gradlew auditThroughputBenchmark}, or run with the number
+ * of events as an argument.
+ */
+public class AuditThroughputBenchmark {
+
+    private static final int USERS = 100;
+    private static final int BATCH_SIZE = 4096;
+    private static final int ROUNDS = 3;
+
+    private static final Logger auditLogger = Logger.getLogger("audit");
+
+    public static void main(String[] args) throws Exception {
+        int numberOfEvents = args.length == 0 ? 500_000 : Integer.parseInt(args[0].replace("_", ""));
+        Event[] events = buildEvents(numberOfEvents);
+        logAuditToTemporaryFile();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("Round " + (round + 1));
+            measureSynchronousLogging(Arrays.copyOf(events, events.length / 10));
+            for (double sampleRate : new double[]{0, 0.01, 1}) {
+                measureAudit(events, sampleRate, true);
+            }
+            measureAudit(events, 1, false);
+        }
+    }
+
+    private static void measureSynchronousLogging(Event[] events) {
+        auditLogger.setLevel(Level.INFO);
+        EventRouter router = newRouter(true);
+        EventAudit.install(new EventAudit(0, 1, null));
+        long start = System.nanoTime();
+        for (int i = 0; i < events.length; i++) {
+            auditLogger.info("Received event: " + events[i].toPayload());
+            router.route(events[i]);
+            if (i % BATCH_SIZE == 0) {
+                router.flush();
+            }
+        }
+        router.flush();
+        report("synchronous logging", events.length, System.nanoTime() - start, 0);
+    }
+
+    private static void measureAudit(Event[] events, double sampleRate, boolean log)
+            throws IOException, InterruptedException {
+        auditLogger.setLevel(log ? Level.INFO : Level.OFF);
+        EventRouter router = newRouter(false);
+        File file = File.createTempFile("audit", ".bin");
+        file.deleteOnExit();
+        EventAudit audit = EventAudit.open(sampleRate, 64 * 1024, file.getPath());
+        EventAudit.install(audit);
+        LongAdder dropped = Metrics.counter("audit.droppedRecords");
+        long droppedBefore = dropped.sum();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < events.length; i++) {
+            EventAudit.received(events[i]);
+            router.route(events[i]);
+            if (i % BATCH_SIZE == 0) {
+                router.flush();
+            }
+        }
+        router.flush();
+        long elapsed = System.nanoTime() - start;
+
+        audit.close();
+        report(String.format("audit trail, %.0f%% sampled%s", sampleRate * 100, log ? "" : ", file only"),
+                events.length, elapsed, dropped.sum() - droppedBefore);
+    }
+
+    private static void report(String name, int events, long elapsed, long droppedRecords) {
+        System.out.printf("%-40s %,10d events  %,12.0f events/s  %,10d records dropped%n",
+                name, events, events * 1e9 / elapsed, droppedRecords);
+    }
+
+    private static EventRouter newRouter(boolean logSynchronously) {
+        EventRouter router = new EventRouter();
+        for (long id = 1; id <= USERS; id++) {
+            router.register(logSynchronously ? new SynchronouslyLoggedClient(id) : new Client(id, new DiscardingSocket()));
+        }
+        return router;
+    }
+
+    private static Event[] buildEvents(int numberOfEvents) {
+        Random random = new Random(666);
+        Event[] events = new Event[numberOfEvents];
+        for (int i = 0; i < numberOfEvents; i++) {
+            long sequence = i + 1;
+            long from = 1 + random.nextInt(USERS);
+            long to = 1 + random.nextInt(USERS);
+            switch (random.nextInt(10)) {
+                case 0: events[i] = Event.newBroadcast(sequence); break;
+                case 1: case 2: events[i] = Event.newFollow(sequence, from, to); break;
+                case 3: events[i] = Event.newUnfollow(sequence, from, to); break;
+                case 4: case 5: case 6: events[i] = Event.newPrivateMessage(sequence, from, to); break;
+                default: events[i] = Event.newStatusUpdate(sequence, from);
+            }
+        }
+        return events;
+    }
+
+    private static void logAuditToTemporaryFile() throws IOException {
+        File file = File.createTempFile("audit", ".log");
+        file.deleteOnExit();
+        FileHandler handler = new FileHandler(file.getPath());
+        handler.setFormatter(new SimpleFormatter());
+        auditLogger.setUseParentHandlers(false);
+        auditLogger.addHandler(handler);
+    }
+
+    /**
+     * Logs every event it is sent synchronously, the way routing used to.
+     */
+    private static class SynchronouslyLoggedClient extends Client {
+
+        SynchronouslyLoggedClient(long id) {
+            super(id, new DiscardingSocket());
+        }
+
+        @Override
+        public void write(Event event) throws IOException {
+            auditLogger.info(() -> String.format("Forwarding to client %d event: %s", getId(), event.toPayload()));
+            super.write(event);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.soundcloud.followermaze.TestFixtures.buildEvents;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.fail;
+
+public class BroadcastLogTest {
+
+    private static final int EVENTS_PER_TEST = BroadcastLog.SEGMENT_SIZE * 3 + 7;
+
+    private List<Event> drain(BroadcastLog.Cursor cursor) {
+        List<Event> events = new ArrayList<>();
+        Event e;
+        while ((e = cursor.peek()) != null) {
+            cursor.advance();
+            events.add(e);
+        }
+        return events;
+    }
+
+    private BroadcastLog newUnboundedLog() {
+        return new BroadcastLog(Long.MAX_VALUE, SlowConsumerPolicy.BLOCK);
+    }
+
+    @Test
+    public void cursorsReadEveryEventAppendedAfterTheyWereOpened() throws Exception {
+        BroadcastLog log = newUnboundedLog();
+        List<Event> events = buildEvents(EVENTS_PER_TEST);
+        log.append(events.get(0));
+
+        BroadcastLog.Cursor first = log.newCursor();
+        log.append(events.get(1));
+        BroadcastLog.Cursor second = log.newCursor();
+        for (Event e : events.subList(2, events.size())) {
+            log.append(e);
+        }
+
+        assertThat(drain(first), is(events.subList(1, events.size())));
+        assertThat(drain(second), is(events.subList(2, events.size())));
+        assertThat(first.peek(), is(nullValue()));
+    }
+
+    @Test
+    public void reportsLagInBytes() throws Exception {
+        BroadcastLog log = newUnboundedLog();
+        BroadcastLog.Cursor cursor = log.newCursor();
+        List<Event> events = buildEvents(EVENTS_PER_TEST);
+        long totalBytes = 0;
+        for (Event e : events) {
+            log.append(e);
+            totalBytes += e.getFrameLength();
+        }
+
+        assertThat(cursor.lagBytes(), is(totalBytes));
+        cursor.peek();
+        cursor.advance();
+        assertThat(cursor.lagBytes(), is(totalBytes - events.get(0).getFrameLength()));
+        assertThat(cursor.skipToEnd(), is((long) events.size() - 1));
+        assertThat(cursor.lagBytes(), is(0L));
+    }
+
+    @Test
+    public void releasesSegmentsOnceEveryCursorMovedPastThem() throws Exception {
+        BroadcastLog log = newUnboundedLog();
+        BroadcastLog.Cursor fast = log.newCursor();
+        BroadcastLog.Cursor slow = log.newCursor();
+        for (Event e : buildEvents(EVENTS_PER_TEST)) {
+            log.append(e);
+        }
+
+        drain(fast);
+        long retainedWithSlowCursor = log.retainedBytes();
+        slow.close();
+        log.append(Event.newBroadcast(EVENTS_PER_TEST + 1L));
+
+        assertThat(retainedWithSlowCursor > log.retainedBytes(), is(true));
+    }
+
+    @Test
+    public void notifiesListenersOnlyWhenPublishingNewEvents() throws Exception {
+        BroadcastLog log = newUnboundedLog();
+        AtomicInteger notifications = new AtomicInteger();
+        Runnable listener = notifications::incrementAndGet;
+        log.addListener(listener);
+        log.addListener(listener);
+
+        log.publish();
+        log.append(Event.newBroadcast(1L));
+        log.append(Event.newBroadcast(2L));
+        log.publish();
+        log.publish();
+
+        assertThat(notifications.get(), is(1));
+    }
+
+    @Test
+    public void blocksAppendsUntilSlowestCursorCatchesUpWithBlockPolicy() throws Exception {
+        BroadcastLog log = new BroadcastLog(1024, SlowConsumerPolicy.BLOCK);
+        BroadcastLog.Cursor cursor = log.newCursor();
+        List<Event> events = buildEvents(EVENTS_PER_TEST);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> appender = executor.submit(() -> {
+            for (Event e : events) {
+                log.append(e);
+            }
+            return null;
+        });
+        try {
+            appender.get(100, TimeUnit.MILLISECONDS);
+            fail("appender should have been blocked by the slow cursor");
+        } catch (TimeoutException expected) { }
+
+        List<Event> read = new ArrayList<>();
+        while (read.size() < events.size()) {
+            read.addAll(drain(cursor));
+        }
+        appender.get();
+        executor.shutdown();
+
+        assertThat(read, is(events));
+    }
+
+    @Test
+    public void blocksAppendsAsSoonAsTheSlowestCursorFallsTooFarBehind() throws Exception {
+        BroadcastLog log = new BroadcastLog(1024, SlowConsumerPolicy.BLOCK);
+        BroadcastLog.Cursor cursor = log.newCursor();
+        List<Event> events = buildEvents(BroadcastLog.SEGMENT_SIZE + 2);
+        // The log is only released a segment at a time, so the first one never blocks.
+        for (Event e : events.subList(0, BroadcastLog.SEGMENT_SIZE + 1)) {
+            log.append(e);
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> appender = executor.submit(() -> {
+            log.append(events.get(events.size() - 1));
+            return null;
+        });
+        try {
+            appender.get(100, TimeUnit.MILLISECONDS);
+            fail("appender should have been blocked by the slow cursor");
+        } catch (TimeoutException expected) { }
+
+        List<Event> read = new ArrayList<>();
+        while (read.size() < events.size()) {
+            read.addAll(drain(cursor));
+        }
+        appender.get();
+        executor.shutdown();
+
+        assertThat(read, is(events));
+    }
+
+    @Test
+    public void neverBlocksAppendsWithOtherPolicies() throws Exception {
+        BroadcastLog log = new BroadcastLog(1024, SlowConsumerPolicy.DROP);
+        BroadcastLog.Cursor cursor = log.newCursor();
+        for (Event e : buildEvents(EVENTS_PER_TEST)) {
+            log.append(e);
+        }
+
+        assertThat(cursor.skipToEnd(), is((long) EVENTS_PER_TEST));
+    }
+}
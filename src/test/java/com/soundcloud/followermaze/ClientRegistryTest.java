@@ -0,0 +1,91 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+public class ClientRegistryTest {
+
+    private static Client client(long id) {
+        return new Client(id, new Socket());
+    }
+
+    @Test
+    public void putsGetsAndRemovesClients() {
+        ClientRegistry registry = new ClientRegistry();
+        Client first = client(42L);
+        Client second = client(42L);
+
+        assertThat(registry.put(first), is(nullValue()));
+        assertThat(registry.put(second), sameInstance(first));
+        assertThat(registry.get(42L), sameInstance(second));
+        assertThat(registry.size(), is(1));
+
+        assertThat(registry.remove(42L), sameInstance(second));
+        assertThat(registry.remove(42L), is(nullValue()));
+        assertThat(registry.get(42L), is(nullValue()));
+        assertThat(registry.size(), is(0));
+    }
+
+    @Test
+    public void supportsZeroId() {
+        ClientRegistry registry = new ClientRegistry();
+        Client zero = client(0L);
+        registry.put(zero);
+        registry.put(client(1L));
+
+        assertThat(registry.get(0L), sameInstance(zero));
+        assertThat(registry.remove(0L), sameInstance(zero));
+        assertThat(registry.size(), is(1));
+        assertThat(registry.clientAt(0).getId(), is(1L));
+    }
+
+    @Test
+    public void keepsClientsDenseAsTheyAreRemoved() {
+        ClientRegistry registry = new ClientRegistry();
+        for (long id = 1; id <= 5; id++) {
+            registry.put(client(id));
+        }
+
+        registry.remove(2L);
+
+        List<Long> ids = new ArrayList<>();
+        registry.forEach(i -> ids.add(i.getId()));
+        assertThat(ids.size(), is(4));
+        assertThat(ids.get(1), is(5L));
+        assertThat(registry.get(5L), sameInstance(registry.clientAt(1)));
+    }
+
+    @Test
+    public void behavesLikeHashMapUnderRandomOperations() {
+        Random random = new Random(666);
+        ClientRegistry registry = new ClientRegistry();
+        Map<Long, Client> expected = new HashMap<>();
+
+        for (int i = 0; i < 200000; i++) {
+            long id = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) > 0) {
+                Client client = client(id);
+                assertThat(registry.put(client), is(expected.put(id, client)));
+            } else {
+                assertThat(registry.remove(id), is(expected.remove(id)));
+            }
+            assertThat(registry.size(), is(expected.size()));
+        }
+
+        Map<Long, Client> actual = new HashMap<>();
+        registry.forEach(i -> actual.put(i.getId(), i));
+        assertThat(actual, is(expected));
+        expected.forEach((id, client) -> assertThat(registry.get(id), sameInstance(client)));
+    }
+}
@@ -4,15 +4,45 @@ import org.junit.Test;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.soundcloud.followermaze.SocketUtils.bufferedReaderFrom;
 import static com.soundcloud.followermaze.TestFixtures.buildEvents;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class ClientTest extends AbstractSocketServerTest {
 
+    //
+    // Counts the writes that reach the socket, each of which would be a write system call.
+    //
+
+    private static class CountingOutputStream extends OutputStream {
+        int writes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+        }
+    }
+
+    private static Client clientWritingTo(OutputStream out) throws IOException {
+        Socket socket = mock(Socket.class);
+        when(socket.getOutputStream()).thenReturn(out);
+        return new Client(666L, socket);
+    }
+
     @Test
     public void sendsOneEvent() throws IOException {
         final String payload = "666|F|60|50";
@@ -23,6 +53,16 @@ public class ClientTest extends AbstractSocketServerTest {
         assertThat(in.readLine(), equalTo(payload));
     }
 
+    @Test
+    public void sendsEventExactlyAsItWasRead() throws IOException {
+        final String payload = "00666|F|060|50";
+        Client client = new Client(666L, clientConnection);
+        client.send(Event.fromPayload(payload));
+
+        BufferedReader in = bufferedReaderFrom(serverConnection);
+        assertThat(in.readLine(), equalTo(payload));
+    }
+
     @Test
     public void sendsSeveralEvents() throws IOException {
         final int numberOfEvents = 10000;
@@ -39,4 +79,76 @@ public class ClientTest extends AbstractSocketServerTest {
             assertThat(in.readLine(), equalTo(e.toPayload()));
         }
     }
+
+    @Test
+    public void sendsSeveralEventsWrittenBeforeFlush() throws IOException {
+        final int numberOfEvents = 10000;
+        final List<Event> events = buildEvents(numberOfEvents);
+
+        Client client = new Client(666L, clientConnection);
+
+        for (Event e : events) {
+            client.write(e);
+        }
+        client.flush();
+
+        BufferedReader in = bufferedReaderFrom(serverConnection);
+        for (Event e : events) {
+            assertThat(in.readLine(), equalTo(e.toPayload()));
+        }
+    }
+
+    @Test
+    public void coalescesWritesUntilFlush() throws IOException {
+        final int numberOfEvents = 500;
+        final List<Event> events = buildEvents(numberOfEvents);
+
+        CountingOutputStream perEventFlush = new CountingOutputStream();
+        Client client = clientWritingTo(perEventFlush);
+        for (Event e : events) {
+            client.send(e);
+        }
+
+        CountingOutputStream perBatchFlush = new CountingOutputStream();
+        client = clientWritingTo(perBatchFlush);
+        for (Event e : events) {
+            client.write(e);
+        }
+        client.flush();
+
+        assertThat(perEventFlush.writes, is(numberOfEvents));
+        assertThat(perBatchFlush.writes, is(1));
+    }
+
+    @Test
+    public void letsListenerKnowOnceWhenClosed() {
+        AtomicInteger disconnects = new AtomicInteger();
+        Client client = new Client(666L, clientConnection);
+        client.onDisconnect(disconnects::incrementAndGet);
+
+        client.close();
+        client.close();
+
+        assertThat(client.isClosed(), is(true));
+        assertThat(clientConnection.isClosed(), is(true));
+        assertThat(disconnects.get(), is(1));
+    }
+
+    @Test
+    public void letsListenerKnowRightAwayWhenAlreadyClosed() {
+        AtomicInteger disconnects = new AtomicInteger();
+        Client client = new Client(666L, clientConnection);
+        client.close();
+
+        client.onDisconnect(disconnects::incrementAndGet);
+
+        assertThat(disconnects.get(), is(1));
+    }
+
+    @Test
+    public void exposesSameIdBoxedAndUnboxed() {
+        Client client = new Client(Long.MAX_VALUE, mock(Socket.class));
+        assertThat(client.id(), is(Long.MAX_VALUE));
+        assertThat(client.getId(), equalTo(Long.MAX_VALUE));
+    }
 }
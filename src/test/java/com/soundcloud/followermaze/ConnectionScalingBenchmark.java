@@ -0,0 +1,142 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connects a large number of user clients to a server over loopback, and
+ * measures how long it takes to register them all, how many platform
+ * threads and how much heap the server takes to hold them, and how long a
+ * few broadcasts take to reach every one of them.
+ *
+ * The server runs in the same JVM, configured through the usual
+ * {@code followermaze.} system properties, so that the thread mode and the
+ * client transport can be compared, eg: {@code -Dfollowermaze.threadMode=virtual}.
+ * Clients connect to several loopback addresses, so that they do not run
+ * out of ephemeral ports. Every connection takes two file
+ * descriptors of this process, one for each end.
+ *
+ * Usage: {@code ./gradlew connectionScalingBenchmark}, or run with the
+ * number of connections and of broadcasts as arguments.
+ */
+public class ConnectionScalingBenchmark {
+
+    private static final int CLIENTS_PER_ADDRESS = 25_000;
+    private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0].replace("_", "")) : 100_000;
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        ServerSettings settings = ServerSettings.fromSystemProperties();
+        Server server = new Server(settings);
+        startEmbeddedServer(server);
+
+        LongAdder registered = Metrics.counter("clients.connected");
+        long start = System.nanoTime();
+        List<SocketChannel> clients = new ArrayList<>(connections);
+        for (int id = 1; id <= connections; id++) {
+            clients.add(connect(settings.getClientPort(), id));
+        }
+        long connected = System.nanoTime();
+        while (registered.sum() < connections) {
+            checkTimeout(start);
+            Thread.sleep(10);
+        }
+        long allRegistered = System.nanoTime();
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        long delivered = sendBroadcasts(settings.getEventSourcePort(), clients, broadcasts);
+
+        System.out.printf("%s threads, %s transport: %,d clients connected in %,d ms, registered in %,d ms, "
+                        + "%,d platform threads, %,d MiB heap, %d broadcasts delivered in %,d ms%n",
+                settings.getThreadMode(), server.getClientTransport(), connections,
+                millis(start, connected), millis(start, allRegistered), threads, heap >> 20,
+                broadcasts, millis(allRegistered, delivered));
+        System.exit(0);
+    }
+
+    private static void startEmbeddedServer(Server server) throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                System.err.println("Embedded server failed: " + e.getMessage());
+            }
+        }, "embedded-server");
+        thread.setDaemon(true);
+        thread.start();
+        Thread.sleep(1000);
+    }
+
+    private static SocketChannel connect(int port, int id) throws IOException {
+        SocketChannel channel = SocketChannel.open(
+                new InetSocketAddress("127.0.0." + (1 + id / CLIENTS_PER_ADDRESS), port));
+        channel.write(ByteBuffer.wrap((id + "\r\n").getBytes(StandardCharsets.US_ASCII)));
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    /**
+     * @return when every client received every broadcast.
+     */
+    private static long sendBroadcasts(int eventSourcePort, List<SocketChannel> clients, int broadcasts)
+            throws IOException {
+        Selector selector = Selector.open();
+        for (SocketChannel client : clients) {
+            client.register(selector, SelectionKey.OP_READ);
+        }
+        long expected = (long) clients.size() * broadcasts;
+        long received = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        long start = System.nanoTime();
+        try (Socket eventSource = new Socket("localhost", eventSourcePort)) {
+            OutputStream out = eventSource.getOutputStream();
+            for (long sequence = 1; sequence <= broadcasts; sequence++) {
+                Event.newBroadcast(sequence).writeFrameTo(out);
+            }
+            out.flush();
+            while (received < expected) {
+                checkTimeout(start);
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    buffer.clear();
+                    ((SocketChannel) key.channel()).read(buffer);
+                    for (int i = 0; i < buffer.position(); i++) {
+                        if (buffer.get(i) == '\n') {
+                            received++;
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+        return System.nanoTime();
+    }
+
+    private static void checkTimeout(long start) {
+        if (System.nanoTime() - start > TIMEOUT_NANOS) {
+            throw new IllegalStateException("Timed out");
+        }
+    }
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1_000_000;
+    }
+}
@@ -0,0 +1,24 @@
+package com.soundcloud.followermaze;
+
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * An unconnected socket that discards everything written to it, for
+ * measuring clients without the cost of actual I/O.
+ */
+class DiscardingSocket extends Socket {
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) { }
+
+        @Override
+        public void write(byte[] b, int off, int len) { }
+    };
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+}
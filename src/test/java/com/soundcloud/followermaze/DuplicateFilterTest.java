@@ -0,0 +1,76 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class DuplicateFilterTest {
+
+    @Test
+    public void rejectsSequencesAlreadyAdded() {
+        DuplicateFilter filter = new DuplicateFilter(1024);
+
+        assertThat(filter.add(0), is(true));
+        assertThat(filter.add(1), is(true));
+        assertThat(filter.add(666), is(true));
+        assertThat(filter.add(1), is(false));
+        assertThat(filter.add(666), is(false));
+        assertThat(filter.add(0), is(false));
+    }
+
+    @Test
+    public void tracksTheMostRecentSequencesAsTheWindowSlides() {
+        DuplicateFilter filter = new DuplicateFilter(1024);
+
+        for (long sequence = 1; sequence <= 100_000; sequence++) {
+            assertThat(filter.add(sequence), is(true));
+            assertThat(filter.add(sequence), is(false));
+            if (sequence > 512) {
+                assertThat(filter.add(sequence - 512), is(false));
+            }
+        }
+    }
+
+    @Test
+    public void letsThroughSequencesOlderThanTheWindow() {
+        DuplicateFilter filter = new DuplicateFilter(1024);
+        filter.add(1);
+        filter.add(1 + 1024 * 1000);
+
+        assertThat(filter.add(1), is(true));
+    }
+
+    @Test
+    public void acceptsEachSequenceOnceAcrossConcurrentReceivers() throws Exception {
+        final int receivers = 4;
+        final long sequences = 200_000;
+        DuplicateFilter filter = new DuplicateFilter(1 << 20);
+        AtomicLong accepted = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(receivers);
+        List<Future<?>> promises = new ArrayList<>();
+        for (int i = 0; i < receivers; i++) {
+            promises.add(executor.submit(() -> {
+                for (long sequence = 1; sequence <= sequences; sequence++) {
+                    if (filter.add(sequence)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> promise : promises) {
+            promise.get();
+        }
+        executor.shutdown();
+
+        assertThat(accepted.get(), is(sequences));
+    }
+}
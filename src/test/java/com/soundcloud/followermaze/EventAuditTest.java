@@ -0,0 +1,98 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.soundcloud.followermaze.TestFixtures.buildEvents;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertTrue;
+
+public class EventAuditTest {
+
+    private long countSampled(EventAudit audit, long numberOfEvents) {
+        long sampled = 0;
+        for (long sequence = 1; sequence <= numberOfEvents; sequence++) {
+            if (audit.isSampled(sequence)) {
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+
+    private File newAuditFile() throws IOException {
+        File file = File.createTempFile("audit", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void samplesEventsAccordingToRate() {
+        final long numberOfEvents = 100000;
+        assertThat(countSampled(new EventAudit(0, 16, null), numberOfEvents), is(0L));
+        assertThat(countSampled(new EventAudit(1, 16, null), numberOfEvents), is(numberOfEvents));
+
+        long sampled = countSampled(new EventAudit(0.01, 16, null), numberOfEvents);
+        assertTrue("sampled " + sampled + " events", sampled > numberOfEvents / 200 && sampled < numberOfEvents * 3 / 200);
+    }
+
+    @Test
+    public void writesEveryRecordToAuditFileInOrder() throws Exception {
+        File file = newAuditFile();
+        List<Event> events = buildEvents(10000);
+        EventAudit audit = EventAudit.open(1, events.size(), file.getPath());
+        for (Event e : events) {
+            audit.record(EventAudit.FORWARDED, e, 666L);
+        }
+        audit.close();
+
+        assertThat(file.length(), is((long) events.size() * EventAudit.RECORD_BYTES));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (Event e : events) {
+                assertThat(in.readByte(), is(EventAudit.FORWARDED));
+                assertThat(EventType.fromCode(in.readByte()), is(e.getType()));
+                assertThat(in.readLong(), is(e.getSequence()));
+                assertThat(in.readLong(), is(e.fromId()));
+                assertThat(in.readLong(), is(e.toId()));
+                assertThat(in.readLong(), is(666L));
+                assertTrue(in.readLong() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void dropsRecordsWhenRingIsFull() throws IOException {
+        LongAdder dropped = Metrics.counter("audit.droppedRecords");
+        long droppedBefore = dropped.sum();
+        File file = newAuditFile();
+
+        // The writer thread is never started, so nothing is drained.
+        EventAudit audit = new EventAudit(1, 4, new DataOutputStream(new FileOutputStream(file)));
+        for (Event e : buildEvents(10)) {
+            audit.record(EventAudit.RECEIVED, e, 0);
+        }
+
+        assertThat(dropped.sum() - droppedBefore, is(6L));
+    }
+
+    @Test
+    public void recordsNothingWhenNoEventIsSampled() throws Exception {
+        File file = newAuditFile();
+        EventAudit audit = EventAudit.open(0, 16, file.getPath());
+        for (Event e : buildEvents(100)) {
+            audit.record(EventAudit.RECEIVED, e, 0);
+        }
+        audit.close();
+
+        assertThat(file.length(), is(0L));
+    }
+}
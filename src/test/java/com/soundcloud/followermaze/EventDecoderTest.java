@@ -0,0 +1,97 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class EventDecoderTest {
+
+    private EventDecoder decoder;
+
+    @Before
+    public void setup() {
+        decoder = new EventDecoder();
+    }
+
+    private static ByteBuffer bufferOf(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void decodesEveryEventType() {
+        ByteBuffer in = bufferOf("666|F|60|50\r\n1|U|12|9\r\n542532|B\r\n43|P|32|56\r\n634|S|32\r\n");
+
+        assertThat(decoder.decode(in).toPayload(), is("666|F|60|50"));
+        assertThat(decoder.decode(in).toPayload(), is("1|U|12|9"));
+        assertThat(decoder.decode(in).toPayload(), is("542532|B"));
+        assertThat(decoder.decode(in).toPayload(), is("43|P|32|56"));
+        assertThat(decoder.decode(in).toPayload(), is("634|S|32"));
+        assertThat(decoder.decode(in), is(nullValue()));
+        assertThat(in.hasRemaining(), is(false));
+    }
+
+    @Test
+    public void acceptsBareLineFeedAsTerminator() {
+        Event event = decoder.decode(bufferOf("634|S|32\n"));
+        assertThat(event.getSequence(), is(634L));
+        assertThat(event.getFromId(), is(32L));
+    }
+
+    @Test
+    public void leavesIncompleteFrameInBuffer() {
+        ByteBuffer in = bufferOf("1|B\r\n2|P|3");
+
+        assertThat(decoder.decode(in).getSequence(), is(1L));
+        assertThat(decoder.decode(in), is(nullValue()));
+        assertThat(in.position(), is(5));
+    }
+
+    @Test
+    public void decodesFrameSplitAcrossReads() {
+        ByteBuffer in = ByteBuffer.allocate(64);
+        in.put("43|P|3".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertThat(decoder.decode(in), is(nullValue()));
+
+        in.compact().put("2|56\r\n".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertThat(decoder.decode(in).toPayload(), is("43|P|32|56"));
+    }
+
+    @Test
+    public void skipsMalformedFramesWithoutThrowing() {
+        ByteBuffer in = bufferOf(
+                "\r\n" +
+                "abc\r\n" +
+                "1|X|2|3\r\n" +
+                "2|F|3\r\n" +
+                "3|B|4\r\n" +
+                "4|S|\r\n" +
+                "5|P|1|2|3\r\n" +
+                "12345678901234567890|B\r\n" +
+                "6|F|-1|2\r\n" +
+                "7|B\r\n");
+
+        assertThat(decoder.decode(in).getSequence(), is(7L));
+        assertThat(decoder.getMalformedFrames(), is(9L));
+    }
+
+    @Test
+    public void discardsFrameLargerThanBuffer() {
+        ByteBuffer in = ByteBuffer.allocate(8);
+        in.put("12345678".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertThat(decoder.decode(in), is(nullValue()));
+        assertThat(decoder.getMalformedFrames(), is(1L));
+
+        in.compact().put("9|B\r\n1|B".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertThat(decoder.decode(in), is(nullValue()));
+
+        in.compact().put("\r\n".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertThat(decoder.decode(in).getSequence(), is(1L));
+        assertThat(decoder.getMalformedFrames(), is(1L));
+    }
+}
@@ -1,9 +1,14 @@
 package com.soundcloud.followermaze;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
@@ -12,132 +17,376 @@ import java.util.stream.IntStream;
 import static com.soundcloud.followermaze.TestFixtures.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
-import static org.mockito.Mockito.*;
-
-
-//
-// I know inserting timeouts in tests is not a good idea, as
-// it makes tests slow and flaky under certain conditions. However,
-// I couldn't find any simple way to synchronize producer/consumer threads
-// during tests without significantly changing the design of the code
-// being tested. This should be improved if it becomes an issue.
-//
+import static org.junit.Assert.assertTrue;
 
 public class EventDispatcherTest {
 
-    private static final int BATCH_SIZE = 1024;
+    private static final int REORDER_WINDOW = 1024;
+    private static final int MAX_REORDER_WINDOW = EventDispatcher.DEFAULT_MAX_REORDER_WINDOW;
+    private static final int RING_CAPACITY = 64;
 
-    private EventRouter router;
+    private RecordingRouter router;
     private ExecutorService dispatcherExecutor;
 
+    //
+    // A hand-written router stub is used instead of a Mockito mock, since
+    // some of these tests measure latencies in the order of microseconds.
+    //
+
+    private static class RecordingRouter extends EventRouter {
+
+        private final List<Event> routed = Collections.synchronizedList(new ArrayList<>());
+        private final List<Long> routedAt = Collections.synchronizedList(new ArrayList<>());
+        private volatile CountDownLatch latch = new CountDownLatch(0);
+        private volatile int flushes;
+        private volatile int routedBeforeLastFlush;
+
+        void expect(int numberOfEvents) {
+            latch = new CountDownLatch(numberOfEvents);
+        }
+
+        void await() throws InterruptedException {
+            assertThat("timed out waiting for events", latch.await(30, TimeUnit.SECONDS), is(true));
+        }
+
+        @Override
+        public void route(Event event) {
+            routedAt.add(System.nanoTime());
+            routed.add(event);
+            latch.countDown();
+        }
+
+        @Override
+        public void flush() {
+            routedBeforeLastFlush = routed.size();
+            flushes++;
+        }
+    }
+
     @Before
     public void setup() {
-        router = mock(EventRouter.class);
+        router = new RecordingRouter();
         dispatcherExecutor = Executors.newSingleThreadExecutor();
     }
 
+    @After
+    public void teardown() {
+        dispatcherExecutor.shutdownNow();
+    }
+
+    private EventDispatcher startDispatcher() {
+        return startDispatcher(WaitStrategy.PARK);
+    }
+
+    private EventDispatcher startDispatcher(WaitStrategy waitStrategy) {
+        return startDispatcher(waitStrategy, null);
+    }
+
+    private EventDispatcher startDispatcher(WaitStrategy waitStrategy, GapWatchdog gapWatchdog) {
+        return startDispatcher(waitStrategy, gapWatchdog, 0);
+    }
+
+    private EventDispatcher startDispatcher(WaitStrategy waitStrategy, GapWatchdog gapWatchdog, int eventPoolSize) {
+        EventDispatcher dispatcher = new EventDispatcher(router, new ReorderBuffer(REORDER_WINDOW, MAX_REORDER_WINDOW, 1),
+                waitStrategy, RING_CAPACITY, gapWatchdog, eventPoolSize);
+        dispatcherExecutor.submit(dispatcher);
+        return dispatcher;
+    }
+
     private void assertEventsOrderedSequentially(List<Event> events) {
         IntStream.range(0, events.size()).forEach(
                 i -> assertThat(events.get(i).getSequence(), is(i + 1L))
         );
     }
 
-    private List<Event> assertEventsDispatched(int expectedNumberOfDispatchedEvents) {
-        ArgumentCaptor<Event> captor = ArgumentCaptor.forClass(Event.class);
-        verify(router, times(expectedNumberOfDispatchedEvents)).route(captor.capture());
-        return captor.getAllValues();
+    @Test
+    public void dispatchesEventsAsSoonAsTheyAreInOrder() throws Exception {
+        final EventDispatcher dispatcher = startDispatcher();
+
+        router.expect(REORDER_WINDOW - 1);
+        buildEvents(REORDER_WINDOW - 1).forEach(dispatcher::submit);
+        router.await();
+
+        assertEventsOrderedSequentially(router.routed);
     }
 
     @Test
-    public void doesNotDispatchEventsIfBatchIsNotFilledAndTimeoutIsNotExpired() throws Exception {
-        final EventDispatcher dispatcher = new EventDispatcher(router, BATCH_SIZE, Long.MAX_VALUE);
+    public void holdsEventsBackUntilGapIsClosed() throws Exception {
+        final EventDispatcher dispatcher = startDispatcher();
+        final List<Event> events = buildEvents(100);
 
-        dispatcherExecutor.submit(dispatcher);
-        buildEvents(BATCH_SIZE - 1).forEach(dispatcher::submit);
-        dispatcherExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        events.subList(1, events.size()).forEach(dispatcher::submit);
+        Thread.sleep(100);
+        assertThat(router.routed.size(), is(0));
 
-        verify(router, never()).route(any(Event.class));
+        router.expect(events.size());
+        dispatcher.submit(events.get(0));
+        router.await();
+
+        assertEventsOrderedSequentially(router.routed);
     }
 
     @Test
-    public void dispatchesEventsInOrderIfBatchIsFilled() throws Exception {
-        final EventDispatcher dispatcher = new EventDispatcher(router, BATCH_SIZE, Long.MAX_VALUE);
+    public void dispatchesEventsInStrictOrderUnderHeavyDisorder() throws Exception {
+        final int numberOfEvents = REORDER_WINDOW * 100;
+        final EventDispatcher dispatcher = startDispatcher();
 
-        dispatcherExecutor.submit(dispatcher);
-        buildShuffledEvents(BATCH_SIZE).forEach(dispatcher::submit);
-        dispatcherExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        router.expect(numberOfEvents);
+        buildShuffledEvents(numberOfEvents).forEach(dispatcher::submit);
+        router.await();
 
-        List<Event> dispatchedEvents = assertEventsDispatched(BATCH_SIZE);
-        assertEventsOrderedSequentially(dispatchedEvents);
+        assertThat(router.routed.size(), is(numberOfEvents));
+        assertEventsOrderedSequentially(router.routed);
     }
 
     @Test
-    public void dispatchesEventsInOrderIfBatchIsExceededAndKeepRemainingEventsInQueue() throws Exception {
-        final EventDispatcher dispatcher = new EventDispatcher(router, BATCH_SIZE, Long.MAX_VALUE);
+    public void dispatchesEventsInStrictOrderWhenGapIsWiderThanReorderWindow() throws Exception {
+        final int numberOfEvents = REORDER_WINDOW * 10;
+        final EventDispatcher dispatcher = startDispatcher();
+        final List<Event> events = buildEvents(numberOfEvents);
+        Collections.reverse(events);
 
-        dispatcherExecutor.submit(dispatcher);
-        buildShuffledEvents(BATCH_SIZE + 1).forEach(dispatcher::submit);
-        dispatcherExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        router.expect(numberOfEvents);
+        events.forEach(dispatcher::submit);
+        router.await();
 
-        List<Event> dispatchedEvents = assertEventsDispatched(BATCH_SIZE);
-        assertThat(dispatchedEvents.size(), is(BATCH_SIZE));
-        assertEventsOrderedSequentially(dispatchedEvents);
+        assertEventsOrderedSequentially(router.routed);
     }
 
     @Test
-    public void dispatchesEventsInOrderIfTimeoutExpiredAndBatchIsNotFilled() throws Exception {
-        final long batchTimeout = 5000;
-        final int numberOfEvents = BATCH_SIZE - 1;
-        final EventDispatcher dispatcher = new EventDispatcher(router, BATCH_SIZE, batchTimeout);
+    public void releasesContiguousRunInLessThanOneMillisecond() throws Exception {
+        final int numberOfRuns = 1000;
+        final int runLength = 64;
+        final EventDispatcher dispatcher = startDispatcher();
+        final List<Event> events = buildEvents(numberOfRuns * runLength);
+        final long[] latencies = new long[numberOfRuns];
+
+        for (int run = 0; run < numberOfRuns; run++) {
+            List<Event> batch = events.subList(run * runLength, (run + 1) * runLength);
+            batch.subList(1, runLength).forEach(dispatcher::submit);
+
+            router.expect(runLength);
+            long gapClosedAt = System.nanoTime();
+            dispatcher.submit(batch.get(0));
+            router.await();
+
+            latencies[run] = router.routedAt.get(router.routedAt.size() - 1) - gapClosedAt;
+        }
 
-        dispatcherExecutor.submit(dispatcher);
-        buildShuffledEvents(numberOfEvents).forEach(dispatcher::submit);
-        dispatcherExecutor.awaitTermination(batchTimeout * 2, TimeUnit.MILLISECONDS);
+        Arrays.sort(latencies);
+        long medianLatency = latencies[numberOfRuns / 2];
+        assertTrue("median release latency was " + medianLatency + "ns",
+                medianLatency < TimeUnit.MILLISECONDS.toNanos(1));
+        assertEventsOrderedSequentially(router.routed);
+    }
+
+    @Test
+    public void flushesRouterOnceForEventsDispatchedTogether() throws Exception {
+        final EventDispatcher dispatcher = startDispatcher();
+        final List<Event> events = buildEvents(100);
+
+        events.subList(1, events.size()).forEach(dispatcher::submit);
+        Thread.sleep(100);
+        int flushesBeforeGapClosed = router.flushes;
+
+        router.expect(events.size());
+        dispatcher.submit(events.get(0));
+        router.await();
+        Thread.sleep(100);
 
-        List<Event> dispatchedEvents = assertEventsDispatched(numberOfEvents);
-        assertEventsOrderedSequentially(dispatchedEvents);
+        assertThat(router.flushes, is(flushesBeforeGapClosed + 1));
+        assertThat(router.routedBeforeLastFlush, is(events.size()));
     }
 
     @Test
-    public void dispatchesAllEventsEventuallyWithEventsGeneratedBySingleProducer() throws Exception {
-        final int excessSize = 100;
-        final int numberOfBatches = 10;
-        final int numberOfEvents = BATCH_SIZE * numberOfBatches + excessSize;
-        final long batchTimeout = 1000;
-        final long dispatcherTimeout = batchTimeout * (numberOfBatches + 1);
+    public void dispatchesEventsSubmittedInBatches() throws Exception {
+        final int numberOfEvents = REORDER_WINDOW * 10;
+        final int batchSize = 100;
+        final EventDispatcher dispatcher = startDispatcher();
+        final List<Event> events = buildShuffledEvents(numberOfEvents);
+
+        router.expect(numberOfEvents);
+        for (int i = 0; i < numberOfEvents; i += batchSize) {
+            dispatcher.submitAll(new ArrayList<>(events.subList(i, Math.min(numberOfEvents, i + batchSize))));
+        }
+        router.await();
 
-        final EventDispatcher dispatcher = new EventDispatcher(router, BATCH_SIZE, batchTimeout);
-        dispatcherExecutor.submit(dispatcher);
-        buildShuffledEventBatches(BATCH_SIZE, numberOfBatches, excessSize).forEach(dispatcher::submit);
-        dispatcherExecutor.awaitTermination(dispatcherTimeout, TimeUnit.MILLISECONDS);
+        assertEventsOrderedSequentially(router.routed);
+    }
+
+    @Test
+    public void keepsTakingFromEveryProducerAfterVisitingRingsBillionsOfTimes() throws Exception {
+        final EventDispatcher dispatcher = new EventDispatcher(router, new ReorderBuffer(REORDER_WINDOW, 1),
+                WaitStrategy.SPIN, RING_CAPACITY, null, 0);
+        List<EventDispatcher.Producer> producers = Arrays.asList(
+                dispatcher.newProducer(), dispatcher.newProducer(), dispatcher.newProducer());
+        dispatcher.nextRing = Integer.MAX_VALUE - 1;
+
+        List<Event> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            producers.get(i % producers.size()).submitAll(Collections.singletonList(Event.newBroadcast(i + 1)));
+            dispatcher.take(batch);
+        }
 
-        List<Event> dispatchedEvents = assertEventsDispatched(numberOfEvents);
-        assertEventsOrderedSequentially(dispatchedEvents);
+        assertThat(batch.size(), is(10));
     }
 
+    @Test
+    public void recyclesRoutedEventsToTheirProducersPool() throws Exception {
+        final int numberOfEvents = 10;
+        final EventDispatcher dispatcher = startDispatcher(WaitStrategy.PARK, null, 16);
+        EventDispatcher.Producer producer = dispatcher.newProducer();
+        EventPool pool = producer.getEventPool();
+        EventDecoder decoder = new EventDecoder(pool);
+        StringBuilder frames = new StringBuilder();
+        buildEvents(numberOfEvents).forEach(i -> frames.append(i.toPayload()).append("\r\n"));
+        ByteBuffer buffer = ByteBuffer.wrap(frames.toString().getBytes(StandardCharsets.US_ASCII));
+        List<Event> decoded = new ArrayList<>();
+        Event event;
+        while ((event = decoder.decode(buffer)) != null) {
+            decoded.add(event);
+        }
 
-    //
-    // The ability for multiple concurrent threads to submit events is not needed, since we only
-    // have one event receiver thread to serve a single event source TCP connection. However, if we
-    // ever need to serve multiple event sources and serializing all their events in one queue, this
-    // implementation already supports it. I'm not a fan of over-engineering, but I just thought it
-    // would be fun to test this scenario :D
-    //
+        router.expect(numberOfEvents);
+        producer.submitAll(decoded);
+        router.await();
+        assertEventsOrderedSequentially(router.routed);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (router.flushes == 0 && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        Event recycled = pool.acquire();
+        assertTrue(decoded.stream().anyMatch(i -> i == recycled));
+    }
+
+    private void dispatchesEventsFromSeveralProducers(WaitStrategy waitStrategy) throws Exception {
+        final int numberOfProducers = 4;
+        final int numberOfEvents = REORDER_WINDOW * 10;
+        final EventDispatcher dispatcher = startDispatcher(waitStrategy);
+        final List<Event> events = buildShuffledEvents(numberOfEvents);
+
+        router.expect(numberOfEvents);
+        ExecutorService producerExecutor = Executors.newFixedThreadPool(numberOfProducers);
+        List<Future> producerPromises = new ArrayList<>();
+        for (int p = 0; p < numberOfProducers; p++) {
+            final List<Event> share = events.subList(p * numberOfEvents / numberOfProducers,
+                    (p + 1) * numberOfEvents / numberOfProducers);
+            producerPromises.add(producerExecutor.submit(() -> {
+                // Batches are larger than the ring, so producers also wait for room.
+                try (EventDispatcher.Producer producer = dispatcher.newProducer()) {
+                    for (int i = 0; i < share.size(); i += RING_CAPACITY * 2) {
+                        producer.submitAll(share.subList(i, Math.min(share.size(), i + RING_CAPACITY * 2)));
+                    }
+                }
+                return null;
+            }));
+        }
+
+        for (Future promise : producerPromises) {
+            promise.get();
+        }
+        router.await();
+        producerExecutor.shutdown();
+
+        assertEventsOrderedSequentially(router.routed);
+    }
 
     @Test
-    public void dispatchesAllEventsEventuallyWithEventsGeneratedByMultipleConcurrentProducers() throws Exception {
+    public void dispatchesEventsFromSeveralProducersWhenParking() throws Exception {
+        dispatchesEventsFromSeveralProducers(WaitStrategy.PARK);
+    }
+
+    @Test
+    public void dispatchesEventsFromSeveralProducersWhenYielding() throws Exception {
+        dispatchesEventsFromSeveralProducers(WaitStrategy.YIELD);
+    }
+
+    @Test
+    public void dispatchesEventsFromSeveralProducersWhenSpinning() throws Exception {
+        dispatchesEventsFromSeveralProducers(WaitStrategy.SPIN);
+    }
+
+    @Test
+    public void wakesParkedDispatcherUpAsSoonAsEventsArePublished() throws Exception {
+        final EventDispatcher dispatcher = startDispatcher(WaitStrategy.PARK);
+        final EventDispatcher.Producer producer = dispatcher.newProducer();
+        final List<Event> events = buildEvents(100);
+        final long[] latencies = new long[events.size()];
+
+        for (int i = 0; i < events.size(); i++) {
+            // Leaves the dispatcher enough time to park.
+            Thread.sleep(2);
+            router.expect(1);
+            long publishedAt = System.nanoTime();
+            producer.submitAll(events.subList(i, i + 1));
+            router.await();
+            latencies[i] = router.routedAt.get(i) - publishedAt;
+        }
+
+        Arrays.sort(latencies);
+        long medianLatency = latencies[latencies.length / 2];
+        assertTrue("median wake-up latency was " + medianLatency + "ns",
+                medianLatency < TimeUnit.MILLISECONDS.toNanos(1));
+        assertEventsOrderedSequentially(router.routed);
+    }
+
+    @Test
+    public void skipsMissingEventsOnceTheirGapHasBeenOpenForTooLong() throws Exception {
+        final GapWatchdog gapWatchdog = new GapWatchdog(200, 0);
+        final EventDispatcher dispatcher = startDispatcher(WaitStrategy.PARK, gapWatchdog);
+        final List<Event> events = buildEvents(100);
+
+        router.expect(95);
+        long submittedAt = System.nanoTime();
+        events.subList(0, 10).forEach(dispatcher::submit);
+        events.subList(15, 100).forEach(dispatcher::submit);
+        router.await();
+        long skippedAfter = System.nanoTime() - submittedAt;
+
+        assertTrue("skipped after " + skippedAfter + "ns", skippedAfter >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(router.routed.get(10).getSequence(), is(16L));
+        assertThat(gapWatchdog.getLastSkippedFrom(), is(11L));
+        assertThat(gapWatchdog.getLastSkippedTo(), is(15L));
+
+        // The skipped events are discarded if they show up after all.
+        router.expect(1);
+        events.subList(10, 15).forEach(dispatcher::submit);
+        dispatcher.submit(Event.newBroadcast(101L));
+        router.await();
+        assertThat(router.routed.size(), is(96));
+        assertThat(router.routed.get(95).getSequence(), is(101L));
+    }
+
+    @Test
+    public void skipsMissingEventsOnceTheyHoldBackTooManyBytes() throws Exception {
+        final List<Event> events = buildEvents(1000);
+        final long maxBufferedBytes = events.subList(1, 500).stream().mapToLong(Event::getFrameLength).sum();
+        final GapWatchdog gapWatchdog = new GapWatchdog(0, maxBufferedBytes);
+        final EventDispatcher dispatcher = startDispatcher(WaitStrategy.PARK, gapWatchdog);
+
+        events.subList(1, 500).forEach(dispatcher::submit);
+        Thread.sleep(100);
+        assertThat(router.routed.size(), is(0));
+
+        router.expect(events.size() - 1);
+        events.subList(500, events.size()).forEach(dispatcher::submit);
+        router.await();
+
+        assertThat(router.routed.get(0).getSequence(), is(2L));
+        assertThat(gapWatchdog.getLastSkippedFrom(), is(1L));
+        assertThat(gapWatchdog.getLastSkippedTo(), is(1L));
+    }
+
+    @Test
+    public void dispatchesAllEventsWithEventsGeneratedByMultipleConcurrentProducers() throws Exception {
         final int numberOfProducerThreads = 100;
-        final int excessSize = 100;
-        final int numberOfBatches = 10;
-        final int numberOfEvents = BATCH_SIZE * numberOfBatches + excessSize;
-        final long batchTimeout = 1000;
-        final long dispatcherTimeout = batchTimeout * (numberOfBatches + 1);
+        final int numberOfEvents = REORDER_WINDOW * 10;
 
-        final EventDispatcher dispatcher = new EventDispatcher(router, BATCH_SIZE, batchTimeout);
-        dispatcherExecutor.submit(dispatcher);
+        final EventDispatcher dispatcher = startDispatcher();
 
         BlockingQueue<Event> queue = new ArrayBlockingQueue<>(numberOfEvents);
-        queue.addAll(buildShuffledEventBatches(BATCH_SIZE, numberOfBatches, excessSize));
+        queue.addAll(buildShuffledEvents(numberOfEvents));
 
         Runnable producerTask = () -> {
             while (true) {
@@ -147,6 +396,7 @@ public class EventDispatcherTest {
             }
         };
 
+        router.expect(numberOfEvents);
         ExecutorService producerExecutor = Executors.newFixedThreadPool(numberOfProducerThreads);
         List<Future> producerPromises = IntStream.range(0, numberOfProducerThreads)
                 .mapToObj(i -> producerExecutor.submit(producerTask))
@@ -155,10 +405,8 @@ public class EventDispatcherTest {
         for (Future promise : producerPromises) {
             promise.get();
         }
+        router.await();
 
-        dispatcherExecutor.awaitTermination(dispatcherTimeout, TimeUnit.MILLISECONDS);
-
-        List<Event> dispatchedEvents = assertEventsDispatched(numberOfEvents);
-        assertEventsOrderedSequentially(dispatchedEvents);
+        assertEventsOrderedSequentially(router.routed);
     }
 }
@@ -0,0 +1,79 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+public class EventPoolTest {
+
+    @Test
+    public void allocatesEventsWhileEmpty() {
+        EventPool pool = new EventPool(4);
+        assertThat(pool.acquire(), not(sameInstance(pool.acquire())));
+    }
+
+    @Test
+    public void reusesReleasedEvents() {
+        EventPool pool = new EventPool(4);
+        Event event = pool.acquire();
+
+        pool.release(event);
+
+        assertThat(pool.acquire(), sameInstance(event));
+    }
+
+    @Test
+    public void reusesEventsGivenBackByTheReceiver() {
+        EventPool pool = new EventPool(4);
+        Event event = pool.acquire();
+
+        pool.reuse(event);
+
+        assertThat(pool.acquire(), sameInstance(event));
+    }
+
+    @Test
+    public void dropsEventsReleasedWhenFull() {
+        EventPool pool = new EventPool(2);
+        Event first = pool.acquire();
+        Event second = pool.acquire();
+        Event third = pool.acquire();
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        pool.acquire();
+        pool.acquire();
+        Event allocated = pool.acquire();
+        assertThat(allocated, not(sameInstance(first)));
+        assertThat(allocated, not(sameInstance(second)));
+        assertThat(allocated, not(sameInstance(third)));
+    }
+
+    @Test
+    public void overwritesRecycledEvents() {
+        EventPool pool = new EventPool(4);
+        EventDecoder decoder = new EventDecoder(pool);
+
+        Event follow = decoder.decode(frames("666|F|60|50\r\n"));
+        follow.recycle();
+        Event broadcast = decoder.decode(frames("667|B\n"));
+
+        assertThat(broadcast, sameInstance(follow));
+        assertThat(broadcast.getSequence(), is(667L));
+        assertThat(broadcast.getType(), is(EventType.BROADCAST));
+        assertThat(broadcast.getFrameLength(), is(6));
+        assertThat(broadcast.toPayload(), is("667|B"));
+    }
+
+    private static ByteBuffer frames(String frames) {
+        return ByteBuffer.wrap(frames.getBytes(StandardCharsets.US_ASCII));
+    }
+}
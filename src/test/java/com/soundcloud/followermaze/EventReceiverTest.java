@@ -1,10 +1,12 @@
 package com.soundcloud.followermaze;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -18,11 +20,33 @@ import static org.mockito.Mockito.*;
 
 public class EventReceiverTest extends AbstractSocketServerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private EventDispatcher eventDispatcher;
+    private EventDispatcher.Producer producer;
+    private List<List<Event>> batches;
 
     @Before
-    public void setup() {
+    public void setup() throws Exception {
+        batches = new ArrayList<>();
+        producer = mock(EventDispatcher.Producer.class);
+        // The receiver reuses its list of events once they are submitted.
+        doAnswer(invocation -> batches.add(new ArrayList<>(invocation.<List<Event>>getArgument(0))))
+                .when(producer).submitAll(anyList());
         eventDispatcher = mock(EventDispatcher.class);
+        when(eventDispatcher.newProducer()).thenReturn(producer);
+    }
+
+    private List<List<Event>> submittedBatches() {
+        verify(producer).close();
+        return batches;
+    }
+
+    private List<Event> submittedEvents() {
+        List<Event> events = new ArrayList<>();
+        submittedBatches().forEach(events::addAll);
+        return events;
     }
 
     @Test
@@ -40,14 +64,13 @@ public class EventReceiverTest extends AbstractSocketServerTest {
         serverConnection.close();
         promise.get();
 
-        ArgumentCaptor<Event> eventCaptor = ArgumentCaptor.forClass(Event.class);
-        verify(eventDispatcher).submit(eventCaptor.capture());
-        Event event = eventCaptor.getValue();
-        assertThat(event.toPayload(), is(payload));
+        List<Event> submitted = submittedEvents();
+        assertThat(submitted.size(), is(1));
+        assertThat(submitted.get(0).toPayload(), is(payload));
     }
 
     @Test
-    public void forwardsSeveralEventsToDispatcherOneByOne() throws Exception {
+    public void forwardsSeveralEventsToDispatcherInBatches() throws Exception {
         final int numberOfEvents = 100000;
         final List<Event> events = buildEvents(numberOfEvents);
 
@@ -64,12 +87,64 @@ public class EventReceiverTest extends AbstractSocketServerTest {
         serverConnection.close();
         promise.get();
 
-        ArgumentCaptor<Event> eventCaptor = ArgumentCaptor.forClass(Event.class);
-        verify(eventDispatcher, times(numberOfEvents)).submit(eventCaptor.capture());
-
-        List<Event> sentEvents = eventCaptor.getAllValues();
+        assertThat(submittedBatches().size() < numberOfEvents / 100, is(true));
+        List<Event> sentEvents = submittedEvents();
+        assertThat(sentEvents.size(), is(numberOfEvents));
         for (int i = 0; i < numberOfEvents; i++) {
             assertThat(sentEvents.get(i).toPayload(), is(events.get(i).toPayload()));
         }
     }
+
+    @Test
+    public void logsEventsBeforeForwardingThemToDispatcher() throws Exception {
+        final int numberOfEvents = 1000;
+        final List<Event> events = buildEvents(numberOfEvents);
+        WriteAheadLog log = new WriteAheadLog(folder.getRoot().toPath(), 1024 * 1024, WalSyncPolicy.BATCH, 0, () -> 0);
+        log.replay(event -> { });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future promise = executor.submit(new EventReceiver(clientConnection, eventDispatcher, log, null));
+
+        Writer out = bufferedWriterFrom(serverConnection);
+        for (Event event : events) {
+            out.write(event.toPayload());
+            out.write("\r\n");
+        }
+        out.flush();
+
+        serverConnection.close();
+        promise.get();
+
+        assertThat(submittedEvents().size(), is(numberOfEvents));
+        List<Event> logged = new ArrayList<>();
+        new WriteAheadLog(folder.getRoot().toPath(), 1024 * 1024, WalSyncPolicy.BATCH, 0, () -> 0).replay(logged::add);
+        assertThat(logged.size(), is(numberOfEvents));
+    }
+
+    @Test
+    public void discardsEventsAlreadyReceived() throws Exception {
+        final List<Event> events = buildEvents(100);
+        DuplicateFilter duplicates = new DuplicateFilter(1024);
+        // As if the first half had been received from another event source.
+        events.subList(0, 50).forEach(event -> duplicates.add(event.getSequence()));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future promise = executor.submit(new EventReceiver(clientConnection, eventDispatcher, null, duplicates));
+
+        Writer out = bufferedWriterFrom(serverConnection);
+        for (int i = 0; i < 2; i++) {
+            for (Event event : events) {
+                out.write(event.toPayload());
+                out.write("\r\n");
+            }
+        }
+        out.flush();
+
+        serverConnection.close();
+        promise.get();
+
+        List<Event> submitted = submittedEvents();
+        assertThat(submitted.size(), is(50));
+        assertThat(submitted.get(0).getSequence(), is(51L));
+    }
 }
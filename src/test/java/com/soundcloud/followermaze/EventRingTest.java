@@ -0,0 +1,123 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.soundcloud.followermaze.TestFixtures.buildEvents;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class EventRingTest {
+
+    @Test
+    public void roundsCapacityUpToAPowerOfTwo() {
+        assertThat(new EventRing(1000).capacity(), is(1024));
+        assertThat(new EventRing(1024).capacity(), is(1024));
+        assertThat(new EventRing(0).capacity(), is(1));
+    }
+
+    @Test
+    public void takesEventsInTheOrderTheyWerePublished() {
+        EventRing ring = new EventRing(16);
+        List<Event> events = buildEvents(10);
+
+        assertThat(ring.offer(events, 0), is(10));
+        assertThat(ring.size(), is(10));
+
+        List<Event> taken = new ArrayList<>();
+        assertThat(ring.drainTo(taken, 4), is(4));
+        assertThat(ring.drainTo(taken, 100), is(6));
+
+        assertThat(taken, is(events));
+        assertThat(ring.isEmpty(), is(true));
+    }
+
+    @Test
+    public void publishesOnlyAsManyEventsAsFit() {
+        EventRing ring = new EventRing(8);
+        List<Event> events = buildEvents(20);
+
+        assertThat(ring.offer(events, 0), is(8));
+        assertThat(ring.offer(events, 8), is(0));
+
+        List<Event> taken = new ArrayList<>();
+        ring.drainTo(taken, 3);
+        assertThat(ring.offer(events, 8), is(3));
+
+        ring.drainTo(taken, 100);
+        assertThat(taken, is(events.subList(0, 11)));
+    }
+
+    @Test
+    public void publishesSingleEventsUntilFull() {
+        EventRing ring = new EventRing(2);
+        List<Event> events = buildEvents(3);
+
+        assertThat(ring.offer(events.get(0)), is(true));
+        assertThat(ring.offer(events.get(1)), is(true));
+        assertThat(ring.offer(events.get(2)), is(false));
+
+        List<Event> taken = new ArrayList<>();
+        ring.drainTo(taken, 100);
+        assertThat(taken, is(events.subList(0, 2)));
+    }
+
+    @Test
+    public void wrapsAroundManyTimes() {
+        EventRing ring = new EventRing(8);
+        List<Event> events = buildEvents(1000);
+        List<Event> taken = new ArrayList<>();
+
+        int published = 0;
+        while (taken.size() < events.size()) {
+            published += ring.offer(events, published);
+            ring.drainTo(taken, 5);
+        }
+
+        assertThat(taken, is(events));
+    }
+
+    @Test
+    public void keepsEventsPublishedBeforeBeingClosed() {
+        EventRing ring = new EventRing(8);
+        ring.offer(buildEvents(3), 0);
+        ring.close();
+
+        assertThat(ring.isClosed(), is(true));
+        assertThat(ring.drainTo(new ArrayList<>(), 100), is(3));
+    }
+
+    @Test
+    public void handsEventsOverFromOneThreadToAnother() throws Exception {
+        final int numberOfEvents = 1_000_000;
+        EventRing ring = new EventRing(1024);
+        List<Event> events = buildEvents(numberOfEvents);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> producer = executor.submit(() -> {
+            int published = 0;
+            while (published < numberOfEvents) {
+                published += ring.offer(events.subList(published, Math.min(numberOfEvents, published + 100)), 0);
+                Thread.yield();
+            }
+        });
+
+        List<Event> taken = new ArrayList<>(numberOfEvents);
+        while (taken.size() < numberOfEvents) {
+            if (ring.drainTo(taken, 256) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.get();
+        executor.shutdown();
+
+        for (int i = 0; i < numberOfEvents; i++) {
+            assertThat(taken.get(i).getSequence(), is(i + 1L));
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package com.soundcloud.followermaze;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
@@ -14,11 +17,16 @@ import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.mockito.Mockito.*;
 
 public class EventRouterTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private EventRouter router;
     private AtomicLong sequence;
 
@@ -55,11 +63,11 @@ public class EventRouterTest {
     }
 
     private void assertSentTo(Client client, Event event) {
-        try { verify(client).send(event); } catch (IOException ignored) {}
+        try { verify(client).write(event); } catch (IOException ignored) {}
     }
 
     private void assertNotSentTo(Client client, Event event) {
-        try { verify(client, never()).send(event); } catch (IOException ignored) {}
+        try { verify(client, never()).write(event); } catch (IOException ignored) {}
     }
 
     @Test
@@ -129,6 +137,48 @@ public class EventRouterTest {
         clients.forEach(i -> assertSentTo(i, event));
     }
 
+    @Test
+    public void appendsBroadcastEventToLogForSubscribedClientsOnly() {
+        BroadcastLog log = new BroadcastLog(Long.MAX_VALUE, SlowConsumerPolicy.BLOCK);
+        BroadcastLog.Cursor cursor = log.newCursor();
+        router = new EventRouter(log);
+        Client subscriber = buildClient(50L);
+        doReturn(true).when(subscriber).subscribe(log);
+        List<Client> others = buildClients(1L, 10L);
+
+        router.register(subscriber);
+        others.forEach(router::register);
+
+        Event event = Event.newBroadcast(666L);
+        router.route(event);
+
+        assertNotSentTo(subscriber, event);
+        others.forEach(i -> assertSentTo(i, event));
+        assertThat(cursor.peek(), equalTo(event));
+    }
+
+    @Test
+    public void routesEventsToTheLatestClientRegisteredUnderAnId() {
+        BroadcastLog log = new BroadcastLog(Long.MAX_VALUE, SlowConsumerPolicy.BLOCK);
+        router = new EventRouter(log);
+        Client disconnected = buildClient(50L);
+        Client reconnected = buildClient(50L);
+        doReturn(true).when(reconnected).subscribe(log);
+
+        router.register(disconnected);
+        router.register(reconnected);
+
+        Event broadcast = Event.newBroadcast(666L);
+        Event privateMessage = Event.newPrivateMessage(667L, 60L, 50L);
+        router.route(broadcast);
+        router.route(privateMessage);
+
+        assertNotSentTo(disconnected, broadcast);
+        assertNotSentTo(disconnected, privateMessage);
+        assertNotSentTo(reconnected, broadcast);
+        assertSentTo(reconnected, privateMessage);
+    }
+
     @Test
     public void routesPrivateMessageEventWhenRecipientExists() {
         Client sender = buildClient(60L);
@@ -252,6 +302,131 @@ public class EventRouterTest {
         others.forEach(i -> assertSentTo(i, broadcast));
     }
 
+    @Test
+    public void evictsClientOnceWritingToItFails() throws IOException {
+        Client bogus = spy(new Client(1L, bogusSocket()));
+        router.register(bogus);
+
+        router.route(Event.newPrivateMessage(sequence.getAndIncrement(), 2L, 1L));
+        router.route(Event.newPrivateMessage(sequence.getAndIncrement(), 2L, 1L));
+        router.flush();
+
+        verify(bogus, times(1)).write(any(Event.class));
+        verify(bogus, never()).flush();
+        assertThat(router.getClient(1L), is(nullValue()));
+    }
+
+    @Test
+    public void evictsClientOnceItIsDisconnected() {
+        Client client = buildClient(50L);
+        router.register(client);
+
+        client.close();
+        Event event = Event.newPrivateMessage(sequence.getAndIncrement(), 60L, 50L);
+        router.route(event);
+
+        assertNotSentTo(client, event);
+        assertThat(router.getClient(50L), is(nullValue()));
+    }
+
+    @Test
+    public void countsConnectedClientsUntilTheyAreEvicted() {
+        List<Client> clients = buildClients(1L, 4L);
+        clients.forEach(router::register);
+        router.route(Event.newBroadcast(sequence.getAndIncrement()));
+        assertThat(Metrics.snapshot().get("clients.connected"), is(3L));
+
+        clients.get(0).close();
+        router.route(Event.newBroadcast(sequence.getAndIncrement()));
+        assertThat(Metrics.snapshot().get("clients.connected"), is(2L));
+    }
+
+    @Test
+    public void keepsReconnectedClientWhenTheStaleOneIsEvicted() {
+        Client stale = buildClient(50L);
+        Client reconnected = buildClient(50L);
+        router.register(stale);
+        router.register(reconnected);
+
+        Event broadcast = Event.newBroadcast(sequence.getAndIncrement());
+        router.route(broadcast);
+        stale.close();
+        Event privateMessage = Event.newPrivateMessage(sequence.getAndIncrement(), 60L, 50L);
+        router.route(privateMessage);
+
+        assertThat(stale.isClosed(), is(true));
+        assertNotSentTo(stale, broadcast);
+        assertSentTo(reconnected, broadcast);
+        assertSentTo(reconnected, privateMessage);
+        assertThat(router.getClient(50L), is(reconnected));
+    }
+
+    @Test
+    public void flushesEachRecipientOnceForAllEventsRoutedBeforeFlush() throws IOException {
+        Client recipient = buildClient(50L);
+        Client other = buildClient(60L);
+        router.register(recipient);
+        router.register(other);
+
+        for (int i = 0; i < 100; i++) {
+            router.route(Event.newPrivateMessage(sequence.getAndIncrement(), other.getId(), recipient.getId()));
+        }
+        verify(recipient, never()).flush();
+
+        router.flush();
+        router.flush();
+
+        verify(recipient, times(100)).write(any(Event.class));
+        verify(recipient, times(1)).flush();
+        verify(other, never()).flush();
+    }
+
+    @Test
+    public void flushesRecipientAgainAfterNewEvents() throws IOException {
+        Client recipient = buildClient(50L);
+        router.register(recipient);
+
+        router.route(Event.newBroadcast(sequence.getAndIncrement()));
+        router.flush();
+        router.route(Event.newBroadcast(sequence.getAndIncrement()));
+        router.flush();
+
+        verify(recipient, times(2)).flush();
+    }
+
+    @Test
+    public void deliversEventsOnlyOnceFlushed() {
+        Event event = Event.newBroadcast(sequence.getAndIncrement());
+
+        router.route(event);
+        assertThat(router.getDeliveredSequence(), equalTo(0L));
+
+        router.flush();
+        assertThat(router.getDeliveredSequence(), equalTo(event.getSequence()));
+    }
+
+    @Test
+    public void restoresFollowersFromSnapshotAndIgnoresEventsItReflects() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("followers.snapshot");
+        FollowerGraphSnapshotter snapshotter = new FollowerGraphSnapshotter(path, 1, Runnable::run);
+        router.restoreSnapshots(shard -> snapshotter);
+        router.route(Event.newFollow(1, 60L, 50L));
+        router.flush();
+        assertThat(router.getSnapshotSequence(), equalTo(1L));
+
+        EventRouter restarted = new EventRouter();
+        assertThat(restarted.restoreSnapshots(shard -> new FollowerGraphSnapshotter(path, 1, Runnable::run)), equalTo(1L));
+        Client follower = buildClient(60L);
+        restarted.register(follower);
+
+        Event unfollow = Event.newUnfollow(1, 60L, 50L);
+        restarted.route(unfollow);
+        Event statusUpdate = Event.newStatusUpdate(2, 50L);
+        restarted.route(statusUpdate);
+
+        assertSentTo(follower, statusUpdate);
+    }
+
     @Test
     public void concurrentThreadsRegisteringClients() throws InterruptedException, ExecutionException {
         final int numberOfThreads = 100;
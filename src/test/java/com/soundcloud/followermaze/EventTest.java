@@ -2,6 +2,8 @@ package com.soundcloud.followermaze;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -94,6 +96,34 @@ public class EventTest {
         assertThat(event.toPayload(), is("634|S|32"));
     }
 
+    private static String frameOf(Event event) {
+        ByteBuffer frame = event.getFrame();
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void keepsOriginalFrameVerbatim() {
+        Event event = new EventDecoder().decode(
+                ByteBuffer.wrap("0666|F|060|50\r\n".getBytes(StandardCharsets.US_ASCII)));
+        assertThat(event.getSequence(), is(666L));
+        assertThat(event.getFromId(), is(60L));
+        assertThat(frameOf(event), is("0666|F|060|50\r\n"));
+        assertThat(event.toPayload(), is("0666|F|060|50"));
+    }
+
+    @Test
+    public void encodesFrameOfNewEvents() {
+        assertThat(frameOf(Event.newFollow(666L, 60L, 50L)), is("666|F|60|50\r\n"));
+        assertThat(frameOf(Event.newBroadcast(542532L)), is("542532|B\r\n"));
+    }
+
+    @Test
+    public void frameIsReadOnly() {
+        assertThat(Event.newBroadcast(1L).getFrame().isReadOnly(), is(true));
+    }
+
     @Test
     public void compareBySequenceNumber_lessThan() {
         int comparison = Event.newBroadcast(1L).compareTo(Event.newBroadcast(2L));
@@ -0,0 +1,83 @@
+package com.soundcloud.followermaze;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Measures how much heap the follower graph takes, compared to the
+ * {@code HashMap<Long, Set<Long>>} it replaced.
+ *
+ * Edges are generated with a skewed distribution of followees, so that a few
+ * users have many followers and most users have a handful. The boxed baseline
+ * is only measured for up to 10M edges, since it does not fit in a
+ * reasonable heap beyond that.
+ *
+ * Usage: {@code ./gradlew followerGraphMemoryBenchmark}, or run with the
+ * number of edges of each round as arguments.
+ */
+public class FollowerGraphMemoryBenchmark {
+
+    private static final long MAX_BOXED_EDGES = 10_000_000L;
+    private static final int EDGES_PER_USER = 20;
+
+    public static void main(String[] args) {
+        long[] rounds = args.length == 0 ? new long[]{10_000_000L, 100_000_000L} : parse(args);
+        for (long edges : rounds) {
+            measure("LongFollowerGraph", edges, (follower, followee) -> {
+                primitive.follow(follower, followee);
+                return 0;
+            });
+            primitive = new LongFollowerGraph();
+
+            if (edges <= MAX_BOXED_EDGES) {
+                measure("HashMap<Long, Set<Long>>", edges, (follower, followee) -> {
+                    boxed.computeIfAbsent(followee, k -> new HashSet<>()).add(follower);
+                    return 0;
+                });
+                boxed = new HashMap<>();
+            }
+        }
+    }
+
+    // Graphs are kept in static fields so that they are still reachable while heap usage is measured.
+    private static LongFollowerGraph primitive = new LongFollowerGraph();
+    private static Map<Long, Set<Long>> boxed = new HashMap<>();
+
+    private static void measure(String name, long edges, LongBinaryOperator follow) {
+        long users = Math.max(1, edges / EDGES_PER_USER);
+        Random random = new Random(666);
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        for (long i = 0; i < edges; i++) {
+            long follower = 1 + (long) (random.nextDouble() * users);
+            long followee = 1 + (long) (Math.pow(random.nextDouble(), 3) * users);
+            follow.applyAsLong(follower, followee);
+        }
+        long elapsed = System.nanoTime() - start;
+        long used = usedHeap() - before;
+
+        System.out.printf("%-26s %,13d follows  %,8d MiB  %6.1f bytes/follow  %,6d ms%n",
+                name, edges, used >> 20, (double) used / edges, elapsed / 1_000_000);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long[] parse(String[] args) {
+        long[] rounds = new long[args.length];
+        for (int i = 0; i < args.length; i++) {
+            rounds[i] = Long.parseLong(args[i].replace("_", ""));
+        }
+        return rounds;
+    }
+}
@@ -0,0 +1,77 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures how long it takes to snapshot the follower graph and to restore
+ * it, compared to rebuilding it from the follow events it was made of.
+ *
+ * Edges are generated like in {@link FollowerGraphMemoryBenchmark}. Taking
+ * a view of the graph is the only part of a snapshot that holds back
+ * routing; writing happens on another thread.
+ *
+ * Usage: {@code ./gradlew followerGraphSnapshotBenchmark}, or run with the
+ * number of edges of each round as arguments.
+ */
+public class FollowerGraphSnapshotBenchmark {
+
+    private static final int EDGES_PER_USER = 20;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("snapshot-benchmark");
+        Path path = directory.resolve("followers.snapshot");
+        try {
+            for (String arg : args.length == 0 ? new String[]{"10_000_000", "30_000_000"} : args) {
+                measure(Long.parseLong(arg.replace("_", "")), path);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(directory);
+        }
+    }
+
+    private static void measure(long edges, Path path) throws IOException {
+        long users = Math.max(1, edges / EDGES_PER_USER);
+        Random random = new Random(666);
+
+        long[] followers = new long[Math.toIntExact(edges)];
+        long[] followees = new long[followers.length];
+        for (int i = 0; i < followers.length; i++) {
+            followers[i] = 1 + (long) (random.nextDouble() * users);
+            followees[i] = 1 + (long) (Math.pow(random.nextDouble(), 3) * users);
+        }
+
+        long start = System.nanoTime();
+        LongFollowerGraph graph = new LongFollowerGraph();
+        for (int i = 0; i < followers.length; i++) {
+            graph.follow(followers[i], followees[i]);
+        }
+        long rebuilt = System.nanoTime();
+        followers = followees = null;
+
+        FollowerGraphSnapshot snapshot = FollowerGraphSnapshot.of(graph, edges);
+        long viewed = System.nanoTime();
+        snapshot.writeTo(path);
+        long written = System.nanoTime();
+
+        graph = null;
+        snapshot = null;
+        System.gc();
+
+        long loadStart = System.nanoTime();
+        LongFollowerGraph restored = new LongFollowerGraph();
+        FollowerGraphSnapshot.load(path, restored);
+        long loaded = System.nanoTime();
+
+        System.out.printf("%,13d edges  %,6d MiB  rebuild %,7d ms  view %,6d ms  write %,6d ms  load %,6d ms%n",
+                restored.edgeCount(), Files.size(path) >> 20, millis(start, rebuilt), millis(rebuilt, viewed),
+                millis(viewed, written), millis(loadStart, loaded));
+    }
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1_000_000;
+    }
+}
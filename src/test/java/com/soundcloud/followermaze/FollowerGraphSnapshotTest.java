@@ -0,0 +1,112 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class FollowerGraphSnapshotTest {
+
+    private static final int USERS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Set<Long> followersOf(FollowerGraph graph, long followeeId) {
+        Set<Long> followers = new HashSet<>();
+        graph.forEachFollower(followeeId, followers::add);
+        return followers;
+    }
+
+    private static LongFollowerGraph buildRandomGraph() {
+        Random random = new Random(666);
+        LongFollowerGraph graph = new LongFollowerGraph();
+        for (int i = 0; i < USERS * 20; i++) {
+            long follower = random.nextInt(USERS);
+            long followee = random.nextInt(USERS);
+            if (random.nextInt(4) == 0) {
+                graph.unfollow(follower, followee);
+            } else {
+                graph.follow(follower, followee);
+            }
+        }
+        return graph;
+    }
+
+    @Test
+    public void restoresEveryEdgeAndTheSequence() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("followers.snapshot");
+        LongFollowerGraph graph = buildRandomGraph();
+
+        FollowerGraphSnapshot.of(graph, 666).writeTo(path);
+        LongFollowerGraph restored = new LongFollowerGraph();
+
+        assertThat(FollowerGraphSnapshot.load(path, restored), is(666L));
+        assertThat(restored.edgeCount(), is(graph.edgeCount()));
+        assertThat(restored.followeeCount(), is(graph.followeeCount()));
+        for (long id = 0; id < USERS; id++) {
+            assertThat(followersOf(restored, id), is(followersOf(graph, id)));
+        }
+    }
+
+    @Test
+    public void isNotAffectedByChangesAfterItWasTaken() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("followers.snapshot");
+        LongFollowerGraph graph = new LongFollowerGraph();
+        graph.follow(1, 10);
+
+        FollowerGraphSnapshot snapshot = FollowerGraphSnapshot.of(graph, 1);
+        graph.follow(2, 10);
+        snapshot.writeTo(path);
+        LongFollowerGraph restored = new LongFollowerGraph();
+        FollowerGraphSnapshot.load(path, restored);
+
+        assertThat(restored.edgeCount(), is(1L));
+    }
+
+    @Test
+    public void replacesPreviousSnapshot() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("followers.snapshot");
+        LongFollowerGraph graph = buildRandomGraph();
+
+        FollowerGraphSnapshot.of(graph, 1).writeTo(path);
+        FollowerGraphSnapshot.of(new LongFollowerGraph(), 2).writeTo(path);
+        LongFollowerGraph restored = new LongFollowerGraph();
+
+        assertThat(FollowerGraphSnapshot.load(path, restored), is(2L));
+        assertThat(restored.edgeCount(), is(0L));
+    }
+
+    @Test
+    public void restoresNothingWithoutSnapshotFile() throws Exception {
+        LongFollowerGraph restored = new LongFollowerGraph();
+        assertThat(FollowerGraphSnapshot.load(folder.getRoot().toPath().resolve("none"), restored), is(0L));
+        assertThat(restored.edgeCount(), is(0L));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFilesThatAreNotSnapshots() throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, new byte[64]);
+        FollowerGraphSnapshot.load(path, new LongFollowerGraph());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedSnapshots() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("followers.snapshot");
+        FollowerGraphSnapshot.of(buildRandomGraph(), 1).writeTo(path);
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 8));
+        FollowerGraphSnapshot.load(path, new LongFollowerGraph());
+    }
+}
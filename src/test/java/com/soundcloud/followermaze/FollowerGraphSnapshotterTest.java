@@ -0,0 +1,71 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class FollowerGraphSnapshotterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void takesSnapshotOnceEnoughEventsWereApplied() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("followers.snapshot");
+        FollowerGraphSnapshotter snapshotter = new FollowerGraphSnapshotter(path, 100, Runnable::run);
+        LongFollowerGraph graph = new LongFollowerGraph();
+        graph.follow(1, 10);
+
+        snapshotter.maybeSnapshot(graph, 99);
+        assertThat(snapshotter.getWrittenSequence(), is(0L));
+
+        snapshotter.maybeSnapshot(graph, 100);
+        assertThat(snapshotter.getWrittenSequence(), is(100L));
+
+        snapshotter.maybeSnapshot(graph, 150);
+        assertThat(snapshotter.getWrittenSequence(), is(100L));
+    }
+
+    @Test
+    public void doesNotTakeSnapshotWhileThePreviousOneIsBeingWritten() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("followers.snapshot");
+        List<Runnable> writes = new ArrayList<>();
+        FollowerGraphSnapshotter snapshotter = new FollowerGraphSnapshotter(path, 100, writes::add);
+        LongFollowerGraph graph = new LongFollowerGraph();
+
+        snapshotter.maybeSnapshot(graph, 100);
+        snapshotter.maybeSnapshot(graph, 200);
+        assertThat(writes.size(), is(1));
+
+        writes.get(0).run();
+        snapshotter.maybeSnapshot(graph, 300);
+        assertThat(writes.size(), is(2));
+    }
+
+    @Test
+    public void restoresTheLatestSnapshotWritten() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("followers.snapshot");
+        LongFollowerGraph graph = new LongFollowerGraph();
+        graph.follow(1, 10);
+        graph.follow(2, 10);
+        new FollowerGraphSnapshotter(path, 100, Runnable::run).maybeSnapshot(graph, 123);
+
+        FollowerGraphSnapshotter snapshotter = new FollowerGraphSnapshotter(path, 100, Runnable::run);
+        LongFollowerGraph restored = new LongFollowerGraph();
+
+        assertThat(snapshotter.restore(restored), is(123L));
+        assertThat(snapshotter.getWrittenSequence(), is(123L));
+        assertThat(restored.edgeCount(), is(2L));
+
+        // The interval counts from the restored snapshot.
+        snapshotter.maybeSnapshot(restored, 200);
+        assertThat(snapshotter.getWrittenSequence(), is(123L));
+    }
+}
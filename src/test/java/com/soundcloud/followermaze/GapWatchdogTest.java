@@ -0,0 +1,73 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class GapWatchdogTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void hasNoDeadlineWithoutAGap() {
+        GapWatchdog watchdog = new GapWatchdog(100, 0);
+        ReorderBuffer buffer = new ReorderBuffer(16, 1L);
+
+        assertThat(watchdog.nanosLeft(buffer, 0), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void countsDownFromWhenTheGapWasFirstSeen() {
+        GapWatchdog watchdog = new GapWatchdog(100, 0);
+        ReorderBuffer buffer = new ReorderBuffer(16, 1L);
+        buffer.offer(Event.newBroadcast(3L));
+
+        assertThat(watchdog.nanosLeft(buffer, 1000 * MILLIS), is(100 * MILLIS));
+        assertThat(watchdog.nanosLeft(buffer, 1060 * MILLIS), is(40 * MILLIS));
+        assertThat(watchdog.nanosLeft(buffer, 1200 * MILLIS), is(0L));
+    }
+
+    @Test
+    public void restartsTheDeadlineWhenTheHeadMoves() {
+        GapWatchdog watchdog = new GapWatchdog(100, 0);
+        ReorderBuffer buffer = new ReorderBuffer(16, 1L);
+        buffer.offer(Event.newBroadcast(3L));
+        watchdog.nanosLeft(buffer, 0);
+
+        buffer.offer(Event.newBroadcast(1L));
+        buffer.poll();
+
+        assertThat(watchdog.nanosLeft(buffer, 90 * MILLIS), is(100 * MILLIS));
+    }
+
+    @Test
+    public void isDueOnceTooManyBytesAreHeldBack() {
+        Event event = Event.newBroadcast(3L);
+        GapWatchdog watchdog = new GapWatchdog(0, event.getFrameLength());
+        ReorderBuffer buffer = new ReorderBuffer(16, 1L);
+
+        buffer.offer(event);
+        assertThat(watchdog.nanosLeft(buffer, 0), is(Long.MAX_VALUE));
+
+        buffer.offer(Event.newBroadcast(4L));
+        assertThat(watchdog.nanosLeft(buffer, 0), is(0L));
+    }
+
+    @Test
+    public void skipsToTheFirstBufferedEvent() {
+        GapWatchdog watchdog = new GapWatchdog(100, 0);
+        ReorderBuffer buffer = new ReorderBuffer(16, 1L);
+        buffer.offer(Event.newBroadcast(5L));
+        buffer.offer(Event.newBroadcast(9L));
+        watchdog.nanosLeft(buffer, 0);
+
+        assertThat(watchdog.skip(buffer, 100 * MILLIS), is(4L));
+        assertThat(watchdog.getLastSkippedFrom(), is(1L));
+        assertThat(watchdog.getLastSkippedTo(), is(4L));
+        assertThat(buffer.poll().getSequence(), is(5L));
+        assertThat(buffer.offer(Event.newBroadcast(2L)), is(false));
+    }
+}
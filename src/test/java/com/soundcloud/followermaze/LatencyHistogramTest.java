@@ -0,0 +1,73 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private void assertWithinPrecision(long actual, long expected) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= Math.max(1, expected / 32));
+    }
+
+    @Test
+    public void computesPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1_000_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertThat(histogram.getCount(), is(1_000_000L));
+        assertThat(histogram.getMax(), is(1_000_000_000L));
+        assertWithinPrecision(histogram.percentile(0.5), 500_000_000L);
+        assertWithinPrecision(histogram.percentile(0.99), 990_000_000L);
+        assertWithinPrecision(histogram.percentile(0.999), 999_000_000L);
+        assertThat(histogram.percentile(1), is(1_000_000_000L));
+    }
+
+    @Test
+    public void keepsSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 32; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.percentile(0.5), is(15L));
+        assertThat(histogram.percentile(0), is(0L));
+    }
+
+    @Test
+    public void mapsEveryValueToBucketStartingAtOrBelowIt() {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.lowestValueAt(index) <= value);
+            assertTrue(LatencyHistogram.lowestValueAt(index + 1) > value || value == Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void addsUpHistograms() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(20);
+        second.record(5000);
+
+        first.add(second);
+
+        assertThat(first.getCount(), is(3L));
+        assertThat(first.getMax(), is(5000L));
+        assertThat(first.percentile(0.5), is(20L));
+    }
+
+    @Test
+    public void ignoresNegativeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertThat(histogram.percentile(0.5), is(0L));
+    }
+}
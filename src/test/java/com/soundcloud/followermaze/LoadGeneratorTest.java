@@ -0,0 +1,78 @@
+package com.soundcloud.followermaze;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertTrue;
+
+public class LoadGeneratorTest {
+
+    private static final int EVENT_SOURCE_PORT = 19090;
+    private static final int CLIENT_PORT = 19099;
+    private static final int MULTI_SOURCE_EVENT_SOURCE_PORT = 19190;
+    private static final int MULTI_SOURCE_CLIENT_PORT = 19199;
+
+    //
+    // Servers cannot be stopped, and sequence numbers cannot start over, so
+    // each test has a server of its own, started once for the whole class.
+    //
+
+    @BeforeClass
+    public static void startServers() {
+        startServer(EVENT_SOURCE_PORT, CLIENT_PORT);
+        startServer(MULTI_SOURCE_EVENT_SOURCE_PORT, MULTI_SOURCE_CLIENT_PORT);
+    }
+
+    private static void startServer(int eventSourcePort, int clientPort) {
+        ServerSettings settings = new ServerSettings()
+                .withEventSourcePort(eventSourcePort)
+                .withClientPort(clientPort)
+                .withAuditSampleRate(0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            new Server(settings).run();
+            return null;
+        });
+    }
+
+    @Test
+    public void deliversEveryEventInOrderOverLoopback() throws IOException, InterruptedException {
+        LoadGenerator.Report report = new LoadGenerator()
+                .withPorts(EVENT_SOURCE_PORT, CLIENT_PORT)
+                .withEvents(20000)
+                .withDisorderWindow(500)
+                .withClients(50)
+                .withSettleMillis(500)
+                .run();
+
+        assertThat(report.getOrderingViolations(), is(0L));
+        assertThat(report.getMissingDeliveries(), is(0L));
+        assertThat(report.isClean(), is(true));
+        assertTrue(report.getReceivedDeliveries() > 0);
+        assertTrue(report.getEventsPerSecond() > 0);
+        assertThat(report.getLatencies().getCount(), is(report.getReceivedDeliveries()));
+    }
+
+    @Test
+    public void mergesSeveralEventSourcesAndDiscardsDuplicates() throws IOException, InterruptedException {
+        LoadGenerator.Report report = new LoadGenerator()
+                .withPorts(MULTI_SOURCE_EVENT_SOURCE_PORT, MULTI_SOURCE_CLIENT_PORT)
+                .withEvents(20000)
+                .withDisorderWindow(500)
+                .withClients(50)
+                .withSources(3)
+                .withDuplicates(0.1)
+                .withSettleMillis(500)
+                .run();
+
+        assertThat(report.getOrderingViolations(), is(0L));
+        assertThat(report.getMissingDeliveries(), is(0L));
+        assertThat(report.isClean(), is(true));
+    }
+}
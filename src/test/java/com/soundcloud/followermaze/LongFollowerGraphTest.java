@@ -0,0 +1,129 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class LongFollowerGraphTest {
+
+    private static Set<Long> followersOf(FollowerGraph graph, long followeeId) {
+        Set<Long> followers = new HashSet<>();
+        graph.forEachFollower(followeeId, followers::add);
+        return followers;
+    }
+
+    private static Map<Long, Set<Long>> followersIn(FollowerGraph.View view) {
+        Map<Long, Set<Long>> followers = new HashMap<>();
+        view.forEach((followeeId, set) -> {
+            Set<Long> ids = new HashSet<>();
+            set.forEach(ids::add);
+            followers.put(followeeId, ids);
+        });
+        return followers;
+    }
+
+    private static Set<Long> setOf(Long... ids) {
+        Set<Long> set = new HashSet<>();
+        for (Long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    @Test
+    public void tracksFollowersOfEachFollowee() {
+        LongFollowerGraph graph = new LongFollowerGraph();
+        graph.follow(1L, 10L);
+        graph.follow(2L, 10L);
+        graph.follow(1L, 20L);
+
+        assertThat(followersOf(graph, 10L), is(setOf(1L, 2L)));
+        assertThat(followersOf(graph, 20L), is(setOf(1L)));
+        assertThat(followersOf(graph, 30L), is(setOf()));
+        assertThat(graph.edgeCount(), is(3L));
+    }
+
+    @Test
+    public void ignoresRepeatedFollowsAndMissingUnfollows() {
+        LongFollowerGraph graph = new LongFollowerGraph();
+        assertThat(graph.follow(1L, 10L), is(true));
+        assertThat(graph.follow(1L, 10L), is(false));
+        assertThat(graph.unfollow(2L, 10L), is(false));
+        assertThat(graph.unfollow(1L, 20L), is(false));
+        assertThat(graph.edgeCount(), is(1L));
+    }
+
+    @Test
+    public void removesFolloweesLeftWithoutFollowers() {
+        LongFollowerGraph graph = new LongFollowerGraph();
+        graph.follow(1L, 10L);
+        graph.follow(2L, 10L);
+        graph.unfollow(1L, 10L);
+        assertThat(graph.followeeCount(), is(1));
+
+        graph.unfollow(2L, 10L);
+        assertThat(graph.followeeCount(), is(0));
+        assertThat(graph.edgeCount(), is(0L));
+        assertThat(followersOf(graph, 10L), is(setOf()));
+    }
+
+    @Test
+    public void keepsViewAsItWasWhenTaken() {
+        LongFollowerGraph graph = new LongFollowerGraph();
+        graph.follow(1L, 10L);
+        graph.follow(2L, 10L);
+        graph.follow(3L, 20L);
+
+        FollowerGraph.View view = graph.view();
+        graph.follow(4L, 10L);
+        graph.unfollow(1L, 10L);
+        graph.unfollow(3L, 20L);
+        graph.follow(5L, 30L);
+
+        assertThat(view.followeeCount(), is(2));
+        assertThat(view.edgeCount(), is(3L));
+        Map<Long, Set<Long>> viewed = followersIn(view);
+        assertThat(viewed.get(10L), is(setOf(1L, 2L)));
+        assertThat(viewed.get(20L), is(setOf(3L)));
+        assertThat(followersOf(graph, 10L), is(setOf(2L, 4L)));
+        assertThat(followersOf(graph, 20L), is(setOf()));
+        assertThat(followersOf(graph, 30L), is(setOf(5L)));
+    }
+
+    @Test
+    public void keepsEachViewAsItWasWhenTaken() {
+        LongFollowerGraph graph = new LongFollowerGraph();
+        graph.follow(1L, 10L);
+
+        graph.view().release();
+        graph.follow(2L, 10L);
+        FollowerGraph.View view = graph.view();
+        graph.follow(3L, 10L);
+
+        assertThat(followersIn(view).get(10L), is(setOf(1L, 2L)));
+        assertThat(followersOf(graph, 10L), is(setOf(1L, 2L, 3L)));
+    }
+
+    @Test
+    public void replacesFollowersOfFollowee() {
+        LongFollowerGraph graph = new LongFollowerGraph();
+        graph.follow(1L, 10L);
+        LongHashSet followers = new LongHashSet();
+        followers.add(2L);
+        followers.add(3L);
+
+        graph.putFollowers(10L, followers);
+        assertThat(followersOf(graph, 10L), is(setOf(2L, 3L)));
+        assertThat(graph.edgeCount(), is(2L));
+
+        graph.putFollowers(10L, new LongHashSet());
+        assertThat(graph.followeeCount(), is(0));
+        assertThat(graph.edgeCount(), is(0L));
+    }
+}
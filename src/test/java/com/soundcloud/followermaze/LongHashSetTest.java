@@ -0,0 +1,85 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class LongHashSetTest {
+
+    private static Set<Long> toSet(LongHashSet longs) {
+        Set<Long> set = new HashSet<>();
+        longs.forEach(set::add);
+        return set;
+    }
+
+    @Test
+    public void addsAndRemovesElements() {
+        LongHashSet set = new LongHashSet();
+        assertThat(set.add(42L), is(true));
+        assertThat(set.add(42L), is(false));
+        assertThat(set.contains(42L), is(true));
+        assertThat(set.size(), is(1));
+
+        assertThat(set.remove(42L), is(true));
+        assertThat(set.remove(42L), is(false));
+        assertThat(set.contains(42L), is(false));
+        assertThat(set.isEmpty(), is(true));
+    }
+
+    @Test
+    public void supportsZeroAndNegativeElements() {
+        LongHashSet set = new LongHashSet();
+        set.add(0L);
+        set.add(-1L);
+        set.add(Long.MIN_VALUE);
+
+        assertThat(set.contains(0L), is(true));
+        assertThat(set.contains(-1L), is(true));
+        assertThat(set.contains(Long.MIN_VALUE), is(true));
+        assertThat(set.size(), is(3));
+
+        assertThat(set.remove(0L), is(true));
+        assertThat(set.contains(0L), is(false));
+        assertThat(set.size(), is(2));
+    }
+
+    @Test
+    public void growsAndShrinksWithItsElements() {
+        LongHashSet set = new LongHashSet();
+        for (long i = 1; i <= 10000; i++) {
+            set.add(i);
+        }
+        assertThat(set.capacity(), is(16384));
+
+        for (long i = 1; i <= 10000; i++) {
+            set.remove(i);
+        }
+        assertThat(set.capacity(), is(LongHashing.MIN_CAPACITY));
+    }
+
+    @Test
+    public void behavesLikeHashSetUnderRandomOperations() {
+        Random random = new Random(666);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(2000);
+            if (random.nextBoolean()) {
+                assertThat(set.add(key), is(expected.add(key)));
+            } else {
+                assertThat(set.remove(key), is(expected.remove(key)));
+            }
+            assertThat(set.size(), is(expected.size()));
+        }
+        assertThat(toSet(set), is(expected));
+        for (long key = 0; key < 2000; key++) {
+            assertThat(set.contains(key), is(expected.contains(key)));
+        }
+    }
+}
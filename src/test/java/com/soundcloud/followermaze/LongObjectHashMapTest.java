@@ -0,0 +1,60 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class LongObjectHashMapTest {
+
+    @Test
+    public void putsGetsAndRemovesEntries() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        assertThat(map.put(42L, "a"), is(nullValue()));
+        assertThat(map.put(42L, "b"), is("a"));
+        assertThat(map.get(42L), is("b"));
+        assertThat(map.size(), is(1));
+
+        assertThat(map.remove(42L), is("b"));
+        assertThat(map.remove(42L), is(nullValue()));
+        assertThat(map.get(42L), is(nullValue()));
+        assertThat(map.size(), is(0));
+    }
+
+    @Test
+    public void supportsZeroKey() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        map.put(0L, "zero");
+        map.put(1L, "one");
+        assertThat(map.get(0L), is("zero"));
+        assertThat(map.size(), is(2));
+        assertThat(map.remove(0L), is("zero"));
+        assertThat(map.size(), is(1));
+    }
+
+    @Test
+    public void behavesLikeHashMapUnderRandomOperations() {
+        Random random = new Random(666);
+        LongObjectHashMap<Integer> map = new LongObjectHashMap<>();
+        Map<Long, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) > 0) {
+                assertThat(map.put(key, i), is(expected.put(key, i)));
+            } else {
+                assertThat(map.remove(key), is(expected.remove(key)));
+            }
+            assertThat(map.size(), is(expected.size()));
+        }
+
+        Map<Long, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertThat(actual, is(expected));
+    }
+}
@@ -0,0 +1,68 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class MetricsMBeanTest {
+
+    @Test
+    public void exposesMetricsAsAttributes() throws Exception {
+        Metrics.counter("test.jmx.counter").add(5);
+        MetricsMBean.register();
+        MetricsMBean.register();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MetricsMBean.OBJECT_NAME);
+        assertThat(server.getAttribute(name, "test.jmx.counter"), is(5L));
+
+        MBeanAttributeInfo[] attributes = server.getMBeanInfo(name).getAttributes();
+        assertThat(Arrays.stream(attributes).anyMatch(a -> a.getName().equals("test.jmx.counter")), is(true));
+    }
+
+    @Test(expected = AttributeNotFoundException.class)
+    public void rejectsUnknownAttributes() throws Exception {
+        new MetricsMBean().getAttribute("test.jmx.unknown");
+    }
+
+    @Test(expected = AttributeNotFoundException.class)
+    public void rejectsSettingAttributes() throws Exception {
+        Metrics.counter("test.jmx.counter");
+        MetricsMBean.register();
+        ManagementFactory.getPlatformMBeanServer().setAttribute(new ObjectName(MetricsMBean.OBJECT_NAME),
+                new Attribute("test.jmx.counter", 0L));
+    }
+
+    @Test
+    public void setsNoneOfSeveralAttributes() throws Exception {
+        Metrics.counter("test.jmx.readOnly").add(3);
+        MetricsMBean.register();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MetricsMBean.OBJECT_NAME);
+        AttributeList attributes = new AttributeList();
+        attributes.add(new Attribute("test.jmx.readOnly", 0L));
+        attributes.add(new Attribute("test.jmx.unknown", 0L));
+
+        assertThat(server.setAttributes(name, attributes).isEmpty(), is(true));
+        assertThat(server.getAttribute(name, "test.jmx.readOnly"), is(3L));
+    }
+
+    @Test(expected = ReflectionException.class)
+    public void rejectsOperations() throws Exception {
+        MetricsMBean.register();
+        ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName(MetricsMBean.OBJECT_NAME), "reset",
+                new Object[0], new String[0]);
+    }
+}
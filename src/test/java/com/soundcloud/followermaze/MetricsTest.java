@@ -0,0 +1,77 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+public class MetricsTest {
+
+    @Test
+    public void looksUpCountersByName() {
+        Metrics.counter("test.counter").add(3);
+        Metrics.counter("test.counter").add(4);
+
+        assertThat(Metrics.counter("test.counter"), sameInstance(Metrics.counter("test.counter")));
+        assertThat(Metrics.snapshot().get("test.counter"), is(7L));
+    }
+
+    @Test
+    public void readsGaugesWhenSnapshotIsTaken() {
+        AtomicLong value = new AtomicLong(10);
+        Metrics.gauge("test.gauge", value::get);
+        assertThat(Metrics.snapshot().get("test.gauge"), is(10L));
+
+        value.set(20);
+        assertThat(Metrics.snapshot().get("test.gauge"), is(20L));
+    }
+
+    @Test
+    public void flattensHistogramsIntoCountPercentilesAndMax() {
+        Histogram histogram = Metrics.histogram("test.histogram");
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        Map<String, Long> snapshot = Metrics.snapshot();
+        assertThat(snapshot.get("test.histogram.count"), is(1000L));
+        assertThat(snapshot.get("test.histogram.max"), is(1000L));
+        assertThat(Math.abs(snapshot.get("test.histogram.p50") - 500) <= 16, is(true));
+        assertThat(Math.abs(snapshot.get("test.histogram.p99") - 990) <= 31, is(true));
+    }
+
+    @Test
+    public void recordsHistogramValuesFromConcurrentThreads() throws Exception {
+        final int numberOfThreads = 8;
+        final int valuesPerThread = 100000;
+        Histogram histogram = Metrics.histogram("test.concurrentHistogram");
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        Future[] promises = new Future[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            long thread = i;
+            promises[i] = executor.submit(() -> {
+                for (int v = 0; v < valuesPerThread; v++) {
+                    histogram.record(thread * valuesPerThread + v);
+                }
+            });
+        }
+        for (Future promise : promises) {
+            promise.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        LatencyHistogram snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), is((long) numberOfThreads * valuesPerThread));
+        assertThat(snapshot.getMax(), is((long) numberOfThreads * valuesPerThread - 1));
+    }
+}
@@ -0,0 +1,255 @@
+package com.soundcloud.followermaze;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.soundcloud.followermaze.SocketUtils.bufferedReaderFrom;
+import static com.soundcloud.followermaze.SocketUtils.silentClose;
+import static com.soundcloud.followermaze.TestFixtures.buildEvents;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertTrue;
+
+public class NioTransportTest {
+
+    private ServerSocketChannel testServer;
+    private SocketChannel serverConnection;
+    private Socket clientConnection;
+    private NioTransport transport;
+
+    @Before
+    public void setup() throws Exception {
+        testServer = ServerSocketChannel.open();
+        testServer.bind(new InetSocketAddress("localhost", 0));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<SocketChannel> promise = executor.submit(() -> testServer.accept());
+        clientConnection = new Socket("localhost", testServer.socket().getLocalPort());
+        serverConnection = promise.get();
+
+        transport = newTransport(64 * 1024 * 1024, SlowConsumerPolicy.BLOCK);
+    }
+
+    private NioTransport newTransport(long outboundQueueBytes, SlowConsumerPolicy policy) throws IOException {
+        if (transport != null) {
+            transport.stop();
+        }
+        NioTransport started = new NioTransport(2, outboundQueueBytes, policy);
+        started.start();
+        return started;
+    }
+
+    @After
+    public void teardown() {
+        transport.stop();
+        silentClose(clientConnection);
+        silentClose(serverConnection);
+        silentClose(testServer);
+    }
+
+    @Test
+    public void sendsSeveralEventsInOrder() throws IOException {
+        final int numberOfEvents = 10000;
+        final List<Event> events = buildEvents(numberOfEvents);
+
+        Client client = transport.newClient(666L, serverConnection.socket());
+        for (Event e : events) {
+            client.send(e);
+        }
+
+        BufferedReader in = bufferedReaderFrom(clientConnection);
+        for (Event e : events) {
+            assertThat(in.readLine(), equalTo(e.toPayload()));
+        }
+    }
+
+    @Test
+    public void mergesBroadcastLogWithDirectedEventsInOrder() throws Exception {
+        final int numberOfEvents = 10000;
+        final List<Event> events = buildEvents(numberOfEvents);
+        final BroadcastLog log = new BroadcastLog(64 * 1024 * 1024, SlowConsumerPolicy.BLOCK);
+
+        Client client = transport.newClient(666L, serverConnection.socket());
+        assertTrue(client.subscribe(log));
+        for (Event e : events) {
+            if (e.getSequence() % 3 == 0) {
+                log.append(e);
+            } else {
+                client.write(e);
+            }
+            if (e.getSequence() % 100 == 0) {
+                client.flush();
+                log.publish();
+            }
+        }
+
+        BufferedReader in = bufferedReaderFrom(clientConnection);
+        for (Event e : events) {
+            assertThat(in.readLine(), equalTo(e.toPayload()));
+        }
+    }
+
+    @Test
+    public void doesNotBlockSenderWhenPeerStopsReading() throws IOException {
+        final int numberOfEvents = 1000000;
+        final List<Event> events = buildEvents(numberOfEvents);
+
+        Client client = transport.newClient(666L, serverConnection.socket());
+        long start = System.nanoTime();
+        for (Event e : events) {
+            client.send(e);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue("sending took " + elapsed + "ns", elapsed < TimeUnit.SECONDS.toNanos(5));
+
+        BufferedReader in = bufferedReaderFrom(clientConnection);
+        for (Event e : events) {
+            assertThat(in.readLine(), equalTo(e.toPayload()));
+        }
+    }
+
+    @Test
+    public void blocksSenderWhenPeerFallsBehindWithBlockPolicy() throws Exception {
+        final int numberOfEvents = 1000000;
+        final List<Event> events = buildEvents(numberOfEvents);
+        transport = newTransport(64 * 1024, SlowConsumerPolicy.BLOCK);
+
+        Client client = transport.newClient(666L, serverConnection.socket());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future promise = executor.submit(() -> {
+            for (Event e : events) {
+                client.write(e);
+            }
+            client.flush();
+            return null;
+        });
+
+        BufferedReader in = bufferedReaderFrom(clientConnection);
+        for (Event e : events) {
+            assertThat(in.readLine(), equalTo(e.toPayload()));
+        }
+        promise.get();
+    }
+
+    @Test(expected = IOException.class)
+    public void disconnectsPeerThatFallsBehindWithDisconnectPolicy() throws IOException {
+        transport = newTransport(64 * 1024, SlowConsumerPolicy.DISCONNECT);
+
+        Client client = transport.newClient(666L, serverConnection.socket());
+        for (Event e : buildEvents(1000000)) {
+            client.write(e);
+        }
+    }
+
+    @Test
+    public void dropsEventsForPeerThatFallsBehindWithDropPolicy() throws IOException {
+        final int numberOfEvents = 1000000;
+        transport = newTransport(64 * 1024, SlowConsumerPolicy.DROP);
+        long droppedBefore = Metrics.counter("clients.slowConsumer.droppedEvents").sum();
+
+        Client client = transport.newClient(666L, serverConnection.socket());
+        for (Event e : buildEvents(numberOfEvents)) {
+            client.write(e);
+        }
+        client.flush();
+
+        long dropped = Metrics.counter("clients.slowConsumer.droppedEvents").sum() - droppedBefore;
+        assertTrue("dropped " + dropped + " events", dropped > 0 && dropped < numberOfEvents);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSocketWithoutChannel() throws IOException {
+        transport.newClient(666L, new Socket());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToSendOnceConnectionIsClosed() throws Exception {
+        Client client = transport.newClient(666L, serverConnection.socket());
+        clientConnection.close();
+
+        for (int i = 0; i < 100; i++) {
+            client.send(Event.newBroadcast(i + 1));
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void closesClientOncePeerDisconnects() throws Exception {
+        CountDownLatch disconnected = new CountDownLatch(1);
+        Client client = transport.newClient(666L, serverConnection.socket());
+        client.onDisconnect(disconnected::countDown);
+
+        clientConnection.close();
+
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertTrue(client.isClosed());
+    }
+
+    @Test
+    public void forgetsClientOncePeerDisconnects() throws Exception {
+        CountDownLatch disconnected = new CountDownLatch(1);
+        Client client = transport.newClient(666L, serverConnection.socket());
+        client.onDisconnect(disconnected::countDown);
+        assertThat(transport.clientCount(), equalTo(1));
+
+        clientConnection.close();
+
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertThat(transport.clientCount(), equalTo(0));
+    }
+
+    @Test
+    public void forgetsClientsClosedByOtherThreads() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Socket peer = new Socket("localhost", testServer.socket().getLocalPort());
+            SocketChannel connection = testServer.accept();
+            transport.newClient(i + 1L, connection.socket()).close();
+            silentClose(peer);
+        }
+        Client client = transport.newClient(666L, serverConnection.socket());
+        client.send(Event.newBroadcast(1));
+        assertThat(bufferedReaderFrom(clientConnection).readLine(), equalTo(Event.newBroadcast(1).toPayload()));
+
+        client.close();
+
+        assertThat(transport.clientCount(), equalTo(0));
+    }
+
+    @Test(timeout = 30000)
+    public void keepsWritingOnceClientsAreClosedWhileBeingWritten() throws Exception {
+        // A single writer, so that it handles every one of the clients closed under its feet.
+        transport.stop();
+        transport = new NioTransport(1, 64 * 1024 * 1024, SlowConsumerPolicy.BLOCK);
+        transport.start();
+        final List<Event> events = buildEvents(100);
+
+        for (int i = 0; i < 200; i++) {
+            Socket peer = new Socket("localhost", testServer.socket().getLocalPort());
+            SocketChannel connection = testServer.accept();
+            Client closing = transport.newClient(i + 1L, connection.socket());
+            for (Event e : events) {
+                closing.send(e);
+            }
+            closing.close();
+            silentClose(peer);
+        }
+
+        Client client = transport.newClient(666L, serverConnection.socket());
+        client.send(events.get(0));
+        assertThat(bufferedReaderFrom(clientConnection).readLine(), equalTo(events.get(0).toPayload()));
+    }
+}
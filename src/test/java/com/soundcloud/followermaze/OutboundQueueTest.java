@@ -0,0 +1,102 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class OutboundQueueTest {
+
+    private static final AtomicInteger drainRequests = new AtomicInteger();
+
+    private static OutboundQueue queueOf(long capacityBytes, SlowConsumerPolicy policy) {
+        return new OutboundQueue(capacityBytes, policy, drainRequests::incrementAndGet);
+    }
+
+    private static Event frameOf(int length) {
+        byte[] frame = new byte[length];
+        return Event.of(1L, EventType.BROADCAST, 0, 0, frame);
+    }
+
+    private static long counter(String name) {
+        return Metrics.counter(name).sum();
+    }
+
+    @Test
+    public void queuesFramesInOrderAndTracksBytes() throws IOException {
+        OutboundQueue queue = queueOf(100, SlowConsumerPolicy.DISCONNECT);
+        Event first = frameOf(10);
+        Event second = frameOf(20);
+
+        queue.offer(first);
+        queue.offer(second);
+        assertThat(queue.getQueuedBytes(), is(30L));
+
+        assertThat(queue.poll(), is(first));
+        assertThat(queue.poll(), is(second));
+        assertThat(queue.poll(), is(nullValue()));
+        assertThat(queue.getQueuedBytes(), is(0L));
+    }
+
+    @Test
+    public void alwaysAcceptsFrameWhenEmpty() throws IOException {
+        OutboundQueue queue = queueOf(10, SlowConsumerPolicy.DISCONNECT);
+        assertThat(queue.offer(frameOf(100)), is(true));
+    }
+
+    @Test
+    public void dropsAndCountsFramesWhenFull() throws IOException {
+        long droppedBefore = counter("clients.slowConsumer.droppedEvents");
+        OutboundQueue queue = queueOf(25, SlowConsumerPolicy.DROP);
+
+        assertThat(queue.offer(frameOf(10)), is(true));
+        assertThat(queue.offer(frameOf(10)), is(true));
+        assertThat(queue.offer(frameOf(10)), is(false));
+        assertThat(queue.getQueuedBytes(), is(20L));
+        assertThat(counter("clients.slowConsumer.droppedEvents"), is(droppedBefore + 1));
+    }
+
+    @Test
+    public void failsAndCountsWhenFullWithDisconnectPolicy() throws IOException {
+        long disconnectedBefore = counter("clients.slowConsumer.disconnected");
+        OutboundQueue queue = queueOf(15, SlowConsumerPolicy.DISCONNECT);
+        queue.offer(frameOf(10));
+
+        try {
+            queue.offer(frameOf(10));
+            throw new AssertionError("should have failed");
+        } catch (IOException expected) { }
+
+        assertThat(counter("clients.slowConsumer.disconnected"), is(disconnectedBefore + 1));
+    }
+
+    @Test
+    public void blocksUntilWriterMakesRoom() throws Exception {
+        long blockedBefore = counter("clients.slowConsumer.blockedWrites");
+        int drainRequestsBefore = drainRequests.get();
+        OutboundQueue queue = queueOf(15, SlowConsumerPolicy.BLOCK);
+        queue.offer(frameOf(10));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Boolean> promise = executor.submit(() -> queue.offer(frameOf(10)));
+        try {
+            promise.get(200, TimeUnit.MILLISECONDS);
+            throw new AssertionError("should have blocked");
+        } catch (TimeoutException expected) { }
+
+        assertThat(drainRequests.get(), is(drainRequestsBefore + 1));
+        queue.poll();
+        assertThat(promise.get(10, TimeUnit.SECONDS), is(true));
+        assertThat(queue.getQueuedBytes(), is(10L));
+        assertThat(counter("clients.slowConsumer.blockedWrites"), is(blockedBefore + 1));
+    }
+}
@@ -0,0 +1,271 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.soundcloud.followermaze.TestFixtures.buildEvents;
+import static com.soundcloud.followermaze.TestFixtures.buildShuffledEvents;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class ReorderBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Event> drain(ReorderBuffer buffer) {
+        List<Event> events = new ArrayList<>();
+        Event e;
+        while ((e = buffer.poll()) != null) {
+            events.add(e);
+        }
+        return events;
+    }
+
+    @Test
+    public void releasesNothingWhileHeadIsMissing() {
+        ReorderBuffer buffer = new ReorderBuffer(16, 1L);
+        buffer.offer(Event.newBroadcast(2L));
+        buffer.offer(Event.newBroadcast(3L));
+
+        assertThat(buffer.poll(), is(nullValue()));
+        assertThat(buffer.size(), is(2));
+    }
+
+    @Test
+    public void releasesContiguousRunOnceHeadArrives() {
+        ReorderBuffer buffer = new ReorderBuffer(16, 1L);
+        buffer.offer(Event.newBroadcast(3L));
+        buffer.offer(Event.newBroadcast(2L));
+        buffer.offer(Event.newBroadcast(5L));
+        buffer.offer(Event.newBroadcast(1L));
+
+        List<Event> released = drain(buffer);
+        assertThat(released.size(), is(3));
+        assertThat(released.get(0).getSequence(), is(1L));
+        assertThat(released.get(2).getSequence(), is(3L));
+        assertThat(buffer.getNextSequence(), is(4L));
+        assertThat(buffer.size(), is(1));
+    }
+
+    @Test
+    public void rejectsStaleAndDuplicateEvents() {
+        ReorderBuffer buffer = new ReorderBuffer(16, 1L);
+        assertThat(buffer.offer(Event.newBroadcast(1L)), is(true));
+        assertThat(buffer.offer(Event.newBroadcast(3L)), is(true));
+        assertThat(buffer.offer(Event.newBroadcast(3L)), is(false));
+        buffer.poll();
+        assertThat(buffer.offer(Event.newBroadcast(1L)), is(false));
+    }
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertThat(new ReorderBuffer(1000, 1L).capacity(), is(1024));
+        assertThat(new ReorderBuffer(1024, 1L).capacity(), is(1024));
+    }
+
+    @Test
+    public void growsWhenEventFallsBeyondWindow() {
+        ReorderBuffer buffer = new ReorderBuffer(4, 128, 1L);
+        buffer.offer(Event.newBroadcast(3L));
+        buffer.offer(Event.newBroadcast(100L));
+        assertThat(buffer.capacity(), is(128));
+
+        for (long i = 1; i < 100; i++) {
+            buffer.offer(Event.newBroadcast(i));
+        }
+        List<Event> released = drain(buffer);
+        assertThat(released.size(), is(100));
+        for (int i = 0; i < released.size(); i++) {
+            assertThat(released.get(i).getSequence(), is(i + 1L));
+        }
+    }
+
+    @Test
+    public void wrapsAroundTheRing() {
+        final int numberOfEvents = 100000;
+        ReorderBuffer buffer = new ReorderBuffer(numberOfEvents, 1L);
+        List<Event> released = new ArrayList<>();
+        for (Event e : buildShuffledEvents(numberOfEvents)) {
+            buffer.offer(e);
+            released.addAll(drain(buffer));
+        }
+        assertThat(released.size(), is(numberOfEvents));
+        for (int i = 0; i < released.size(); i++) {
+            assertThat(released.get(i).getSequence(), is(i + 1L));
+        }
+    }
+
+    private void offerLocallyShuffled(ReorderBuffer buffer, int numberOfEvents, int disorder) {
+        long first = buffer.getNextSequence();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < numberOfEvents; i++) {
+            events.add(Event.newBroadcast(first + i));
+        }
+        Random random = new Random(666);
+        for (int i = 0; i < numberOfEvents; i += disorder) {
+            Collections.shuffle(events.subList(i, Math.min(numberOfEvents, i + disorder)), random);
+        }
+        for (Event e : events) {
+            buffer.offer(e);
+            drain(buffer);
+        }
+        assertThat(buffer.getNextSequence(), is(first + numberOfEvents));
+    }
+
+    @Test
+    public void adaptsWindowToObservedDisplacement() {
+        ReorderBuffer buffer = new ReorderBuffer(16, 1 << 16, 1L);
+
+        offerLocallyShuffled(buffer, ReorderBuffer.ADAPTATION_INTERVAL * 2, 1000);
+        assertThat(buffer.capacity(), is(1024));
+        assertThat(buffer.getCoveredDisplacement() < 1000, is(true));
+
+        offerLocallyShuffled(buffer, ReorderBuffer.ADAPTATION_INTERVAL * 2, 1);
+        assertThat(buffer.capacity(), is(16));
+        assertThat(buffer.getCoveredDisplacement(), is(0L));
+    }
+
+    @Test
+    public void growsWindowAheadOfTime() {
+        ReorderBuffer buffer = new ReorderBuffer(16, 1 << 16, 1L);
+
+        // Events arrive in pairs, swapped, so the window only needs two slots, until the disorder widens.
+        offerLocallyShuffled(buffer, ReorderBuffer.ADAPTATION_INTERVAL, 2);
+        offerLocallyShuffled(buffer, ReorderBuffer.ADAPTATION_INTERVAL, 100);
+
+        assertThat(buffer.capacity(), is(128));
+    }
+
+    @Test
+    public void shrinksWindowOnceGapCloses() {
+        ReorderBuffer buffer = new ReorderBuffer(16, 8192, 1L);
+
+        buffer.offer(Event.newBroadcast(5000L));
+        assertThat(buffer.capacity(), is(8192));
+        for (long sequence = 1; sequence < 5000; sequence++) {
+            buffer.offer(Event.newBroadcast(sequence));
+        }
+        assertThat(drain(buffer).size(), is(5000));
+
+        // The gap still counts for the displacements observed until the next adaptation.
+        offerLocallyShuffled(buffer, ReorderBuffer.ADAPTATION_INTERVAL, 1);
+        assertThat(buffer.capacity(), is(8192));
+
+        offerLocallyShuffled(buffer, ReorderBuffer.ADAPTATION_INTERVAL, 1);
+        assertThat(buffer.capacity(), is(16));
+    }
+
+    @Test
+    public void doesNotShrinkWhileBufferedEventsWouldNotFit() {
+        final long farEvent = 100_000L;
+        ReorderBuffer buffer = new ReorderBuffer(16, 1 << 17, 1L);
+
+        buffer.offer(Event.newBroadcast(farEvent));
+        assertThat(buffer.capacity(), is(1 << 17));
+        // Every other event arrives in order, so the window adapts to cover nothing but the head.
+        List<Event> released = new ArrayList<>();
+        for (long sequence = 1; sequence < ReorderBuffer.ADAPTATION_INTERVAL; sequence++) {
+            buffer.offer(Event.newBroadcast(sequence));
+            released.addAll(drain(buffer));
+        }
+        assertThat(buffer.capacity(), is(1 << 17));
+
+        for (long sequence = ReorderBuffer.ADAPTATION_INTERVAL; sequence < farEvent; sequence++) {
+            buffer.offer(Event.newBroadcast(sequence));
+            released.addAll(drain(buffer));
+        }
+        assertThat(released.size(), is((int) farEvent));
+    }
+
+    @Test
+    public void rejectsEventsPastTheMaximumWindowWithoutSpill() {
+        ReorderBuffer buffer = new ReorderBuffer(16, 1024, 1L);
+
+        assertThat(buffer.offer(Event.newBroadcast(2_000_000_000L)), is(false));
+        assertThat(buffer.capacity(), is(16));
+
+        for (long sequence = 1; sequence <= 10; sequence++) {
+            buffer.offer(Event.newBroadcast(sequence));
+        }
+        assertThat(drain(buffer).size(), is(10));
+    }
+
+    @Test
+    public void spillsEventsPastTheMaximumWindowAndPutsThemBackInOrder() throws Exception {
+        final int numberOfEvents = 200_000;
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 1000);
+        ReorderBuffer buffer = new ReorderBuffer(16, 1024, 1L, spill);
+        List<Event> events = buildEvents(numberOfEvents);
+        Collections.reverse(events);
+
+        for (Event e : events.subList(0, numberOfEvents - 1)) {
+            buffer.offer(e);
+        }
+        assertThat(buffer.capacity(), is(1024));
+        assertThat(buffer.spilled(), is((long) numberOfEvents - 1024));
+
+        buffer.offer(events.get(numberOfEvents - 1));
+        List<Event> released = drain(buffer);
+
+        assertThat(released.size(), is(numberOfEvents));
+        for (int i = 0; i < released.size(); i++) {
+            assertThat(released.get(i).getSequence(), is(i + 1L));
+        }
+        assertThat(buffer.capacity() <= 1024, is(true));
+        assertThat(buffer.spilled(), is(0L));
+    }
+
+    @Test
+    public void discardsDuplicatesOfSpilledEvents() throws Exception {
+        ReorderBuffer buffer = new ReorderBuffer(16, 16, 1L, new ReorderSpill(folder.getRoot().toPath(), 10));
+        buffer.offer(Event.newBroadcast(100L));
+        buffer.offer(Event.newBroadcast(100L));
+        List<Event> released = new ArrayList<>();
+        for (long sequence = 1; sequence < 100; sequence++) {
+            buffer.offer(Event.newBroadcast(sequence));
+            released.addAll(drain(buffer));
+        }
+
+        assertThat(released.size(), is(100));
+        assertThat(released.get(99).getSequence(), is(100L));
+        assertThat(buffer.size(), is(0));
+        assertThat(buffer.spilled(), is(0L));
+    }
+
+    @Test
+    public void skipsGapToEventsSpilledAfterIt() throws Exception {
+        ReorderBuffer buffer = new ReorderBuffer(16, 16, 1L, new ReorderSpill(folder.getRoot().toPath(), 10));
+        buffer.offer(Event.newBroadcast(100L));
+        buffer.offer(Event.newBroadcast(101L));
+
+        assertThat(buffer.skipGap(), is(100L));
+        List<Event> released = drain(buffer);
+
+        assertThat(released.size(), is(2));
+        assertThat(released.get(0).getSequence(), is(100L));
+        assertThat(buffer.isEmpty(), is(true));
+    }
+
+    @Test
+    public void countsTheBytesOfBufferedEvents() throws Exception {
+        ReorderBuffer buffer = new ReorderBuffer(16, 16, 1L, new ReorderSpill(folder.getRoot().toPath(), 10));
+        Event buffered = Event.newBroadcast(2L);
+        Event spilled = Event.newBroadcast(100L);
+        buffer.offer(buffered);
+        buffer.offer(spilled);
+
+        assertThat(buffer.bufferedBytes(), is((long) buffered.getFrameLength() + spilled.getFrameLength()));
+
+        buffer.skipGap();
+        drain(buffer);
+        assertThat(buffer.bufferedBytes(), is((long) spilled.getFrameLength()));
+    }
+}
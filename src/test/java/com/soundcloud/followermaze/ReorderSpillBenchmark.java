@@ -0,0 +1,75 @@
+package com.soundcloud.followermaze;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the heap retained by the reorder stage while a gap is open, with
+ * and without spilling events to disk, and how long it takes to put them
+ * back in order once the gap closes.
+ *
+ * Events are generated in reverse order, one at a time, so that the first
+ * event dispatched is the last one to arrive, and every other event is held
+ * back by the reorder stage until then. Without spilling, events past the
+ * maximum window are rejected, so only gaps narrower than it are measured.
+ *
+ * Usage: {@code ./gradlew reorderSpillBenchmark}, or run with the number of
+ * events of each round as arguments.
+ */
+public class ReorderSpillBenchmark {
+
+    private static final int MAX_REORDER_WINDOW = 1024 * 1024;
+    private static final int STAGING_EVENTS = 64 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("spill-benchmark");
+        try {
+            for (String arg : args.length == 0 ? new String[]{"1_000_000", "10_000_000"} : args) {
+                long events = Long.parseLong(arg.replace("_", ""));
+                if (events <= MAX_REORDER_WINDOW) {
+                    measure(events, null);
+                }
+                measure(events, directory);
+            }
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    private static void measure(long events, Path directory) throws IOException {
+        ReorderSpill spill = directory == null ? null : new ReorderSpill(directory, STAGING_EVENTS);
+        ReorderBuffer buffer = new ReorderBuffer(1024, MAX_REORDER_WINDOW, 1, spill);
+        System.gc();
+        long heapBefore = usedHeap();
+
+        long start = System.nanoTime();
+        for (long sequence = events; sequence > 1; sequence--) {
+            buffer.offer(Event.newPrivateMessage(sequence, sequence % 1000, sequence % 777));
+        }
+        long held = System.nanoTime();
+        System.gc();
+        long retainedHeap = usedHeap() - heapBefore;
+
+        buffer.offer(Event.newPrivateMessage(1, 1, 1));
+        long released = 0;
+        while (buffer.poll() != null) {
+            released++;
+        }
+        long drained = System.nanoTime();
+        buffer.close();
+
+        System.out.printf("%,12d events  %-8s  retained heap %,6d MiB  hold %,6d ms  release %,6d ms%s%n",
+                events, spill == null ? "memory" : "spilled", retainedHeap >> 20, millis(start, held),
+                millis(held, drained), released == events ? "" : "  MISSING " + (events - released));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1_000_000;
+    }
+}
@@ -0,0 +1,195 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.soundcloud.followermaze.TestFixtures.buildShuffledEvents;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ReorderSpillTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int spillFiles() {
+        File[] files = folder.getRoot().listFiles((dir, name) -> name.endsWith(".spill"));
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void drainsStagedEventsInSequenceOrder() throws Exception {
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 100);
+        spill.add(Event.newBroadcast(30L));
+        spill.add(Event.newBroadcast(10L));
+        spill.add(Event.newBroadcast(20L));
+
+        assertThat(spill.lowestSequence(), is(10L));
+
+        List<Event> drained = new ArrayList<>();
+        spill.drainBelow(25L, drained::add);
+
+        assertThat(drained.size(), is(2));
+        assertThat(drained.get(0).getSequence(), is(10L));
+        assertThat(drained.get(1).getSequence(), is(20L));
+        assertThat(spill.lowestSequence(), is(30L));
+        assertThat(spill.size(), is(1L));
+        assertThat(spillFiles(), is(0));
+    }
+
+    @Test
+    public void mergesRunsAndStagedEventsInSequenceOrder() throws Exception {
+        final int numberOfEvents = 10_000;
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 1000);
+        for (Event e : buildShuffledEvents(numberOfEvents)) {
+            spill.add(e);
+        }
+        assertThat(spill.runs(), is(9));
+        assertThat(spillFiles(), is(9));
+
+        List<Event> drained = new ArrayList<>();
+        for (long below = 1001; below <= numberOfEvents + 1; below += 1000) {
+            spill.drainBelow(below, drained::add);
+            assertThat(drained.size(), is((int) below - 1));
+        }
+
+        for (int i = 0; i < numberOfEvents; i++) {
+            assertThat(drained.get(i).getSequence(), is(i + 1L));
+        }
+        assertThat(spill.size(), is(0L));
+        assertThat(spill.lowestSequence(), is(Long.MAX_VALUE));
+        assertThat(spillFiles(), is(0));
+    }
+
+    @Test
+    public void mergesRunsWhenThereAreTooMany() throws Exception {
+        final int numberOfEvents = 10_000;
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 100);
+        for (Event e : buildShuffledEvents(numberOfEvents)) {
+            spill.add(e);
+        }
+        assertThat(spill.runs() <= 64, is(true));
+
+        List<Event> drained = new ArrayList<>();
+        spill.drainBelow(Long.MAX_VALUE, drained::add);
+
+        assertThat(drained.size(), is(numberOfEvents));
+        for (int i = 0; i < numberOfEvents; i++) {
+            assertThat(drained.get(i).getSequence(), is(i + 1L));
+        }
+    }
+
+    @Test
+    public void rewritesEachEventOnlyAFewTimesWhileMergingRuns() throws Exception {
+        final int numberOfEvents = 100_000;
+        long mergedBefore = ReorderSpill.mergedEvents.sum();
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 100);
+        for (Event e : buildShuffledEvents(numberOfEvents)) {
+            spill.add(e);
+        }
+
+        // Merging every run into one would rewrite each event about 8 times here.
+        long merged = ReorderSpill.mergedEvents.sum() - mergedBefore;
+        assertThat(merged <= 2L * numberOfEvents, is(true));
+
+        List<Event> drained = new ArrayList<>();
+        spill.drainBelow(Long.MAX_VALUE, drained::add);
+        assertThat(drained.size(), is(numberOfEvents));
+        for (int i = 0; i < numberOfEvents; i++) {
+            assertThat(drained.get(i).getSequence(), is(i + 1L));
+        }
+    }
+
+    @Test
+    public void mergesRunsThatWereDrainedInPart() throws Exception {
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 10);
+        for (Event e : buildShuffledEvents(640)) {
+            spill.add(e);
+        }
+        List<Event> drained = new ArrayList<>();
+        spill.drainBelow(321L, drained::add);
+        for (long sequence = 641; sequence <= 1400; sequence++) {
+            spill.add(Event.newBroadcast(sequence));
+        }
+        assertThat(spill.runs() <= 64, is(true));
+
+        drained.clear();
+        spill.drainBelow(Long.MAX_VALUE, drained::add);
+        assertThat(drained.size(), is(1080));
+        for (int i = 0; i < drained.size(); i++) {
+            assertThat(drained.get(i).getSequence(), is(i + 321L));
+        }
+    }
+
+    @Test
+    public void keepsRunsReadableWhenMergingThemFails() throws Exception {
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 10);
+        for (Event e : buildShuffledEvents(640)) {
+            spill.add(e);
+        }
+        // Runs already open can still be read, but cannot be opened again to be merged.
+        for (File file : folder.getRoot().listFiles((dir, name) -> name.endsWith(".spill"))) {
+            Files.delete(file.toPath());
+        }
+        for (long sequence = 641; sequence <= 660; sequence++) {
+            spill.add(Event.newBroadcast(sequence));
+        }
+        assertThat(spill.runs(), is(65));
+        assertThat(spillFiles(), is(2));
+
+        List<Event> drained = new ArrayList<>();
+        spill.drainBelow(Long.MAX_VALUE, drained::add);
+        assertThat(drained.size(), is(660));
+        for (int i = 0; i < drained.size(); i++) {
+            assertThat(drained.get(i).getSequence(), is(i + 1L));
+        }
+    }
+
+    @Test
+    public void keepsEventsAddedWhileDraining() throws Exception {
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 4);
+        for (long sequence = 100; sequence > 90; sequence--) {
+            spill.add(Event.newBroadcast(sequence));
+        }
+        List<Event> drained = new ArrayList<>();
+        spill.drainBelow(95L, drained::add);
+        spill.add(Event.newBroadcast(120L));
+        spill.add(Event.newBroadcast(110L));
+        spill.drainBelow(Long.MAX_VALUE, drained::add);
+
+        assertThat(drained.size(), is(12));
+        for (int i = 1; i < drained.size(); i++) {
+            assertThat(drained.get(i).getSequence() > drained.get(i - 1).getSequence(), is(true));
+        }
+    }
+
+    @Test
+    public void deletesLeftoverFilesWhenOpened() throws Exception {
+        Path leftover = folder.newFile("00000000000000000007.spill").toPath();
+        Files.write(leftover, "1|B\n".getBytes());
+
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 100);
+
+        assertThat(spillFiles(), is(0));
+        assertThat(spill.lowestSequence(), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void deletesFilesWhenClosed() throws Exception {
+        ReorderSpill spill = new ReorderSpill(folder.getRoot().toPath(), 10);
+        for (Event e : buildShuffledEvents(100)) {
+            spill.add(e);
+        }
+        spill.close();
+
+        assertThat(spillFiles(), is(0));
+        assertThat(spill.size(), is(0L));
+    }
+}
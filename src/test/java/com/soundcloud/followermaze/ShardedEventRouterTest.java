@@ -0,0 +1,158 @@
+package com.soundcloud.followermaze;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class ShardedEventRouterTest {
+
+    private static final int SHARDS = 4;
+    private static final int USERS = 50;
+
+    private ShardedEventRouter router;
+
+    private static class RecordingClient extends Client {
+
+        private final List<Long> received = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingClient(long id) {
+            super(id, new Socket());
+        }
+
+        @Override
+        public void write(Event event) {
+            received.add(event.getSequence());
+        }
+
+        @Override
+        public void flush() { }
+    }
+
+    @Before
+    public void setup() {
+        router = new ShardedEventRouter(SHARDS);
+        router.start();
+    }
+
+    @After
+    public void teardown() {
+        router.stop();
+    }
+
+    private static List<RecordingClient> registerClients(EventRouter router) {
+        List<RecordingClient> clients = new ArrayList<>();
+        for (long id = 1; id <= USERS; id++) {
+            RecordingClient client = new RecordingClient(id);
+            router.register(client);
+            clients.add(client);
+        }
+        return clients;
+    }
+
+    private static List<Event> buildRandomEvents(int numberOfEvents) {
+        Random random = new Random(666);
+        List<Event> events = new ArrayList<>();
+        for (long sequence = 1; sequence <= numberOfEvents; sequence++) {
+            long from = 1 + random.nextInt(USERS);
+            long to = 1 + random.nextInt(USERS);
+            switch (random.nextInt(5)) {
+                case 0: events.add(Event.newFollow(sequence, from, to)); break;
+                case 1: events.add(Event.newUnfollow(sequence, from, to)); break;
+                case 2: events.add(Event.newBroadcast(sequence)); break;
+                case 3: events.add(Event.newPrivateMessage(sequence, from, to)); break;
+                default: events.add(Event.newStatusUpdate(sequence, from));
+            }
+        }
+        return events;
+    }
+
+    private static int totalReceived(List<RecordingClient> clients) {
+        return clients.stream().mapToInt(i -> i.received.size()).sum();
+    }
+
+    @Test
+    public void routesEventsLikeSingleRouterPreservingPerClientOrder() throws Exception {
+        List<Event> events = buildRandomEvents(20000);
+
+        EventRouter reference = new EventRouter();
+        List<RecordingClient> expected = registerClients(reference);
+        events.forEach(reference::route);
+
+        List<RecordingClient> actual = registerClients(router);
+        events.forEach(router::route);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (totalReceived(actual) < totalReceived(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        for (int i = 0; i < USERS; i++) {
+            assertThat(actual.get(i).received, equalTo(expected.get(i).received));
+        }
+    }
+
+    @Test
+    public void deliversUpToTheLastEventOnceEveryShardFlushed() throws Exception {
+        registerClients(router);
+        // Private messages to a single user only go through one shard.
+        for (long sequence = 1; sequence <= 1000; sequence++) {
+            router.route(Event.newPrivateMessage(sequence, 2, 1));
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (router.getDeliveredSequence() < 1000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(router.getDeliveredSequence(), is(1000L));
+    }
+
+    @Test
+    public void registersClientsWithTheirShards() {
+        List<RecordingClient> clients = registerClients(router);
+        clients.forEach(i -> assertThat(router.getClient(i.getId()), is(i)));
+        assertThat(Metrics.snapshot().get("clients.connected"), is((long) USERS));
+    }
+
+    @Test
+    public void holdsBackRoutingOnceShardFallsBehind() throws Exception {
+        router.stop();
+        router = new ShardedEventRouter(SHARDS, 1, shard -> null);
+        router.start();
+        CountDownLatch caughtUp = new CountDownLatch(1);
+        router.register(new RecordingClient(1) {
+            @Override
+            public void write(Event event) {
+                try {
+                    caughtUp.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        Thread routing = new Thread(() -> {
+            for (long sequence = 1; sequence <= 10; sequence++) {
+                router.route(Event.newPrivateMessage(sequence, 2, 1));
+            }
+        });
+        routing.start();
+        routing.join(200);
+        assertThat(routing.isAlive(), is(true));
+
+        caughtUp.countDown();
+        routing.join(5000);
+        assertThat(routing.isAlive(), is(false));
+    }
+}
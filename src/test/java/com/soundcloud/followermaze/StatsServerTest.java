@@ -0,0 +1,59 @@
+package com.soundcloud.followermaze;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.soundcloud.followermaze.SocketUtils.bufferedReaderFrom;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class StatsServerTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private Map<String, String> scrape(int port) throws Exception {
+        Map<String, String> stats = new HashMap<>();
+        try (Socket connection = new Socket("localhost", port)) {
+            BufferedReader in = bufferedReaderFrom(connection);
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] pair = line.split(" ");
+                stats.put(pair[0], pair[1]);
+            }
+        }
+        return stats;
+    }
+
+    @Test
+    public void dumpsEveryMetricToEachConnection() throws Exception {
+        Metrics.counter("test.stats.counter").add(42);
+        Metrics.gauge("test.stats.gauge", () -> 7);
+        StatsServer server = new StatsServer(0);
+        executor.submit(server);
+
+        assertThat(scrape(server.getPort()).get("test.stats.counter"), is("42"));
+
+        Metrics.counter("test.stats.counter").increment();
+        Map<String, String> stats = scrape(server.getPort());
+        assertThat(stats.get("test.stats.counter"), is("43"));
+        assertThat(stats.get("test.stats.gauge"), is("7"));
+    }
+}
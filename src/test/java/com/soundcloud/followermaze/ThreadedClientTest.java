@@ -0,0 +1,150 @@
+package com.soundcloud.followermaze;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.soundcloud.followermaze.SocketUtils.bufferedReaderFrom;
+import static com.soundcloud.followermaze.TestFixtures.buildEvents;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class ThreadedClientTest extends AbstractSocketServerTest {
+
+    private ExecutorService writers;
+
+    @Before
+    public void setup() {
+        writers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void teardown() {
+        writers.shutdownNow();
+    }
+
+    private ThreadedClient startClient(long capacityBytes, SlowConsumerPolicy policy) {
+        return ThreadedClient.start(666L, clientConnection, capacityBytes, policy, writers);
+    }
+
+    @Test
+    public void writesEventsInOrderOnceFlushed() throws IOException {
+        final List<Event> events = buildEvents(10000);
+        ThreadedClient client = startClient(1024 * 1024, SlowConsumerPolicy.BLOCK);
+
+        for (Event e : events) {
+            client.write(e);
+        }
+        client.flush();
+
+        BufferedReader in = bufferedReaderFrom(serverConnection);
+        for (Event e : events) {
+            assertThat(in.readLine(), equalTo(e.toPayload()));
+        }
+    }
+
+    @Test
+    public void sendsEventsOneByOne() throws IOException {
+        final List<Event> events = buildEvents(1000);
+        ThreadedClient client = startClient(1024 * 1024, SlowConsumerPolicy.BLOCK);
+
+        BufferedReader in = bufferedReaderFrom(serverConnection);
+        for (Event e : events) {
+            client.send(e);
+            assertThat(in.readLine(), equalTo(e.toPayload()));
+        }
+    }
+
+    @Test
+    public void blocksSenderUntilSlowClientCatchesUp() throws IOException {
+        final List<Event> events = buildEvents(100000);
+        ThreadedClient client = startClient(1024, SlowConsumerPolicy.BLOCK);
+
+        writers.submit(() -> {
+            for (Event e : events) {
+                client.write(e);
+            }
+            client.flush();
+            return null;
+        });
+
+        BufferedReader in = bufferedReaderFrom(serverConnection);
+        for (Event e : events) {
+            assertThat(in.readLine(), equalTo(e.toPayload()));
+        }
+    }
+
+    @Test
+    public void disconnectsSlowClientWithDisconnectPolicy() throws Exception {
+        ThreadedClient client = startClient(64, SlowConsumerPolicy.DISCONNECT);
+        boolean disconnected = false;
+        for (Event e : buildEvents(1000000)) {
+            try {
+                client.write(e);
+            } catch (IOException expected) {
+                disconnected = true;
+                break;
+            }
+        }
+
+        assertThat(disconnected, is(true));
+        assertThat(client.isClosed(), is(true));
+    }
+
+    @Test
+    public void closesConnectionWhenClosed() throws Exception {
+        ThreadedClient client = startClient(1024, SlowConsumerPolicy.BLOCK);
+        client.close();
+
+        assertThat(serverConnection.getInputStream().read(), is(-1));
+    }
+
+    @Test
+    public void closesClientOncePeerDisconnects() throws Exception {
+        CountDownLatch disconnected = new CountDownLatch(1);
+        ThreadedClient client = startClient(1024, SlowConsumerPolicy.BLOCK);
+        client.onDisconnect(disconnected::countDown);
+
+        serverConnection.close();
+
+        assertThat(disconnected.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(client.isClosed(), is(true));
+    }
+
+    @Test
+    public void endsWriterBlockedOnPeerThatStopsReadingOnceClosed() throws Exception {
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        Executor trackedWriters = task -> {
+            Thread thread = new Thread(task);
+            threads.add(thread);
+            thread.start();
+        };
+        ThreadedClient client = ThreadedClient.start(666L, clientConnection, 1024 * 1024 * 1024,
+                SlowConsumerPolicy.BLOCK, trackedWriters);
+        for (Event e : buildEvents(1000000)) {
+            client.write(e);
+        }
+        client.flush();
+
+        // Lets the writer fill the socket buffers and block.
+        Thread.sleep(200);
+        client.close();
+
+        Thread writer = threads.get(0);
+
+        writer.join(5000);
+        assertThat(writer.isAlive(), is(false));
+    }
+}
@@ -0,0 +1,39 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class VirtualThreadsTest {
+
+    private static boolean runsOnVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void givesVirtualThreadsOnlyWhenTheJvmHasThem() throws Exception {
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+        if (!runsOnVirtualThreads()) {
+            assertThat(executor == null, is(true));
+            return;
+        }
+        boolean[] virtual = new boolean[1];
+        executor.submit(() -> {
+            virtual[0] = (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+            return null;
+        }).get();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(virtual[0], is(true));
+    }
+}
@@ -0,0 +1,167 @@
+package com.soundcloud.followermaze;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.soundcloud.followermaze.TestFixtures.buildEvents;
+import static com.soundcloud.followermaze.TestFixtures.buildShuffledEvents;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class WriteAheadLogTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong delivered = new AtomicLong();
+
+    private WriteAheadLog openLog(Path directory) throws IOException {
+        return new WriteAheadLog(directory, SEGMENT_BYTES, WalSyncPolicy.BATCH, 0, delivered::get);
+    }
+
+    private static List<Long> replay(WriteAheadLog log) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        log.replay(event -> sequences.add(event.getSequence()));
+        return sequences;
+    }
+
+    private static List<Long> sequencesUpTo(long last) {
+        return Stream.iterate(1L, i -> i + 1).limit(last).collect(Collectors.toList());
+    }
+
+    private static long segmentFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(i -> i.toString().endsWith(".wal")).count();
+        }
+    }
+
+    @Test
+    public void replaysNothingWhenEmpty() throws Exception {
+        WriteAheadLog log = openLog(folder.getRoot().toPath());
+        assertThat(replay(log).isEmpty(), is(true));
+        assertThat(log.getCheckpoint(), is(0L));
+        log.close();
+    }
+
+    @Test
+    public void replaysEventsInSequenceOrderAfterRestart() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog log = openLog(directory);
+        replay(log);
+        for (Event event : buildShuffledEvents(1000)) {
+            log.append(event);
+        }
+        log.commit();
+        log.close();
+
+        WriteAheadLog reopened = openLog(directory);
+        assertThat(replay(reopened), is(sequencesUpTo(1000)));
+        reopened.close();
+    }
+
+    @Test
+    public void replaysEventsExactlyAsTheyWereReceived() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog log = openLog(directory);
+        replay(log);
+        log.append(Event.fromPayload("1|F|60|50"));
+        log.append(Event.fromPayload("2|U|12|9"));
+        log.append(Event.fromPayload("3|B"));
+        log.append(Event.fromPayload("4|P|32|56"));
+        log.append(Event.fromPayload("5|S|32"));
+        log.commit();
+        log.close();
+
+        List<String> payloads = new ArrayList<>();
+        openLog(directory).replay(event -> payloads.add(event.toPayload()));
+        assertThat(String.join(",", payloads), is("1|F|60|50,2|U|12|9,3|B,4|P|32|56,5|S|32"));
+    }
+
+    @Test
+    public void replaysEachSequenceOnce() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog log = openLog(directory);
+        replay(log);
+        for (Event event : buildEvents(10)) {
+            log.append(event);
+            log.append(event);
+        }
+        log.commit();
+        log.close();
+
+        assertThat(replay(openLog(directory)), is(sequencesUpTo(10)));
+    }
+
+    @Test
+    public void rollsOverToNewSegmentsWhenFull() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog log = openLog(directory);
+        replay(log);
+        for (Event event : buildEvents(5000)) {
+            log.append(event);
+        }
+        log.commit();
+        log.close();
+
+        assertThat(segmentFiles(directory) > 1, is(true));
+        assertThat(replay(openLog(directory)), is(sequencesUpTo(5000)));
+    }
+
+    @Test
+    public void deletesSegmentsOnceTheirEventsAreDelivered() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog log = openLog(directory);
+        replay(log);
+        for (Event event : buildEvents(5000)) {
+            log.append(event);
+        }
+        log.commit();
+        long segments = segmentFiles(directory);
+
+        delivered.set(4000);
+        log.commit();
+        log.close();
+
+        assertThat(segmentFiles(directory) < segments, is(true));
+        assertThat(log.getCheckpoint(), is(4000L));
+
+        WriteAheadLog reopened = openLog(directory);
+        List<Long> replayed = replay(reopened);
+        assertThat(reopened.getCheckpoint(), is(4000L));
+        assertThat(replayed.get(0) <= 4001, is(true));
+        assertThat(replayed.get(replayed.size() - 1), is(5000L));
+    }
+
+    @Test
+    public void keepsSegmentsHoldingUndeliveredEvents() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog log = openLog(directory);
+        replay(log);
+        List<Event> events = buildEvents(5000);
+        // The first event arrives last, so that no segment can be deleted until it is delivered.
+        for (Event event : events.subList(1, events.size())) {
+            log.append(event);
+        }
+        log.append(events.get(0));
+        long segments = segmentFiles(directory);
+
+        delivered.set(0);
+        log.commit();
+        log.close();
+
+        assertThat(segmentFiles(directory), is(segments));
+        assertThat(replay(openLog(directory)), is(sequencesUpTo(5000)));
+    }
+}